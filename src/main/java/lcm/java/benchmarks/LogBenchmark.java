@@ -1,11 +1,23 @@
 package lcm.java.benchmarks;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import lcm.java.system.Filer;
+import lcm.java.system.logging.BinaryLogDecoder;
+import lcm.java.system.logging.LogContext;
+import lcm.java.system.logging.LogFiles;
+import lcm.java.system.logging.LogFormat;
 import lcm.java.system.logging.OLog;
+import lcm.java.system.logging.TLog;
 
 class LogBenchmark extends VoidBenchmark<List<String>> {
     LogBenchmark(int size) {
@@ -62,7 +74,229 @@ class LogBenchmark extends VoidBenchmark<List<String>> {
         if (!file1.read().equals(file2.read()))
             throw new RuntimeException("Files are not equal");
         
+        runFileAppenderComparison();
+        runBinaryFormatComparison();
+        runCompressionComparison();
+        runSharedFileContention(200);
+        runDefaultThreadContention(64);
+        runManyShortLivedThreads(1_000_000);
+
         System.out.println("ALL RIGHT!");
     }
+
+    /**
+     * Compares the old path (opening, appending and closing the file for every line) with OLog's persistent file appender.
+     */
+    void runFileAppenderComparison() throws Exception {
+        String perLineFile = BASE_PATH + "logPerLine.txt";
+        String appenderFile = BASE_PATH + "logAppender.txt";
+        String bufferedAppenderFile = BASE_PATH + "logBufferedAppender.txt";
+        Filer.deleteIfExists(perLineFile);
+        Filer.deleteIfExists(appenderFile);
+        Filer.deleteIfExists(bufferedAppenderFile);
+        Filer.getForWriting(perLineFile);
+        OLog.bufferMessages(false);
+
+        runVoidFunction(input -> {
+            Path path = Path.of(perLineFile);
+            for (String l : input)
+                Files.writeString(path, l + System.lineSeparator(), StandardOpenOption.APPEND);
+        }, "Opening/closing file for each line (Files.writeString)");
+
+        runVoidFunction(input -> {
+            OLog.setFileBuffering(0, 0);
+            OLog.setFilePath(appenderFile);
+            input.forEach(l -> OLog.info(l));
+        }, "Persistent file appender, writing each line");
+
+        runVoidFunction(input -> {
+            OLog.setFileBuffering(64 * 1024, 1000);
+            OLog.setFilePath(bufferedAppenderFile);
+            input.forEach(l -> OLog.info(l));
+            OLog.setFilePath(null); // Closing the file writes what is left in the buffer.
+        }, "Persistent file appender, buffering 64KB");
+
+        OLog.setFileBuffering(0, 0);
+        if (!Filer.get(appenderFile).read().equals(Filer.get(bufferedAppenderFile).read()))
+            throw new RuntimeException("Buffered and unbuffered appender files are not equal");
+    }
+
+    /**
+     * Compares formatting every message into a TEXT line with writing BINARY records, which are only formatted when decoded.
+     */
+    void runBinaryFormatComparison() throws Exception {
+        String textFile = BASE_PATH + "logText.txt";
+        String binaryFile = BASE_PATH + "logBinary.bin";
+        Filer.deleteIfExists(textFile);
+        Filer.deleteIfExists(binaryFile);
+        OLog.bufferMessages(false);
+        OLog.setFileBuffering(64 * 1024, 1000);
+
+        runVoidFunction(input -> {
+            OLog.setFilePath(textFile);
+            for (int i = 0; i < input.size(); i++)
+                OLog.info("Processed item %s (%d of %d) in %.3f ms", input.get(i), i, input.size(), i / 7.0);
+            OLog.setFilePath(null);
+        }, "Formatting TEXT lines, buffering 64KB");
+
+        runVoidFunction(input -> {
+            OLog.setLogFormat(LogFormat.BINARY);
+            OLog.setFilePath(binaryFile);
+            for (int i = 0; i < input.size(); i++)
+                OLog.info("Processed item %s (%d of %d) in %.3f ms", input.get(i), i, input.size(), i / 7.0);
+            OLog.setFilePath(null);
+            OLog.setLogFormat(LogFormat.TEXT);
+        }, "Writing BINARY records, buffering 64KB");
+
+        OLog.setFileBuffering(0, 0);
+        System.out.printf("TEXT file: %d bytes, BINARY file: %d bytes%n", Files.size(Path.of(textFile)), Files.size(Path.of(binaryFile)));
+        try (var decoder = new BinaryLogDecoder(Path.of(binaryFile)).withDateTimeFormat(DateTimeFormatter.ofPattern("dd-MMM-yyyy"))) {
+            if (!decoder.lines().toList().equals(Filer.get(textFile).readAsList()))
+                throw new RuntimeException("Decoded binary file is not equal to the text file");
+        }
+    }
+
+    /**
+     * Compares the CPU cost (elapsed time, since logging threads do the compression) and the bytes written
+     * of uncompressed and compressed files, with different deflate levels.
+     */
+    void runCompressionComparison() throws Exception {
+        OLog.bufferMessages(false);
+        OLog.setFileBuffering(64 * 1024, 1000);
+        for (int level : new int[] {0, 1, 6, 9}) {
+            String file = BASE_PATH + "logCompressed" + level + (level == 0 ? ".txt" : ".gz");
+            Filer.deleteIfExists(file);
+            runVoidFunction(input -> {
+                OLog.setFileCompression(level, 1000);
+                OLog.setFilePath(file);
+                for (int i = 0; i < input.size(); i++)
+                    OLog.info("Processed item %s (%d of %d)", input.get(i), i, input.size());
+                OLog.setFilePath(null);
+            }, "Writing file with compression level " + level);
+            System.out.printf("Compression level %d: %d bytes%n", level, Files.size(Path.of(file)));
+        }
+        OLog.setFileCompression(0, 0);
+        OLog.setFileBuffering(0, 0);
+        try (var reader = LogFiles.newCompressedReader(Path.of(BASE_PATH + "logCompressed6.gz"))) {
+            if (reader.lines().count() != super.predefinedInput.size())
+                throw new RuntimeException("Compressed file doesn't have all the lines");
+        }
+    }
+
+    /**
+     * Many TLog threads writing to the same file, which share a single group-committing appender.
+     */
+    void runSharedFileContention(int threadCount) throws Exception {
+        String sharedFile = BASE_PATH + "logShared.txt";
+        Filer.deleteIfExists(sharedFile);
+        TLog.setGlobalDefaultFilePath(sharedFile);
+
+        runVoidFunction(input -> {
+            Thread[] threads = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                int first = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = first; i < input.size(); i += threadCount)
+                        TLog.info(input.get(i));
+                    TLog.clean();
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+        }, threadCount + " TLog threads appending to the same file");
+
+        TLog.setGlobalDefaultFilePath(null);
+        if (Filer.get(sharedFile).readAsList().size() != super.predefinedInput.size())
+            throw new RuntimeException("Inputs are different from the shared log");
+    }
+
+    /**
+     * Many threads that never change a TLog setting, so they all log through TLog's shared loggers (striped by thread), compared with
+     * the same threads logging through OLog's single logger, where every thread waits on the same lock and file writes can't be grouped.
+     */
+    void runDefaultThreadContention(int threadCount) throws Exception {
+        String singleFile = BASE_PATH + "logSingleLogger.txt";
+        String stripedFile = BASE_PATH + "logStripedLoggers.txt";
+        Filer.deleteIfExists(singleFile);
+        Filer.deleteIfExists(stripedFile);
+        OLog.bufferMessages(false);
+        OLog.setFileBuffering(0, 0);
+
+        runVoidFunction(input -> {
+            OLog.setFilePath(singleFile);
+            runInThreads(threadCount, input, OLog::info);
+            OLog.setFilePath(null);
+        }, threadCount + " threads logging through OLog's single logger");
+
+        runVoidFunction(input -> {
+            TLog.setGlobalDefaultFilePath(stripedFile);
+            runInThreads(threadCount, input, TLog::info);
+            TLog.setGlobalDefaultFilePath(null);
+        }, threadCount + " default-configured threads logging through TLog's shared loggers");
+
+        if (Filer.get(singleFile).readAsList().size() != super.predefinedInput.size()
+            || Filer.get(stripedFile).readAsList().size() != super.predefinedInput.size())
+            throw new RuntimeException("Inputs are different from the contended logs");
+    }
+
+    private static void runInThreads(int threadCount, List<String> input, Consumer<String> log) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < input.size(); i += threadCount)
+                    log.accept(input.get(i));
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    /**
+     * A huge number of short-lived threads logging through TLog: plain threads use the shared logger,
+     * and threads working for a same request run in its LogContext, so none of them creates a logger of its own.
+     * Virtual threads are used when the JDK has them (21+), otherwise the tasks run on a pool of platform threads.
+     */
+    void runManyShortLivedThreads(int threadCount) throws Exception {
+        String contextFile = BASE_PATH + "logContexts.txt";
+        Filer.deleteIfExists(contextFile);
+        TLog.setGlobalDefaultFilePath(contextFile);
+        TLog.setGlobalDefaultFileBuffering(64 * 1024, 1000);
+        int requestCount = threadCount / 10;
+        LogContext[] contexts = new LogContext[requestCount];
+        for (int r = 0; r < requestCount; r++) {
+            contexts[r] = TLog.newContext();
+            contexts[r].run(() -> TLog.setCustomHeader("[request]"));
+        }
+
+        runVoidFunction(input -> {
+            ExecutorService executor = newThreadPerTaskExecutor();
+            for (int t = 0; t < threadCount; t++) {
+                int index = t;
+                if (index % 2 == 0)
+                    executor.execute(() -> TLog.info(input.get(index % input.size())));
+                else
+                    executor.execute(() -> contexts[index % requestCount].run(() -> TLog.info(input.get(index % input.size()))));
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+        }, threadCount + " short-lived threads logging with TLog (shared logger and request contexts)");
+
+        for (LogContext context : contexts)
+            context.close();
+        TLog.setGlobalDefaultFilePath(null);
+        TLog.setGlobalDefaultFileBuffering(0, 0);
+        if (Filer.get(contextFile).readAsList().size() != threadCount)
+            throw new RuntimeException("Some messages from short-lived threads are missing");
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+        }
+    }
 }
-    
\ No newline at end of file
@@ -0,0 +1,208 @@
+package lcm.java.system.logging;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer/single-consumer ring buffer used for asynchronous logging.
+ * Logging threads only claim a pre-allocated event, fill it and publish it, while a single background thread
+ * does the expensive part (formatting, delegating and printing) through {@link BasicLogger#emit(LogLevel, long, DiagnosticContext, String, String, Object...)}.
+ * A same dispatcher may be shared by several loggers (as TLog does), since each event carries the logger that produced it.
+ */
+class AsyncDispatcher {
+
+    static final int DEFAULT_CAPACITY = 8192;
+    static final int MAX_BATCH_SIZE = 1024;
+
+    private static class Event {
+        BasicLogger logger;
+        LogLevel level;
+        long timestamp;
+        DiagnosticContext diagnostics;
+        String category;
+        String message;
+        Object[] params;
+    }
+
+    private final Event[] events;
+    private final AtomicLongArray sequences; // Per slot: equals position when free to write, position+1 when published.
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long processed = 0; // Only written by the consumer.
+    private volatile boolean consumerWaiting = false;
+    private volatile boolean running = true;
+    private final AtomicInteger publishers = new AtomicInteger(); // Threads inside publish, which the consumer waits for before stopping.
+    private final WaitStrategy waitStrategy;
+    private final Thread consumer;
+
+    AsyncDispatcher(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity for asynchronous logging must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.events = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new Event();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy != null ? waitStrategy : WaitStrategy.BLOCKING;
+        this.consumer = new Thread(this::consume, "lcm-async-logger");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    int capacity() {
+        return events.length;
+    }
+
+    /**
+     * Publishes a message to be emitted by the background thread, waiting (according to the wait strategy) while the ring is full.
+     * @return False if the message could not be published and must be emitted by the caller (dispatcher shut down, or caller is the consumer itself).
+     */
+    boolean publish(BasicLogger logger, LogLevel level, long timestamp, DiagnosticContext diagnostics, String category, String message, Object... params) {
+        if (Thread.currentThread() == consumer)
+            return false;
+        publishers.incrementAndGet(); // Before checking running, so a shutdown either refuses this message or waits for it.
+        try {
+            return running && claimAndPublish(logger, level, timestamp, diagnostics, category, message, params);
+        } finally {
+            publishers.decrementAndGet();
+        }
+    }
+
+    private boolean claimAndPublish(BasicLogger logger, LogLevel level, long timestamp, DiagnosticContext diagnostics, String category, String message, Object[] params) {
+        long position;
+        while (true) {
+            position = claimed.get();
+            long diff = sequences.get((int) position & mask) - position;
+            if (diff == 0) {
+                if (claimed.compareAndSet(position, position + 1))
+                    break;
+            } else if (diff < 0) { // Ring is full, waiting for the consumer to free this slot.
+                if (!running)
+                    return false;
+                waitProducer();
+            }
+        }
+        int index = (int) position & mask;
+        Event event = events[index];
+        event.logger = logger;
+        event.level = level;
+        event.timestamp = timestamp;
+        event.diagnostics = diagnostics;
+        event.category = category;
+        event.message = message;
+        event.params = params;
+        sequences.set(index, position + 1);
+        LogMetrics.INSTANCE.pendingAsyncMessagesChanged(1);
+        if (consumerWaiting)
+            LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Blocks the caller until every event published before this call has been emitted.
+     */
+    void drain() {
+        if (Thread.currentThread() == consumer)
+            return;
+        long target = claimed.get();
+        while (processed < target && consumer.isAlive()) {
+            if (consumerWaiting)
+                LockSupport.unpark(consumer);
+            waitProducer();
+        }
+    }
+
+    /**
+     * Drains all pending events and stops the background thread.
+     * Later calls to {@link #publish(BasicLogger, LogLevel, long, DiagnosticContext, String, String, Object...)} are refused.
+     */
+    void shutdown() {
+        drain();
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Emits the events in order. Consecutive events from a same logger form a run (ended when the ring is momentarily empty,
+     * another logger's event comes, or the run reaches MAX_BATCH_SIZE), whose messages are handed to a batch output handler together.
+     * The processed position only advances when a run ends, so drain doesn't return before the batch is handed.
+     */
+    private void consume() {
+        long position = 0;
+        int runSize = 0;
+        while (true) {
+            int index = (int) position & mask;
+            if (sequences.get(index) == position + 1) {
+                Event event = events[index];
+                BasicLogger logger = event.logger;
+                try {
+                    logger.emit(event.level, event.timestamp, event.diagnostics, event.category, event.message, event.params);
+                    logger.awaitSinkQueues();
+                } catch (Throwable t) {
+                    // The consumer must survive any failure from outputs, or every logging thread would block forever.
+                    if (logger.printStream != null)
+                        logger.printStream.printf("Couldn't emit asynchronous log message\n%s\n", logger.summary(t));
+                }
+                LogMetrics.INSTANCE.pendingAsyncMessagesChanged(-1);
+                event.logger = null;
+                event.diagnostics = null;
+                event.category = null;
+                event.params = null;
+                event.message = null;
+                sequences.set(index, position + events.length);
+                position++;
+                int next = (int) position & mask;
+                if (++runSize >= MAX_BATCH_SIZE || sequences.get(next) != position + 1 || events[next].logger != logger) {
+                    endRun(logger);
+                    runSize = 0;
+                    processed = position;
+                }
+            } else if (!running && publishers.get() == 0 && claimed.get() == position) { // Only stops after every accepted message was emitted.
+                return;
+            } else {
+                waitConsumer(index, position);
+            }
+        }
+    }
+
+    private void endRun(BasicLogger logger) {
+        try {
+            logger.endBatch();
+        } catch (Throwable t) {
+            if (logger.printStream != null)
+                logger.printStream.printf("Couldn't emit asynchronous log messages\n%s\n", logger.summary(t));
+        }
+    }
+
+    private void waitConsumer(int index, long position) {
+        switch (waitStrategy) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELDING -> Thread.yield();
+            case BLOCKING -> {
+                consumerWaiting = true;
+                if (sequences.get(index) != position + 1 && running)
+                    LockSupport.parkNanos(this, 10_000_000L);
+                consumerWaiting = false;
+            }
+        }
+    }
+
+    private void waitProducer() {
+        switch (waitStrategy) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELDING -> Thread.yield();
+            case BLOCKING -> LockSupport.parkNanos(this, 50_000L);
+        }
+    }
+}
@@ -2,57 +2,218 @@ package lcm.java.system.logging;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Formatter;
 import java.util.List;
-import java.util.StringJoiner;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import lcm.java.system.Filer;
 
 class BasicLogger {
 
+    static final long DEFAULT_COALESCING_DELAY_MILLIS = 1000;
+    static final Object[] NO_PARAMS = new Object[0];
+    static final KeyValue[] NO_KEY_VALUES = new KeyValue[0];
+
     class LogMessage {
         final LogLevel level;
-        final LocalDateTime timestamp;
-        final String text;
+        final long timestamp; // Milliseconds since epoch.
+        private final String message;
+        private final Object[] params;
+        private final Supplier<String> messageSupplier;
+        private DiagnosticContext diagnostics = DiagnosticContext.EMPTY;
+        private String category;
+        private String text; // Message formatted with its parameters, without key-values.
+        private KeyValue[] keyValues;
+        private Object[] formatParams;
+        private ThrowableRenderer.Deferred throwable;
+        private String suppliedMessage;
+        private String textWithKeyValues;
         private String formattedText;
 
-        LogMessage(LogLevel level, LocalDateTime timestamp, String text, Object... params) {
+        LogMessage(LogLevel level, long timestamp, String message, Object... params) {
             this.level = level;
             this.timestamp = timestamp;
-            this.text = params != null ? String.format(text, params) : text;
+            this.message = message;
+            this.params = params;
+            this.messageSupplier = null;
         }
 
-        public String getFormattedText() {
-            if (formattedText == null) {
-                formattedText = text;
-                String date = dateTimeFormat.format(timestamp);
-                if (maxMessageLength > 0 && formattedText.length() > maxMessageLength) {
-                    int charsToCut = formattedText.length() - maxMessageLength;
-                    int cutStartIndex = formattedText.length() / 2 - charsToCut / 2;
-                    int cutEndIndex = formattedText.length() / 2 + charsToCut / 2;
-                    formattedText = formattedText.substring(0, cutStartIndex) + "(...)" + formattedText.substring(cutEndIndex);
+        LogMessage(LogLevel level, long timestamp, Supplier<String> messageSupplier) {
+            this.level = level;
+            this.timestamp = timestamp;
+            this.message = null;
+            this.params = null;
+            this.messageSupplier = messageSupplier;
+        }
+
+        /**
+         * Attaches the diagnostic context (MDC) of the thread that logged the message, to be appended as key-values.
+         */
+        LogMessage withDiagnostics(DiagnosticContext diagnostics) {
+            this.diagnostics = diagnostics;
+            return this;
+        }
+
+        /**
+         * Defines the name of the category (see {@link LogCategory}) the message was logged by, which is outputted with the message.
+         */
+        LogMessage withCategory(String category) {
+            this.category = category;
+            return this;
+        }
+
+        /**
+         * Returns the message's text, formatting it (or calling its supplier) only on the first call.
+         * This way, messages that are never outputted (such as discarded ones) don't pay for formatting.
+         * Key-values among the parameters are appended to the text as "key=value".
+         */
+        String getText() {
+            if (textWithKeyValues == null)
+                textWithKeyValues = format(true);
+            return textWithKeyValues;
+        }
+
+        /**
+         * Returns the message's text without key-values (which are outputted as separate fields, in the JSON format).
+         */
+        private String getTextWithoutKeyValues() {
+            if (text == null)
+                text = format(false);
+            return text;
+        }
+
+        /**
+         * Separates the key-values from the parameters used for formatting, and the Throwable given to error (carried as the last parameter), if any.
+         */
+        private void resolve() {
+            if (keyValues != null)
+                return;
+            keyValues = NO_KEY_VALUES;
+            if (messageSupplier != null) {
+                suppliedMessage = String.valueOf(messageSupplier.get());
+            } else if (params != null) {
+                formatParams = params;
+                if (params.length > 0 && params[params.length - 1] instanceof ThrowableRenderer.Deferred) {
+                    throwable = (ThrowableRenderer.Deferred) params[params.length - 1];
+                    formatParams = Arrays.copyOf(params, params.length - 1);
                 }
-                if (maxLineLength > 0 && formattedText.length() > maxLineLength) {
-                    StringJoiner sj = new StringJoiner(System.lineSeparator() + "\t");
-                    for (String line : formattedText.split(System.lineSeparator())) {
-                        while (line.length() > maxLineLength) {
-                            sj.add(line.substring(0, maxLineLength));
-                            line = line.substring(maxLineLength);
-                        }
-                        sj.add(line);
+                int keyValueCount = 0;
+                for (Object param : formatParams)
+                    if (param instanceof KeyValue)
+                        keyValueCount++;
+                if (keyValueCount > 0) {
+                    Object[] allParams = formatParams;
+                    keyValues = new KeyValue[keyValueCount];
+                    formatParams = new Object[allParams.length - keyValueCount];
+                    int k = 0;
+                    int p = 0;
+                    for (Object param : allParams) {
+                        if (param instanceof KeyValue)
+                            keyValues[k++] = (KeyValue) param;
+                        else
+                            formatParams[p++] = param;
                     }
-                    formattedText = sj.toString();
                 }
-                formattedText = String.format("%s [%s] %s%s", date, level.name(), customHeader, formattedText);
             }
+            if (!diagnostics.isEmpty()) {
+                KeyValue[] allKeyValues = Arrays.copyOf(keyValues, keyValues.length + diagnostics.entries.length);
+                System.arraycopy(diagnostics.entries, 0, allKeyValues, keyValues.length, diagnostics.entries.length);
+                keyValues = allKeyValues;
+            }
+        }
+
+        /**
+         * Formats the message with its parameters, followed by the rendered Throwable and (optionally) the key-values.
+         * With a maximum message length, the text is formatted straight into a {@link BoundedText}, already cut,
+         * so a huge String or CharSequence parameter, or stacktrace, never makes the whole text be built, only the start and end that are kept.
+         */
+        private String format(boolean withKeyValues) {
+            resolve();
+            StringBuilder suffix = null;
+            if (throwable != null)
+                suffix = new StringBuilder(throwable.getText());
+            if (withKeyValues && keyValues.length > 0) {
+                if (suffix == null)
+                    suffix = new StringBuilder();
+                for (KeyValue keyValue : keyValues)
+                    keyValue.appendText(suffix.append(' '));
+            }
+            String plainMessage = messageSupplier != null ? suppliedMessage : message;
+            if (maxMessageLength > 0) {
+                BoundedText bounded = new BoundedText(maxMessageLength);
+                if (formatParams == null)
+                    bounded.append(plainMessage);
+                else
+                    new Formatter(bounded).format(message, BoundedText.formatArgs(formatParams));
+                if (suffix != null)
+                    bounded.append(suffix);
+                return bounded.toString();
+            }
+            String formatted = formatParams == null ? plainMessage : String.format(message, formatParams);
+            return suffix == null ? formatted : new StringBuilder(formatted).append(suffix).toString();
+        }
+
+        /**
+         * Checks wether this message repeats the other one: same level, same message and equal parameters (or same text, for supplied messages),
+         * and same diagnostic context and category.
+         */
+        boolean isRepetitionOf(LogMessage other) {
+            if (other == null || level != other.level || !diagnostics.equals(other.diagnostics) || !Objects.equals(category, other.category))
+                return false;
+            if (messageSupplier != null || other.messageSupplier != null)
+                return getText().equals(other.getText());
+            return Objects.equals(message, other.message) && Arrays.equals(params, other.params);
+        }
+
+        /**
+         * Encodes the full line into the logger's reusable encoder, without creating a String.
+         * The returned sequence is only valid until the next message is encoded, and this must be called while holding the logger's lock.
+         */
+        CharSequence encode() {
+            if (formattedText != null)
+                return formattedText;
+            // Texts are already cut to the maximum message length when they're formatted.
+            if (logFormat == LogFormat.JSON)
+                return lineEncoder.encodeJson(timestamp, level, getTextWithoutKeyValues(), keyValues, dateTimeFormat, customHeader, category);
+            return lineEncoder.encode(timestamp, level, getText(), dateTimeFormat, customHeader, category, maxLineLength);
+        }
+
+        /**
+         * Encodes the message as a binary record (see {@link LogFormat#BINARY}), without formatting it:
+         * the format string and the arguments are written as they are, to be formatted only when the file is decoded.
+         */
+        void encodeBinary(BinaryLogWriter writer) {
+            resolve();
+            String throwableText = throwable != null ? throwable.getText() : null;
+            String plainMessage = messageSupplier != null ? suppliedMessage : message;
+            writer.encodeEvent(timestamp, level, customHeader, category, plainMessage, formatParams, keyValues, throwableText);
+        }
+
+        public String getFormattedText() {
+            if (formattedText == null)
+                formattedText = encode().toString();
             return formattedText;
         }
+
+        /**
+         * Creates the same message on another logger, to be formatted with its settings.
+         */
+        LogMessage moveTo(BasicLogger logger) {
+            LogMessage moved = messageSupplier != null ? logger.new LogMessage(level, timestamp, messageSupplier)
+                : logger.new LogMessage(level, timestamp, message, params);
+            return moved.withDiagnostics(diagnostics).withCategory(category);
+        }
     }
 
     LogLevel minimumLevel;
@@ -60,26 +221,67 @@ class BasicLogger {
     DateTimeFormatter dateTimeFormat;
     int maxMessageLength;
     int maxLineLength;
+    LogFormat logFormat = LogFormat.TEXT;
     PrintStream printStream;
-    private Path filePath;
+    FileAppender fileAppender;
+    FileOptions fileOptions = FileOptions.DEFAULT;
     java.lang.System.Logger systemLogger;
     java.util.logging.Logger utilLogger;
     BiConsumer<LogLevel, String> customOutputHandler;
-    List<LogMessage> discardedMessages = null;
-    List<LogMessage> bufferedMessages = null;
+    BatchOutputHandler batchOutputHandler;
+    LogTail logTail;
+    Collection<LogMessage> discardedMessages = null;
+    boolean flushDiscardedMessagesOnError = false;
+    ArrayDeque<LogMessage> bufferedMessages = null;
+    int bufferCapacity = 0; // 0 means unbounded.
+    BufferOverflowPolicy bufferOverflowPolicy = BufferOverflowPolicy.FLUSH;
+    private long droppedMessages = 0;
     String unflushedMessagesWarning = null;
+    boolean ownedByContext = false;
+    boolean includeDiagnostics = false;
+    AtomicReferenceArray<SinkQueue> sinkQueues = new AtomicReferenceArray<>(LogSink.values().length);
+    AsyncDispatcher asyncDispatcher = null;
+    private long coalescingDelayMillis = 0; // 0 disables coalescing of repeated messages.
+    private LogMessage lastOutputMessage;
+    private int repetitions;
+    private ScheduledFuture<?> repetitionsReport;
+    private final LineEncoder lineEncoder = new LineEncoder();
+    private final ArrayList<LogLevel> batchLevels = new ArrayList<>();
+    private final ArrayList<String> batchTexts = new ArrayList<>();
+    private boolean collectingBatch = false;
+    private BasicLogger successor; // Set when the logger is retired, guarded by its lock.
+    volatile ThrowableRenderer throwableRenderer = new ThrowableRenderer(false);
 
-    protected void setFilePath(String filePath) {
-        this.filePath = null;
+    protected synchronized void setFilePath(String filePath) {
+        closeFile();
         if (filePath == null)
             return;
         try {
-            this.filePath = Filer.getForWriting(filePath).getFilePath();
+            Path path = Filer.getForWriting(filePath).getFilePath();
+            this.fileAppender = FileAppender.acquire(path, fileOptions);
         } catch (Throwable e) {
             error(e, "Couldn't create/open file to write on %s", filePath);
         }
     }
 
+    /**
+     * Changes how file writes are buffered and rolled, reopening the current file (if any) with the new settings.
+     */
+    synchronized void setFileOptions(FileOptions fileOptions) {
+        this.fileOptions = fileOptions;
+        if (fileAppender != null)
+            setFilePath(fileAppender.getFilePath().toString());
+    }
+
+    /**
+     * Closes the file being used, if any. Any buffered content is written before closing.
+     */
+    synchronized void closeFile() {
+        if (fileAppender != null)
+            fileAppender.release();
+        fileAppender = null;
+    }
+
     void debug(String message, Object... params) {
         logMessage(LogLevel.DEBUG, message, params);
     }
@@ -96,72 +298,133 @@ class BasicLogger {
         logMessage(LogLevel.ERROR, message, params);
     }
 
+    void debug(Supplier<String> messageSupplier) {
+        logMessage(LogLevel.DEBUG, messageSupplier);
+    }
+
+    void info(Supplier<String> messageSupplier) {
+        logMessage(LogLevel.INFO, messageSupplier);
+    }
+
+    void warn(Supplier<String> messageSupplier) {
+        logMessage(LogLevel.WARN, messageSupplier);
+    }
+
+    void error(Supplier<String> messageSupplier) {
+        logMessage(LogLevel.ERROR, messageSupplier);
+    }
+
     void error(Throwable t, String message, Object... params) {
         error(t, 0, message, params);
     }
 
+    /**
+     * Logs the error with the Throwable as an extra last parameter, which is only rendered if the message's text is needed.
+     * This way, errors that are buffered and dropped, discarded or never flushed don't pay for rendering the stacktrace.
+     */
     void error(Throwable t, int stackTraceLimit, String message, Object... params) {
-        if (message == null)
-            message = "";
-        message += System.lineSeparator() + summary(t);
-
-        while (t != null) {
-            message += System.lineSeparator() + "STACKTRACE:" + System.lineSeparator();
-            StackTraceElement[] stack = t.getStackTrace();
-            if (stackTraceLimit > 0 && stack.length >  stackTraceLimit) {
-                int linesToCut = stack.length - stackTraceLimit;
-                int cutStartIndex = stack.length / 2 - linesToCut / 2;
-                int cutEndIndex = stack.length / 2 + linesToCut / 2;
-                message += stackTraceToString(t, 0, cutStartIndex)
-                + System.lineSeparator() + "(...)" + System.lineSeparator()
-                + stackTraceToString(t, cutEndIndex, stack.length);
-            } else {
-                message += stackTraceToString(t, 0, stack.length);
-            }
-            t = t.getCause();
-            if (t != null)
-                message += System.lineSeparator() + "CAUSED BY: " + t.getClass().getName() + (t.getMessage() != null ? ": " + t.getMessage() : "");
-        }
-        logMessage(LogLevel.ERROR, message, params);
+        if (!isLoggable(LogLevel.ERROR))
+            return;
+        logMessage(LogLevel.ERROR, isEnabled(LogLevel.ERROR), null, message == null ? "" : message, withThrowable(t, stackTraceLimit, params));
+    }
+
+    /**
+     * Returns the parameters with the Throwable as an extra last parameter (see {@link ThrowableRenderer.Deferred}).
+     */
+    Object[] withThrowable(Throwable t, int stackTraceLimit, Object[] params) {
+        if (t == null)
+            return params;
+        if (params == null)
+            params = NO_PARAMS;
+        Object[] paramsWithThrowable = Arrays.copyOf(params, params.length + 1);
+        paramsWithThrowable[params.length] = new ThrowableRenderer.Deferred(t, stackTraceLimit, throwableRenderer);
+        return paramsWithThrowable;
     }
 
     String summary(Throwable t) {
-		String summary = "\tEXCEPTION: " + t.getClass().getName();
-		if (t.getMessage() != null)
-			summary += ": " + t.getMessage();
-		Throwable cause = t.getCause();
-		while (cause != null) {
-			summary += System.lineSeparator() + "\tCAUSE: " + cause.getClass().getName();
-            if (cause.getMessage() != null)
-                summary += ": " + cause.getMessage();
-			cause = cause.getCause();
-		}
-		return summary;
-	}
-
-    String stackTraceToString(Throwable t, int startingIndex, int endingIndex) {
-        StringJoiner sj = new StringJoiner(System.lineSeparator());
-		for (int i = startingIndex; i < endingIndex ; i++)
-			sj.add(t.getStackTrace()[i].toString());
-		return sj.toString();
-	}
-
-    void preserveDiscardedMessages(boolean mustPreserveDiscardedMessages) {
+        StringBuilder sb = new StringBuilder();
+        ThrowableRenderer.appendSummary(sb, t);
+        return sb.toString();
+    }
+
+    /**
+     * Defines wether identical stacktraces must be printed in full only once, and then only referenced by their ID.
+     */
+    void deduplicateStackTraces(boolean mustDeduplicate) {
+        if (mustDeduplicate != throwableRenderer.isDeduplicating())
+            throwableRenderer = new ThrowableRenderer(mustDeduplicate);
+    }
+
+    boolean deduplicateStackTraces() {
+        return throwableRenderer.isDeduplicating();
+    }
+
+    synchronized void preserveDiscardedMessages(boolean mustPreserveDiscardedMessages) {
         discardedMessages = mustPreserveDiscardedMessages ? new ArrayList<>() : null;
     }
 
-    void bufferMessages(boolean mustBuffer) {
-        bufferedMessages = mustBuffer ? new ArrayList<>() : null;
+    /**
+     * Preserves only the last discarded messages, in a ring allocated once (flight recorder mode).
+     */
+    synchronized void preserveDiscardedMessages(int lastMessages) {
+        discardedMessages = new MessageRing<>(lastMessages);
+    }
+
+    synchronized void bufferMessages(boolean mustBuffer) {
+        bufferMessages(mustBuffer, 0, BufferOverflowPolicy.FLUSH);
+    }
+
+    /**
+     * Starts buffering messages with a maximum number of messages (0 for unbounded) and the policy applied when it's reached.
+     */
+    synchronized void bufferMessages(int capacity, BufferOverflowPolicy overflowPolicy) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Buffer capacity can't be negative: " + capacity);
+        if (overflowPolicy == null)
+            throw new IllegalArgumentException("Buffer overflow policy can't be null");
+        bufferMessages(true, capacity, overflowPolicy);
+    }
+
+    private void bufferMessages(boolean mustBuffer, int capacity, BufferOverflowPolicy overflowPolicy) {
+        if (bufferedMessages != null)
+            LogMetrics.INSTANCE.bufferedMessagesChanged(-bufferedMessages.size());
+        bufferedMessages = mustBuffer ? new ArrayDeque<>() : null;
+        bufferCapacity = capacity;
+        bufferOverflowPolicy = overflowPolicy;
+        notifyAll(); // Threads blocked on a full buffer must reevaluate it.
+    }
+
+    synchronized long getDroppedMessages() {
+        return droppedMessages;
     }
 
     void finishInstance() {
+        if (asyncDispatcher != null)
+            asyncDispatcher.drain();
+        reportRepetitions();
         if (bufferedMessages != null && !bufferedMessages.isEmpty()) {
             if (unflushedMessagesWarning != null) {
                 warn(unflushedMessagesWarning);
-                bufferedMessages.add(0, bufferedMessages.remove(bufferedMessages.size() - 1)); // Moves the warning message above to be printed first.
+                bufferedMessages.addFirst(bufferedMessages.pollLast()); // Moves the warning message above to be printed first.
             }
             flushBufferedMessages();
         }
+        if (fileAppender != null)
+            fileAppender.flushQuietly();
+        awaitSinkQueues();
+    }
+
+    /**
+     * Retires the logger, which is being replaced while other threads may still hold it: its pending messages are outputted and its file
+     * is released, and any message recorded later (by a thread that had already taken it, or by the asynchronous consumer) is handed
+     * to the successor instead, so nothing is written to a released file nor lost.
+     */
+    void retire(BasicLogger successor) {
+        finishInstance();
+        synchronized (this) {
+            this.successor = successor;
+            closeFile();
+        }
     }
 
     boolean preserveDiscardedMessages() {
@@ -191,53 +454,422 @@ class BasicLogger {
         return flushMessages(bufferedMessages);
     }
 
-    private List<String> flushMessages(List<LogMessage> messages) {
+    private List<String> flushMessages(Collection<LogMessage> messages) {
+        if (asyncDispatcher != null)
+            asyncDispatcher.drain(); // Messages already sent to the background must be printed before the flushed ones.
+        List<String> formattedMessages;
+        synchronized (this) {
+            formattedMessages = outputAll(messages);
+        }
+        awaitSinkQueues();
+        return formattedMessages;
+    }
+
+    /**
+     * Outputs the messages together, emptying the collection. Must be called while holding the logger's lock.
+     */
+    private List<String> outputAll(Collection<LogMessage> messages) {
+        reportRepetitions();
+        lastOutputMessage = null;
         ArrayList<String> formattedMessages = new ArrayList<>();
+        LogTail tail = logTail;
         for (LogMessage logMessage : messages) {
             String text = logMessage.getFormattedText();
             formattedMessages.add(text);
+            if (tail != null)
+                tail.add(logMessage.timestamp, logMessage.level, logMessage.category, logMessage.getText());
             delegate(logMessage.level, text);
+            addToBatch(logMessage.level, text);
+        }
+        if (!collectingBatch)
+            sendBatch();
+        if (logFormat == LogFormat.BINARY) {
+            if (printStream != null)
+                printStream.println(String.join(System.lineSeparator(), formattedMessages));
+            for (LogMessage logMessage : messages)
+                printBinary(logMessage, true);
+        } else if (fileOptions.isIndexed()) {
+            // Each line is indexed with its own timestamp and level, so they're appended one by one, flushing only after the last.
+            if (printStream != null)
+                printStream.println(String.join(System.lineSeparator(), formattedMessages));
+            int i = 0;
+            for (LogMessage logMessage : messages) {
+                appendToFile(formattedMessages.get(i), logMessage.timestamp, logMessage.level, i == formattedMessages.size() - 1);
+                i++;
+            }
+        } else {
+            LogMessage first = messages.isEmpty() ? null : messages.iterator().next();
+            print(String.join(System.lineSeparator(), formattedMessages), first != null ? first.timestamp : System.currentTimeMillis(),
+                first != null ? first.level : LogLevel.INFO, true);
         }
-        print(String.join(System.lineSeparator(), formattedMessages));
+        if (messages == bufferedMessages)
+            LogMetrics.INSTANCE.bufferedMessagesChanged(-messages.size());
         messages.clear();
+        notifyAll(); // Threads blocked on a full buffer can proceed.
         return formattedMessages;
     }
 
-    synchronized void logMessage(LogLevel level, String message, Object... params) {
-        if (level.code >= minimumLevel.code) {
-            LogMessage logMessage = new LogMessage(level, LocalDateTime.now(), message, params);
-            if (bufferedMessages != null)
-                bufferedMessages.add(logMessage);
-            else {
-                delegate(level, logMessage.getFormattedText());
-                print(logMessage.getFormattedText());
+    /**
+     * Returns wether a message with the given level would be outputted or preserved.
+     * This is checked without locking, so disabled messages cost only a couple of field reads.
+     */
+    boolean isLoggable(LogLevel level) {
+        return level.code >= minimumLevel.code || discardedMessages != null;
+    }
+
+    boolean isEnabled(LogLevel level) {
+        return level.code >= minimumLevel.code;
+    }
+
+    void logMessage(LogLevel level, String message, Object... params) {
+        if (!isLoggable(level))
+            return;
+        logMessage(level, isEnabled(level), null, message, params);
+    }
+
+    /**
+     * Logs a message whose level was already checked by the caller (e.g. against a category's level instead of the logger's minimum level).
+     * @param enabled - Defines wether the message must be outputted, or only preserved if discarded messages are being preserved.
+     * @param category - Name of the category logging the message (null for none).
+     */
+    void logMessage(LogLevel level, boolean enabled, String category, String message, Object... params) {
+        long start = System.nanoTime();
+        dispatch(level, enabled, category, message, params);
+        if (enabled)
+            LogMetrics.INSTANCE.messageLogged(level, System.nanoTime() - start);
+    }
+
+    void logMessage(LogLevel level, Supplier<String> messageSupplier) {
+        if (!isLoggable(level))
+            return; // The supplier is never called for messages that won't be logged nor preserved.
+        long start = System.nanoTime();
+        dispatch(level, messageSupplier);
+        if (isEnabled(level))
+            LogMetrics.INSTANCE.messageLogged(level, System.nanoTime() - start);
+    }
+
+    private void dispatch(LogLevel level, boolean enabled, String category, String message, Object... params) {
+        DiagnosticContext diagnostics = includeDiagnostics ? DiagnosticContext.current() : DiagnosticContext.EMPTY;
+        if (mustFlushDiscardedMessagesBefore(level, enabled)) {
+            recordAfterDiscardedMessages(new LogMessage(level, System.currentTimeMillis(), message, params).withDiagnostics(diagnostics).withCategory(category));
+            awaitSinkQueues();
+            return;
+        }
+        // Asynchronous messages are handed to the background thread without taking this logger's lock.
+        if (asyncDispatcher != null && bufferedMessages == null && enabled
+                && asyncDispatcher.publish(this, level, System.currentTimeMillis(), diagnostics, category, message, params))
+            return;
+        recordMessage(new LogMessage(level, System.currentTimeMillis(), message, params).withDiagnostics(diagnostics).withCategory(category), enabled);
+        awaitSinkQueues();
+    }
+
+    private void dispatch(LogLevel level, Supplier<String> messageSupplier) {
+        DiagnosticContext diagnostics = includeDiagnostics ? DiagnosticContext.current() : DiagnosticContext.EMPTY;
+        if (mustFlushDiscardedMessagesBefore(level, isEnabled(level))) {
+            recordAfterDiscardedMessages(new LogMessage(level, System.currentTimeMillis(), messageSupplier).withDiagnostics(diagnostics));
+            awaitSinkQueues();
+            return;
+        }
+        // The supplier is called right away for asynchronous messages, because it may not be safe to call it from another thread.
+        if (asyncDispatcher != null && bufferedMessages == null && level.code >= minimumLevel.code
+                && asyncDispatcher.publish(this, level, System.currentTimeMillis(), diagnostics, null, String.valueOf(messageSupplier.get()), (Object[]) null))
+            return;
+        recordMessage(new LogMessage(level, System.currentTimeMillis(), messageSupplier).withDiagnostics(diagnostics), isEnabled(level));
+        awaitSinkQueues();
+    }
+
+    /**
+     * Logs the message only if the limiter allows it. Messages that wouldn't be logged anyway don't count against the limit.
+     */
+    void logMessage(LogLimiter limiter, LogLevel level, String message, Object... params) {
+        if (!isLoggable(level))
+            return;
+        if (!isEnabled(level) || limiter.tryAcquire(this, level, message))
+            logMessage(level, message, params);
+    }
+
+    private boolean mustFlushDiscardedMessagesBefore(LogLevel level, boolean enabled) {
+        return flushDiscardedMessagesOnError && level.code >= LogLevel.ERROR.code && enabled && discardedMessages != null;
+    }
+
+    /**
+     * Outputs (or buffers) the preserved discarded messages followed by the given one, so they give context to an error.
+     */
+    private void recordAfterDiscardedMessages(LogMessage logMessage) {
+        if (asyncDispatcher != null)
+            asyncDispatcher.drain(); // Messages already sent to the background must be printed before the flushed ones.
+        synchronized (this) {
+            if (discardedMessages != null && !discardedMessages.isEmpty()) {
+                if (bufferedMessages != null) {
+                    List<LogMessage> messages = new ArrayList<>(discardedMessages);
+                    discardedMessages.clear();
+                    messages.forEach(this::buffer);
+                } else {
+                    outputAll(discardedMessages);
+                }
             }
+            recordMessage(logMessage, true);
+        }
+    }
+
+    private synchronized void recordMessage(LogMessage logMessage, boolean enabled) {
+        if (successor != null) {
+            successor.recordMessage(logMessage.moveTo(successor), enabled);
+            return;
+        }
+        if (enabled) {
+            if (bufferedMessages != null)
+                buffer(logMessage);
+            else
+                output(logMessage);
         } else if (discardedMessages != null) {
-            discardedMessages.add(new LogMessage(level, LocalDateTime.now(), message, params));
+            discardedMessages.add(logMessage);
+            LogMetrics.INSTANCE.messageDiscarded();
         }
     }
 
-    void print(String text) {
+    /**
+     * Adds the message to the buffer, applying the overflow policy if the buffer is full. Must be called while holding the logger's lock.
+     */
+    private void buffer(LogMessage logMessage) {
+        if (bufferCapacity > 0 && bufferedMessages.size() >= bufferCapacity) {
+            switch (bufferOverflowPolicy) {
+                case FLUSH:
+                    outputAll(bufferedMessages);
+                    break;
+                case DROP_OLDEST:
+                    bufferedMessages.pollFirst();
+                    LogMetrics.INSTANCE.bufferedMessagesChanged(-1);
+                    drop();
+                    break;
+                case DROP_NEWEST:
+                    drop();
+                    return;
+                case BLOCK:
+                    try {
+                        while (bufferedMessages != null && bufferCapacity > 0 && bufferedMessages.size() >= bufferCapacity)
+                            wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        drop();
+                        return;
+                    }
+                    if (bufferedMessages == null) { // Buffering was disabled while waiting.
+                        output(logMessage);
+                        return;
+                    }
+                    break;
+            }
+        }
+        bufferedMessages.add(logMessage);
+        LogMetrics.INSTANCE.bufferedMessagesChanged(1);
+    }
+
+    private void drop() {
+        droppedMessages++;
+        LogMetrics.INSTANCE.messagesDropped(1);
+    }
+
+    /**
+     * Formats and outputs a message that was already accepted for logging. Used by the asynchronous consumer thread.
+     */
+    synchronized void emit(LogLevel level, long timestamp, DiagnosticContext diagnostics, String category, String message, Object... params) {
+        if (successor != null) {
+            successor.emit(level, timestamp, diagnostics, category, message, params);
+            return;
+        }
+        collectingBatch = true; // Messages are handed to the batch handler together, when the consumer ends the run.
+        output(new LogMessage(level, timestamp, message, params).withDiagnostics(diagnostics).withCategory(category));
+    }
+
+    /**
+     * Hands the messages emitted by the asynchronous consumer since the last call to the batch output handler, as a single batch.
+     */
+    synchronized void endBatch() {
+        collectingBatch = false;
+        sendBatch();
+        if (successor != null)
+            successor.endBatch();
+    }
+
+    private void addToBatch(LogLevel level, String text) {
+        if (batchOutputHandler != null) {
+            batchLevels.add(level);
+            batchTexts.add(text);
+        }
+    }
+
+    private void sendBatch() {
+        if (batchLevels.isEmpty())
+            return;
+        LogLevel[] levels = batchLevels.toArray(new LogLevel[0]);
+        String[] texts = batchTexts.toArray(new String[0]);
+        batchLevels.clear();
+        batchTexts.clear();
+        BatchOutputHandler handler = batchOutputHandler;
+        if (handler != null)
+            handler.accept(levels, texts);
+    }
+
+    /**
+     * Defines the maximum time repeated messages are held back before their count is outputted (0 disables coalescing).
+     */
+    synchronized void coalesceRepeatedMessages(long delayMillis) {
+        reportRepetitions();
+        lastOutputMessage = null;
+        coalescingDelayMillis = Math.max(delayMillis, 0);
+    }
+
+    synchronized long coalesceRepeatedMessages() {
+        return coalescingDelayMillis;
+    }
+
+    /**
+     * Outputs the message, unless it repeats the last one while coalescing is enabled.
+     * Repetitions are only counted, and reported in a single line when a different message arrives or the coalescing delay expires.
+     */
+    private void output(LogMessage logMessage) {
+        if (coalescingDelayMillis > 0) {
+            if (logMessage.isRepetitionOf(lastOutputMessage)) {
+                if (repetitions++ == 0)
+                    repetitionsReport = LogScheduler.SCHEDULER.schedule(this::reportRepetitions, coalescingDelayMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            reportRepetitions();
+            lastOutputMessage = logMessage;
+        }
+        write(logMessage);
+    }
+
+    /**
+     * Outputs how many times the last message was repeated since it (or the last report) was outputted, if any.
+     */
+    synchronized void reportRepetitions() {
+        if (repetitions == 0)
+            return;
+        if (repetitionsReport != null)
+            repetitionsReport.cancel(false);
+        repetitionsReport = null;
+        int count = repetitions;
+        repetitions = 0;
+        write(new LogMessage(lastOutputMessage.level, System.currentTimeMillis(), "Last message repeated %d times", count));
+    }
+
+    private void write(LogMessage logMessage) {
+        LogLevel level = logMessage.level;
+        boolean mustFlush = level.code >= LogLevel.WARN.code;
+        LogTail tail = logTail;
+        if (tail != null)
+            tail.add(logMessage.timestamp, level, logMessage.category, logMessage.getText());
+        if (printStream == null && systemLogger == null && utilLogger == null && customOutputHandler == null && batchOutputHandler == null) {
+            // Only the file needs the line, so it's written straight from the encoder without creating a String.
+            if (logFormat == LogFormat.BINARY)
+                printBinary(logMessage, mustFlush);
+            else if (fileAppender != null)
+                appendToFile(logMessage.encode(), logMessage.timestamp, level, mustFlush);
+        } else {
+            delegate(level, logMessage.getFormattedText());
+            addToBatch(level, logMessage.getFormattedText());
+            if (!collectingBatch)
+                sendBatch();
+            if (logFormat == LogFormat.BINARY) {
+                if (printStream != null)
+                    printStream.println(logMessage.getFormattedText());
+                printBinary(logMessage, mustFlush);
+            } else {
+                print(logMessage.getFormattedText(), logMessage.timestamp, level, mustFlush);
+            }
+        }
+    }
+
+    /**
+     * Appends the message to the file as a binary record. Other outputs still receive the text line.
+     */
+    private void printBinary(LogMessage logMessage, boolean mustFlush) {
+        FileAppender appender = fileAppender;
+        if (appender != null) {
+            try {
+                appender.appendRecord(logMessage::encodeBinary, mustFlush);
+            } catch (IOException e) {
+                if (printStream != null)
+                    printStream.printf("Couldn't append on file %s\n%s\n", appender.getFilePath(), summary(e));
+            }
+        }
+    }
+
+    void print(CharSequence text, long timestamp, LogLevel level, boolean mustFlush) {
         if (printStream != null)
-            printStream.println(text);
-        if (filePath != null)
-            synchronized (this) {
-                try {
-                    Files.writeString(filePath, text + System.lineSeparator(), StandardOpenOption.APPEND);
-                } catch (IOException e) {
-                    if (printStream != null)
-                        printStream.printf("Couldn't append on file %s\n%s\n", filePath, summary(e));
-                }
+            printStream.println(text.toString());
+        appendToFile(text, timestamp, level, mustFlush);
+    }
+
+    private void appendToFile(CharSequence text, long timestamp, LogLevel level, boolean mustFlush) {
+        FileAppender appender = fileAppender;
+        if (appender != null) {
+            try {
+                appender.appendLine(text, timestamp, level, mustFlush);
+            } catch (IOException e) {
+                if (printStream != null)
+                    printStream.printf("Couldn't append on file %s\n%s\n", appender.getFilePath(), summary(e));
             }
+        }
     }
 
     void delegate(LogLevel level, String text) {
         if (systemLogger != null)
-            systemLogger.log(level.systemLoggerLevel, text);
+            deliver(LogSink.SYSTEM_LOGGER, systemLogger, level, text);
         if (utilLogger != null)
-            utilLogger.log(level.utilLoggerLevel, text);
+            deliver(LogSink.UTIL_LOGGER, utilLogger, level, text);
         if (customOutputHandler != null)
-            customOutputHandler.accept(level, text);
+            deliver(LogSink.CUSTOM_OUTPUT_HANDLER, customOutputHandler, level, text);
+    }
+
+    /**
+     * Delivers the text to the sink, through its queue if it has one (so a slow sink doesn't hold this logger's lock), or right away otherwise.
+     */
+    private void deliver(LogSink sink, Object target, LogLevel level, String text) {
+        SinkQueue queue = sinkQueues.get(sink.ordinal());
+        if (queue == null || !queue.offer(target, level, text))
+            sink.deliver(target, level, text);
+    }
+
+    /**
+     * Waits for room in the sink queues (BLOCK policy) for the messages they deferred while this logger's lock was held.
+     * Must be called after releasing the lock, so a slow sink never blocks the lock. Costs only a few reads when nothing is deferred.
+     */
+    void awaitSinkQueues() {
+        for (int i = 0; i < sinkQueues.length(); i++) {
+            SinkQueue queue = sinkQueues.get(i);
+            if (queue != null)
+                queue.awaitDeferred();
+        }
+    }
+
+    /**
+     * Makes the sink be delivered by its own queue and worker thread, or synchronously again if capacity is zero.
+     * The previous queue (if any) delivers its pending messages before stopping.
+     */
+    void setSinkQueue(LogSink sink, int capacity, BufferOverflowPolicy overflowPolicy) {
+        setSinkQueue(sinkQueues, sink, capacity, overflowPolicy);
+    }
+
+    static void setSinkQueue(AtomicReferenceArray<SinkQueue> sinkQueues, LogSink sink, int capacity, BufferOverflowPolicy overflowPolicy) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity for a sink queue can't be negative: " + capacity);
+        SinkQueue previous = sinkQueues.getAndSet(sink.ordinal(), capacity > 0 ? new SinkQueue(sink, capacity, overflowPolicy) : null);
+        if (previous != null)
+            previous.shutdown();
+    }
+
+    /**
+     * Blocks until the messages already handed to sink queues are delivered.
+     */
+    void drainSinkQueues() {
+        for (int i = 0; i < sinkQueues.length(); i++) {
+            SinkQueue queue = sinkQueues.get(i);
+            if (queue != null)
+                queue.drain();
+        }
     }
 
 }
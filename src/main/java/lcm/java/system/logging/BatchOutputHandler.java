@@ -0,0 +1,18 @@
+package lcm.java.system.logging;
+
+/**
+ * Custom output handler that receives messages in batches, instead of one call per message (see OLog/TLog setBatchOutputHandler).
+ * A batch holds a whole flush of buffered or discarded messages, or a run of messages outputted asynchronously without pause,
+ * so handlers that forward messages (e.g. to a socket) can collapse many writes into a few.
+ * Messages logged synchronously (without buffering) are still handed as soon as they're outputted, in batches of one.
+ */
+@FunctionalInterface
+public interface BatchOutputHandler {
+
+    /**
+     * Receives a batch of messages, in the order they were outputted. The arrays belong to the handler, and always have the same length.
+     * @param levels - Level of each message.
+     * @param texts - Formatted text of each message (the same text passed to the print stream and to the custom output handler).
+     */
+    void accept(LogLevel[] levels, String[] texts);
+}
@@ -0,0 +1,299 @@
+package lcm.java.system.logging;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads log files written with {@link LogFormat#BINARY} back as the usual TEXT lines ("date [LEVEL] header text"),
+ * formatting each message only when it's read. Records are streamed, so files of any size can be read with constant memory,
+ * and a file still being written can be read up to its last complete record.
+ * Lines can be filtered by a time range and a minimum level, in which case the other records are skipped without being formatted.
+ *
+ * It can also be run from the command line: {@code java lcm.java.system.logging.BinaryLogDecoder <file> [<from> [<to>]]},
+ * with optional ISO-8601 instants (e.g. 2024-01-31T10:00:00Z) for the time range, printing the lines to the standard output.
+ */
+public final class BinaryLogDecoder implements Closeable {
+
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    private final DataInputStream in;
+    private final LineEncoder lineEncoder = new LineEncoder();
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    private DateTimeFormatter dateTimeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private LogLevel minimumLevel = LogLevel.DEBUG;
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    private long lastTimestamp;
+
+    /**
+     * Opens the file for decoding. The decoder must be closed after use.
+     * @param filePath - Path of a file written with the BINARY format.
+     * @throws IOException if the file can't be opened.
+     */
+    public BinaryLogDecoder(Path filePath) throws IOException {
+        this(Files.newInputStream(filePath));
+    }
+
+    /**
+     * Decodes the binary records read from the stream, which is closed with the decoder.
+     * @param in - Stream with the content of a file written with the BINARY format.
+     */
+    public BinaryLogDecoder(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    /**
+     * Defines the format of the dates in the decoded lines. It's "yyyy-MM-dd HH:mm:ss" by default, the same of OLog.
+     * @param dateTimeFormat - Format for the timestamps.
+     * @return This decoder.
+     */
+    public BinaryLogDecoder withDateTimeFormat(DateTimeFormatter dateTimeFormat) {
+        this.dateTimeFormat = dateTimeFormat;
+        return this;
+    }
+
+    /**
+     * Defines the minimum level of the lines to be returned. Every level is returned by default.
+     * @param minimumLevel - The minimum log level.
+     * @return This decoder.
+     */
+    public BinaryLogDecoder withMinimumLevel(LogLevel minimumLevel) {
+        this.minimumLevel = minimumLevel;
+        return this;
+    }
+
+    /**
+     * Defines the time range of the lines to be returned. The whole file is returned by default.
+     * @param from - First instant of the range (inclusive), or null for no start.
+     * @param to - Last instant of the range (exclusive), or null for no end.
+     * @return This decoder.
+     */
+    public BinaryLogDecoder between(Instant from, Instant to) {
+        this.fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        this.toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        return this;
+    }
+
+    /**
+     * Returns the next line matching the filters, or null if there are no more complete records.
+     * @throws IOException if the content can't be read or isn't a binary log.
+     */
+    public String readLine() throws IOException {
+        while (true) {
+            int type = in.read();
+            if (type < 0)
+                return null;
+            try {
+                if (type == BinaryLogWriter.MAGIC[0]) {
+                    readSegmentStart();
+                } else if (type == BinaryLogWriter.DEFINE) {
+                    readDefinition();
+                } else if (type == BinaryLogWriter.EVENT) {
+                    String line = readEvent();
+                    if (line != null)
+                        return line;
+                } else {
+                    throw new IOException("Invalid binary log: unexpected record type " + type);
+                }
+            } catch (EOFException e) {
+                return null; // The last record is incomplete, probably still being written.
+            }
+        }
+    }
+
+    /**
+     * Returns the lines matching the filters as a lazy Stream, which closes the decoder when it's closed.
+     * Failures while reading are thrown as UncheckedIOException.
+     */
+    public Stream<String> lines() {
+        Iterator<String> iterator = new Iterator<>() {
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = readLine();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(() -> {
+                try {
+                    close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readSegmentStart() throws IOException {
+        byte[] magic = new byte[BinaryLogWriter.MAGIC.length - 1];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, 0, magic.length, BinaryLogWriter.MAGIC, 1, BinaryLogWriter.MAGIC.length))
+            throw new IOException("Invalid binary log: unknown segment header");
+        dictionary.clear();
+        lastTimestamp = 0;
+    }
+
+    private void readDefinition() throws IOException {
+        int id = (int) readVarLong();
+        String value = readString();
+        if (id == dictionary.size())
+            dictionary.add(value);
+        else if (id < dictionary.size())
+            dictionary.set(id, value);
+        else
+            throw new IOException("Invalid binary log: definition " + id + " out of sequence");
+    }
+
+    /**
+     * Reads an event, returning its line, or null if it doesn't match the filters (in which case it's not formatted).
+     */
+    private String readEvent() throws IOException {
+        int flags = in.readUnsignedByte();
+        LogLevel level = LEVELS[flags & BinaryLogWriter.LEVEL_MASK];
+        long timestamp = lastTimestamp + BinaryLogWriter.unzigzag(readVarLong());
+        lastTimestamp = timestamp;
+        String message = readReference();
+        String header = readReference();
+        String category = readReference();
+        Object[] args = null;
+        if ((flags & BinaryLogWriter.UNFORMATTED) == 0) {
+            args = new Object[(int) readVarLong()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = readArg();
+        }
+        KeyValue[] keyValues = new KeyValue[(int) readVarLong()];
+        for (int i = 0; i < keyValues.length; i++)
+            keyValues[i] = KeyValue.kv(readReference(), readArg());
+        String throwableText = (flags & BinaryLogWriter.HAS_THROWABLE) != 0 ? readString() : null;
+
+        if (level.code < minimumLevel.code || timestamp < fromMillis || timestamp >= toMillis)
+            return null;
+        StringBuilder text = new StringBuilder(args == null ? String.valueOf(message) : format(message, args));
+        if (throwableText != null)
+            text.append(throwableText);
+        for (KeyValue keyValue : keyValues)
+            keyValue.appendText(text.append(' '));
+        return lineEncoder.encode(timestamp, level, text, dateTimeFormat, header, category, 0).toString();
+    }
+
+    /**
+     * Formats the message. Since binary messages aren't formatted when they're logged, an invalid format is only found here,
+     * and then the message is returned with the arguments after it, so nothing is lost.
+     */
+    private static String format(String message, Object[] args) {
+        try {
+            return String.format(message, args);
+        } catch (IllegalFormatException e) {
+            return message + " " + Arrays.toString(args);
+        }
+    }
+
+    private String readReference() throws IOException {
+        long reference = readVarLong();
+        if (reference == 0)
+            return null;
+        if (reference == 1)
+            return readString();
+        if (reference - 2 >= dictionary.size())
+            throw new IOException("Invalid binary log: undefined reference " + (reference - 2));
+        return dictionary.get((int) (reference - 2));
+    }
+
+    private Object readArg() throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case BinaryLogWriter.NULL: return null;
+            case BinaryLogWriter.INT: return (int) BinaryLogWriter.unzigzag(readVarLong());
+            case BinaryLogWriter.LONG: return BinaryLogWriter.unzigzag(readVarLong());
+            case BinaryLogWriter.SHORT: return (short) BinaryLogWriter.unzigzag(readVarLong());
+            case BinaryLogWriter.BYTE: return (byte) BinaryLogWriter.unzigzag(readVarLong());
+            case BinaryLogWriter.DOUBLE: return Double.longBitsToDouble(in.readLong());
+            case BinaryLogWriter.FLOAT: return Float.intBitsToFloat(in.readInt());
+            case BinaryLogWriter.TRUE: return true;
+            case BinaryLogWriter.FALSE: return false;
+            case BinaryLogWriter.CHAR: return (char) readVarLong();
+            case BinaryLogWriter.STRING: return readString();
+            case BinaryLogWriter.BIG_INTEGER: return new BigInteger(readString());
+            case BinaryLogWriter.BIG_DECIMAL: return new BigDecimal(readString());
+            default: throw new IOException("Invalid binary log: unknown argument type " + type);
+        }
+    }
+
+    private String readString() throws IOException {
+        byte[] utf8 = new byte[(int) readVarLong()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            if (shift > 63)
+                throw new IOException("Invalid binary log: malformed number");
+        }
+    }
+
+    /**
+     * Prints the lines of a binary log file to the standard output.
+     * @param args - Path of the file, and optionally the start and end of the time range, as ISO-8601 instants.
+     * @throws IOException if the file can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: BinaryLogDecoder <file> [<from> [<to>]]");
+            return;
+        }
+        Instant from = args.length > 1 ? Instant.parse(args[1]) : null;
+        Instant to = args.length > 2 ? Instant.parse(args[2]) : null;
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(Path.of(args[0])).between(from, to)) {
+            for (String line; (line = decoder.readLine()) != null; )
+                System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package lcm.java.system.logging;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Encoder of binary log records (see {@link LogFormat#BINARY}), owned by a {@link FileAppender} and only used while holding its lock.
+ *
+ * A file is a sequence of segments, each one starting with the {@link #MAGIC} bytes (written whenever the appender opens the file),
+ * followed by records. Format strings, headers, categories and keys are registered in a per-segment dictionary the first time they're
+ * written (a DEFINE record: id and UTF-8 string), and then referenced by their id. Texts of messages without arguments (plain or supplied),
+ * which are usually built dynamically and rarely repeat, are written inline instead, so they don't fill the dictionary. An EVENT record holds the level, the timestamp
+ * (as a delta from the previous event), the references, and the arguments in a compact typed form: integers as zigzag varints,
+ * decimals as fixed-size IEEE numbers, and any other object as its String, taken when the message is written.
+ * Strings are referenced as 0 (null), 1 (inline string follows) or id + 2 (dictionary).
+ *
+ * @see BinaryLogDecoder
+ */
+final class BinaryLogWriter {
+
+    static final byte[] MAGIC = {'L', 'C', 'M', 'L', 'O', 'G', 1, '\n'};
+    static final byte DEFINE = 'D';
+    static final byte EVENT = 'E';
+
+    /** Flags of an EVENT (combined with the level's ordinal in the same byte). */
+    static final int UNFORMATTED = 0x10;
+    static final int HAS_THROWABLE = 0x20;
+    static final int LEVEL_MASK = 0x0F;
+
+    /** Types of the arguments. */
+    static final byte NULL = 0;
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte SHORT = 3;
+    static final byte BYTE = 4;
+    static final byte DOUBLE = 5;
+    static final byte FLOAT = 6;
+    static final byte TRUE = 7;
+    static final byte FALSE = 8;
+    static final byte CHAR = 9;
+    static final byte STRING = 10;
+    static final byte BIG_INTEGER = 11;
+    static final byte BIG_DECIMAL = 12;
+
+    /** Strings beyond this (e.g. format strings built dynamically) are written inline, so the dictionary stays bounded. */
+    static final int MAX_DICTIONARY_SIZE = 65536;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final HashMap<String, Integer> dictionary = new HashMap<>();
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int length;
+    private boolean segmentStarted;
+    private long lastTimestamp;
+
+    /**
+     * Starts a new segment, forgetting the dictionary. Must be called whenever the file is (re)opened.
+     */
+    void reset() {
+        dictionary.clear();
+        segmentStarted = false;
+        lastTimestamp = 0;
+    }
+
+    /**
+     * Encodes an event (preceded by the segment's start and the definitions of its new strings, if needed) into the writer's bytes.
+     * @param timestamp - Instant of the message, in milliseconds since epoch.
+     * @param level - Level of the message.
+     * @param header - Custom header (may be null or empty).
+     * @param category - Category of the message (null for none).
+     * @param message - Format string, or the plain text if the message isn't formatted.
+     * @param args - Arguments for formatting the message, or null if the message isn't formatted.
+     * @param keyValues - Key-values of the message (may be empty).
+     * @param throwableText - Rendered Throwable to be appended to the text (null for none).
+     */
+    void encodeEvent(long timestamp, LogLevel level, String header, String category, String message, Object[] args, KeyValue[] keyValues, String throwableText) {
+        length = 0;
+        if (bytes.length > MAX_RETAINED_CAPACITY)
+            bytes = new byte[INITIAL_CAPACITY]; // A huge message shouldn't keep its memory retained forever.
+        if (!segmentStarted) {
+            put(MAGIC, 0, MAGIC.length);
+            segmentStarted = true;
+        }
+        if (args != null && args.length > 0)
+            define(message);
+        define(header);
+        define(category);
+        for (KeyValue keyValue : keyValues)
+            define(keyValue.getKey());
+
+        int flags = level.ordinal() | (args == null ? UNFORMATTED : 0) | (throwableText != null ? HAS_THROWABLE : 0);
+        putByte(EVENT);
+        putByte(flags);
+        putVarLong(zigzag(timestamp - lastTimestamp));
+        lastTimestamp = timestamp;
+        putReference(message);
+        putReference(header);
+        putReference(category);
+        if (args != null) {
+            putVarLong(args.length);
+            for (Object arg : args)
+                putArg(arg);
+        }
+        putVarLong(keyValues.length);
+        for (KeyValue keyValue : keyValues) {
+            putReference(keyValue.getKey());
+            putArg(keyValue.getValue());
+        }
+        if (throwableText != null)
+            putString(throwableText);
+    }
+
+    /**
+     * Copies the encoded bytes into the buffer, as much as fits, starting at the given offset.
+     * @return The offset of the first byte that didn't fit (equal to {@link #length()} when everything was copied).
+     */
+    int copyTo(ByteBuffer buffer, int offset) {
+        int count = Math.min(buffer.remaining(), length - offset);
+        buffer.put(bytes, offset, count);
+        return offset + count;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int dictionarySize() {
+        return dictionary.size();
+    }
+
+    private void define(String s) {
+        if (s == null || dictionary.containsKey(s) || dictionary.size() >= MAX_DICTIONARY_SIZE)
+            return;
+        int id = dictionary.size();
+        dictionary.put(s, id);
+        putByte(DEFINE);
+        putVarLong(id);
+        putString(s);
+    }
+
+    private void putReference(String s) {
+        if (s == null) {
+            putVarLong(0);
+            return;
+        }
+        Integer id = dictionary.get(s);
+        if (id != null) {
+            putVarLong(id + 2L);
+        } else {
+            putVarLong(1);
+            putString(s);
+        }
+    }
+
+    private void putArg(Object arg) {
+        if (arg == null) {
+            putByte(NULL);
+        } else if (arg instanceof Integer) {
+            putByte(INT);
+            putVarLong(zigzag((Integer) arg));
+        } else if (arg instanceof Long) {
+            putByte(LONG);
+            putVarLong(zigzag((Long) arg));
+        } else if (arg instanceof Short) {
+            putByte(SHORT);
+            putVarLong(zigzag((Short) arg));
+        } else if (arg instanceof Byte) {
+            putByte(BYTE);
+            putVarLong(zigzag((Byte) arg));
+        } else if (arg instanceof Double) {
+            putByte(DOUBLE);
+            putFixed(Double.doubleToRawLongBits((Double) arg), 8);
+        } else if (arg instanceof Float) {
+            putByte(FLOAT);
+            putFixed(Float.floatToRawIntBits((Float) arg), 4);
+        } else if (arg instanceof Boolean) {
+            putByte((Boolean) arg ? TRUE : FALSE);
+        } else if (arg instanceof Character) {
+            putByte(CHAR);
+            putVarLong((Character) arg);
+        } else if (arg instanceof BigInteger) {
+            putByte(BIG_INTEGER);
+            putString(arg.toString());
+        } else if (arg instanceof BigDecimal) {
+            putByte(BIG_DECIMAL);
+            putString(arg.toString());
+        } else {
+            putByte(STRING);
+            putString(arg.toString());
+        }
+    }
+
+    private void putString(String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        putVarLong(utf8.length);
+        put(utf8, 0, utf8.length);
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            putByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        putByte((int) value);
+    }
+
+    private void putFixed(long value, int size) {
+        for (int i = size - 1; i >= 0; i--)
+            putByte((int) (value >>> (i * 8)));
+    }
+
+    private void putByte(int b) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) b;
+    }
+
+    private void put(byte[] source, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(source, offset, bytes, length, count);
+        length += count;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
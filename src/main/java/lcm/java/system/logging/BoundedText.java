@@ -0,0 +1,167 @@
+package lcm.java.system.logging;
+
+import java.util.Formattable;
+import java.util.FormattableFlags;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Appendable that builds a text already cut to a maximum length, with its middle replaced by "(...)" (the same cut
+ * {@link LogTail} does to its texts), keeping only O(limit) characters in memory however long the appended text is:
+ * the first "limit" characters, and a ring with the last "limit / 2 + 1" ones (the most the cut can keep from the end).
+ * Since the final length is only known at the end, everything must still be appended, but characters that can't end up
+ * in the result are skipped without being copied.
+ *
+ * When a Formatter writes into it, Strings are appended as they are, {@link Formattable} arguments write straight into it, and other
+ * CharSequences (e.g. StringBuilders) are appended without a copy if wrapped by {@link #formatArgs(Object[])}. Any other argument
+ * is still rendered in full by its toString() before being appended, since there's no way to bound it from here.
+ * Instances are not thread-safe, and are meant for a single message.
+ */
+final class BoundedText implements Appendable {
+
+    private final int limit;
+    private final StringBuilder head;
+    private final char[] tail;
+    private final long tailStart; // Characters before this position can never be part of the tail.
+    private long length;
+
+    /**
+     * @param limit - Maximum length of the text (must be positive).
+     */
+    BoundedText(int limit) {
+        this.limit = limit;
+        this.head = new StringBuilder(Math.min(limit, 256));
+        this.tail = new char[limit / 2 + 1];
+        this.tailStart = limit - tail.length;
+    }
+
+    /**
+     * A CharSequence argument that a "%s" appends straight into the BoundedText the Formatter writes to, instead of copying it with toString().
+     */
+    private static final class CharSequenceArg implements Formattable {
+        private final CharSequence value;
+
+        CharSequenceArg(CharSequence value) {
+            this.value = value;
+        }
+
+        @Override
+        public void formatTo(Formatter formatter, int flags, int width, int precision) {
+            BoundedText out = (BoundedText) formatter.out();
+            if (width < 0 && precision < 0 && (flags & FormattableFlags.UPPERCASE) == 0) {
+                out.append(value);
+                return;
+            }
+            // Otherwise, it's formatted as a String would be (only the precision is copied).
+            String text = (precision >= 0 && precision < value.length() ? value.subSequence(0, precision) : value).toString();
+            if ((flags & FormattableFlags.UPPERCASE) != 0)
+                text = text.toUpperCase(Objects.requireNonNullElse(formatter.locale(), Locale.getDefault(Locale.Category.FORMAT)));
+            boolean leftJustify = (flags & FormattableFlags.LEFT_JUSTIFY) != 0;
+            if (leftJustify)
+                out.append(text);
+            for (int i = text.length(); i < width; i++)
+                out.append(' ');
+            if (!leftJustify)
+                out.append(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode(); // For "%h".
+        }
+
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+    }
+
+    /**
+     * Returns the arguments to be formatted into a BoundedText, with CharSequences other than Strings wrapped,
+     * so they're appended into it without being copied whole (the array is only copied if some argument is wrapped).
+     */
+    static Object[] formatArgs(Object[] args) {
+        Object[] formatArgs = args;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof CharSequence && !(args[i] instanceof String) && !(args[i] instanceof Formattable)) {
+                if (formatArgs == args)
+                    formatArgs = args.clone();
+                formatArgs[i] = new CharSequenceArg((CharSequence) args[i]);
+            }
+        }
+        return formatArgs;
+    }
+
+    /**
+     * Returns the position where the cut of a text with the given length starts (the length to be kept from the start).
+     */
+    static long cutStart(long length, int limit) {
+        long charsToCut = length - limit;
+        return length / 2 - charsToCut / 2;
+    }
+
+    /**
+     * Returns the position where the cut of a text with the given length ends (where the kept end starts).
+     */
+    static long cutEnd(long length, int limit) {
+        long charsToCut = length - limit;
+        return length / 2 + charsToCut / 2;
+    }
+
+    @Override
+    public BoundedText append(CharSequence csq) {
+        if (csq == null)
+            csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public BoundedText append(CharSequence csq, int start, int end) {
+        if (csq == null)
+            csq = "null";
+        int count = end - start;
+        if (head.length() < limit)
+            head.append(csq, start, start + Math.min(count, limit - head.length()));
+        // Only the last tail.length characters of the appended sequence could still be in the tail at the end.
+        int from = Math.max(start, end - tail.length);
+        from = (int) Math.max(from, start + (tailStart - length));
+        for (int i = from; i < end; i++)
+            tail[(int) ((length + i - start) % tail.length)] = csq.charAt(i);
+        length += count;
+        return this;
+    }
+
+    @Override
+    public BoundedText append(char c) {
+        if (head.length() < limit)
+            head.append(c);
+        if (length >= tailStart)
+            tail[(int) (length % tail.length)] = c;
+        length++;
+        return this;
+    }
+
+    /**
+     * Returns the total length of everything appended (not the length of the cut text).
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Returns the text, with its middle cut if it's longer than the limit.
+     */
+    @Override
+    public String toString() {
+        if (length <= limit)
+            return head.toString();
+        int keptStart = (int) cutStart(length, limit);
+        long keptEndStart = cutEnd(length, limit);
+        StringBuilder sb = new StringBuilder(keptStart + LineEncoder.CUT_MARK.length() + (int) (length - keptEndStart));
+        sb.append(head, 0, keptStart).append(LineEncoder.CUT_MARK);
+        for (long i = keptEndStart; i < length; i++)
+            sb.append(tail[(int) (i % tail.length)]);
+        return sb.toString();
+    }
+}
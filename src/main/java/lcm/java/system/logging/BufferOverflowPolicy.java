@@ -0,0 +1,16 @@
+package lcm.java.system.logging;
+
+/**
+ * Defines what happens when a message is logged while the message buffer (see OLog/TLog bufferMessages) is full.
+ * Messages dropped by the DROP policies are counted, and the count can be retrieved by getDroppedMessages.
+ */
+public enum BufferOverflowPolicy {
+    /** Flushes all the buffered messages before buffering the new one, as if flushBufferedMessages had been called. */
+    FLUSH,
+    /** Drops the oldest buffered message to make room for the new one. */
+    DROP_OLDEST,
+    /** Drops the new message, keeping the buffered ones. */
+    DROP_NEWEST,
+    /** Makes the logging thread wait until another thread flushes the buffer. Only useful when the buffer is flushed by a different thread. */
+    BLOCK;
+}
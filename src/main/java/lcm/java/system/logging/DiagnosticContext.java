@@ -0,0 +1,215 @@
+package lcm.java.system.logging;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of a mapped diagnostic context (MDC): key-values that TLog appends to every message of the thread
+ * (as "key=value" in the TEXT format, or as fields in the JSON format), such as a request or user id.
+ * Changes create a new snapshot (copy-on-write), so capturing the current context (e.g. for another thread) is only a reference copy.
+ *
+ * The context of each thread is changed through TLog ({@link TLog#putDiagnostic(String, Object)}), and can be carried to other threads
+ * with {@link TLog#getDiagnosticContext()}/{@link TLog#setDiagnosticContext(DiagnosticContext)}, or automatically by the TLog wrap methods.
+ */
+public final class DiagnosticContext {
+
+    static final DiagnosticContext EMPTY = new DiagnosticContext(BasicLogger.NO_KEY_VALUES);
+
+    private static final ThreadLocal<DiagnosticContext> CURRENT = new ThreadLocal<>();
+    // The ThreadLocal isn't even read until some thread puts a diagnostic, so threads that never use it allocate nothing.
+    private static volatile boolean inUse = false;
+
+    final KeyValue[] entries;
+
+    private DiagnosticContext(KeyValue[] entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Returns a copy of this context with the key set to the value (replacing its previous value, if any).
+     * @param key - Name of the value.
+     * @param value - The value (may be null).
+     */
+    public DiagnosticContext with(String key, Object value) {
+        int index = indexOf(key);
+        KeyValue[] newEntries;
+        if (index < 0) {
+            newEntries = Arrays.copyOf(entries, entries.length + 1);
+            index = entries.length;
+        } else {
+            newEntries = entries.clone();
+        }
+        newEntries[index] = KeyValue.kv(key, value);
+        return new DiagnosticContext(newEntries);
+    }
+
+    /**
+     * Returns a copy of this context without the key (or this same context, if it doesn't have the key).
+     * @param key - Name of the value to be removed.
+     */
+    public DiagnosticContext without(String key) {
+        int index = indexOf(key);
+        if (index < 0)
+            return this;
+        if (entries.length == 1)
+            return EMPTY;
+        KeyValue[] newEntries = new KeyValue[entries.length - 1];
+        System.arraycopy(entries, 0, newEntries, 0, index);
+        System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+        return new DiagnosticContext(newEntries);
+    }
+
+    /**
+     * Returns the value of the key, or null if the context doesn't have it.
+     * @param key - Name of the value.
+     */
+    public Object get(String key) {
+        int index = indexOf(key);
+        return index < 0 ? null : entries[index].getValue();
+    }
+
+    public boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    /**
+     * Returns the key-values of the context, in the order they were first put.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (KeyValue entry : entries)
+            map.put(entry.getKey(), entry.getValue());
+        return map;
+    }
+
+    private int indexOf(String key) {
+        for (int i = 0; i < entries.length; i++)
+            if (entries[i].getKey().equals(key))
+                return i;
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DiagnosticContext && Arrays.equals(entries, ((DiagnosticContext) o).entries);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(entries);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(entries);
+    }
+
+    static DiagnosticContext current() {
+        if (!inUse)
+            return EMPTY;
+        DiagnosticContext context = CURRENT.get();
+        return context != null ? context : EMPTY;
+    }
+
+    static void setCurrent(DiagnosticContext context) {
+        if (context == null || context.isEmpty()) {
+            if (inUse)
+                CURRENT.remove();
+        } else {
+            inUse = true;
+            CURRENT.set(context);
+        }
+    }
+
+    /**
+     * Wraps the task, so it runs with the given context, restoring the running thread's own context afterwards.
+     */
+    static Runnable wrap(DiagnosticContext context, Runnable task) {
+        return () -> {
+            DiagnosticContext previous = current();
+            setCurrent(context);
+            try {
+                task.run();
+            } finally {
+                setCurrent(previous);
+            }
+        };
+    }
+
+    static <T> Callable<T> wrap(DiagnosticContext context, Callable<T> task) {
+        return () -> {
+            DiagnosticContext previous = current();
+            setCurrent(context);
+            try {
+                return task.call();
+            } finally {
+                setCurrent(previous);
+            }
+        };
+    }
+
+    /**
+     * Executor that runs each task with the context of the thread that submitted it.
+     */
+    static class ContextExecutor implements Executor {
+        private final Executor executor;
+
+        ContextExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(wrap(current(), command));
+        }
+    }
+
+    /**
+     * ExecutorService that runs each task with the context of the thread that submitted it.
+     * Every submission (submit, invokeAll, invokeAny) goes through execute, on the submitting thread, where the context is captured.
+     */
+    static class ContextExecutorService extends AbstractExecutorService {
+        private final ExecutorService executorService;
+
+        ContextExecutorService(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executorService.execute(wrap(current(), command));
+        }
+
+        @Override
+        public void shutdown() {
+            executorService.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executorService.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executorService.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executorService.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executorService.awaitTermination(timeout, unit);
+        }
+    }
+}
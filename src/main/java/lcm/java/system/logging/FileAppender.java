@@ -0,0 +1,826 @@
+package lcm.java.system.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Long-lived appender for a log file.
+ * It keeps a single FileChannel open and encodes messages into a reusable direct ByteBuffer,
+ * writing the buffer to the file when it reaches the configured size, when the flush interval has passed,
+ * or when a message with level WARN or higher is appended.
+ * With a buffer size of 0 (default), each message is written right away, which still saves the open/close of the file for every message.
+ *
+ * Appenders are shared: every logger writing to the same file uses the same instance, obtained by {@link #acquire(Path, FileOptions)}
+ * and given back by {@link #release()}. This makes the appender the only writer of its file, so it can safely roll it to archives
+ * (by size or time) without losing or reordering lines from different loggers. Archives are compressed in a background thread.
+ *
+ * Writes are group-committed: a thread that finds the appender busy enqueues its line and waits, and the thread holding the lock
+ * encodes every enqueued line along with its own, writing the whole batch with a single call. Under contention (e.g. many TLog threads
+ * logging to the same file) this makes one write per batch instead of one per line. Without contention, lines are encoded directly,
+ * with no copy nor queueing.
+ *
+ * Optionally, the file is written as a GZIP stream: every flush deflates the buffer straight into the file, and a sync flush
+ * (which ends the deflate block, so everything written so far can be decompressed) is done at most once per sync interval.
+ * This keeps the file readable while it's written (e.g. with "zcat" or {@link LogFiles#newCompressedReader(java.nio.file.Path)}),
+ * at a small cost in compression ratio. The member is completed when the file is closed or rolled, and reopening the file starts a new one.
+ * A file whose content can't be appended to is rolled aside when opened: a compressed file whose last member wasn't completed
+ * (e.g. after a crash), since readers fail at its end and would never reach a new member, or a file in the other format (plain or GZIP).
+ * Likewise, turning compression on or off for a file with content rolls it first, so a file never mixes both formats.
+ *
+ * Uncompressed text files can also keep a sparse sidecar {@link TimeIndex}, which moves along with the file when it rolls.
+ */
+class FileAppender {
+
+    static final int MIN_BUFFER_CAPACITY = 8192;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    // In UTC, so names keep sorting by time when the local clock goes back (e.g. at the end of daylight saving time).
+    private static final DateTimeFormatter ARCHIVE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final Pattern ARCHIVE_SUFFIX = Pattern.compile("\\.\\d{8}-\\d{6}-\\d{3}(-\\d+)?(\\.gz)?");
+    private static final Pattern ARCHIVE_NAME = Pattern.compile(".*\\.(\\d{8}-\\d{6}-\\d{3})(?:-(\\d+))?(?:\\.gz)?");
+    private static final long ROLL_RETRY_MILLIS = 5000;
+
+    /**
+     * Orders archives from the oldest to the newest: by the (UTC) date in their names, and then by the counter added to names taken in the same millisecond.
+     */
+    static final Comparator<Path> ARCHIVE_ORDER = Comparator.comparing((Path archive) -> archiveName(archive).group(1))
+        .thenComparingLong(archive -> {
+            String counter = archiveName(archive).group(2);
+            return counter != null ? Long.parseLong(counter) : 0;
+        });
+
+    /**
+     * A line enqueued while another thread was writing. Fields are only accessed while holding the appender's lock.
+     */
+    private static class PendingLine {
+        final String text;
+        final long timestamp;
+        final LogLevel level;
+        final boolean mustFlush;
+        boolean done;
+        IOException error;
+
+        PendingLine(String text, long timestamp, LogLevel level, boolean mustFlush) {
+            this.text = text;
+            this.timestamp = timestamp;
+            this.level = level;
+            this.mustFlush = mustFlush;
+        }
+    }
+
+    private static final Map<Path, FileAppender> APPENDERS = new HashMap<>(); // Also used as the lock for acquiring/releasing.
+    // Compressed files known to be complete (checked, or closed by this process with a finished member), with the state they had then,
+    // so acquiring their appender again (e.g. for a new TLog thread) doesn't decompress them whole. Any later change makes them be checked again.
+    static final Map<Path, String> COMPLETE_FILES = new ConcurrentHashMap<>();
+    private static final ExecutorService ARCHIVER = Executors.newSingleThreadExecutor(r -> LogScheduler.daemon(r, "lcm-log-archiver"));
+
+    static {
+        LogScheduler.onShutdown(LogScheduler.ShutdownPhase.FILES, () -> { // After the loggers and sink queues wrote their last lines.
+            synchronized (APPENDERS) {
+                APPENDERS.values().forEach(FileAppender::finishQuietly);
+            }
+        });
+    }
+
+    private final Path filePath;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<PendingLine> pendingLines = new ConcurrentLinkedQueue<>();
+    private final List<PendingLine> batch = new ArrayList<>();
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private FileOptions options;
+    private final BinaryLogWriter binaryWriter = new BinaryLogWriter();
+    private TimeIndex timeIndex; // Only while the file is indexed.
+    private ScheduledFuture<?> scheduledFlush;
+    private ScheduledFuture<?> scheduledSync;
+    private Deflater deflater; // Only while the file is compressed.
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer compressed;
+    private boolean memberStarted;
+    private boolean unsynced;
+    private long uncompressedSize;
+    private long lastSync = System.currentTimeMillis();
+    private long lastFlush = System.currentTimeMillis();
+    private long fileSize;
+    private long nextRollingTime;
+    private long nextRollAttempt; // After a failed roll, rolling is only tried again after a while, instead of on every line.
+    private int references = 0;
+    private Object fileKey; // Identifies the opened file, to detect when it's deleted or replaced by someone else.
+
+    /**
+     * Returns the appender for the given file, opening (or creating) it if no other logger is using it.
+     * If the appender already exists, it adopts the given options, and it's reopened if the file was deleted meanwhile.
+     * Every call must be matched by a call to {@link #release()} when the appender is no longer used.
+     * @param filePath - Path of the file.
+     * @param options - Buffering and rolling options for the file.
+     * @throws IOException if the file can't be opened for writing.
+     */
+    static FileAppender acquire(Path filePath, FileOptions options) throws IOException {
+        Path key = normalize(filePath);
+        synchronized (APPENDERS) {
+            FileAppender appender = APPENDERS.get(key);
+            if (appender == null) {
+                appender = new FileAppender(key, options);
+                APPENDERS.put(key, appender);
+            } else {
+                appender.reuse(options);
+            }
+            appender.references++;
+            return appender;
+        }
+    }
+
+    /**
+     * Resolves the path's directory to its real location, so different relative paths and linked directories leading to the same file share the appender.
+     * The file name itself is kept, since the file may be replaced (e.g. when rolling).
+     */
+    private static Path normalize(Path filePath) {
+        Path absolutePath = filePath.toAbsolutePath().normalize();
+        if (absolutePath.getParent() == null)
+            return absolutePath;
+        try {
+            return absolutePath.getParent().toRealPath().resolve(absolutePath.getFileName());
+        } catch (IOException e) {
+            return absolutePath;
+        }
+    }
+
+    private FileAppender(Path filePath, FileOptions options) throws IOException {
+        this.filePath = filePath;
+        open();
+        try {
+            configure(options);
+            rollIfNotAppendable();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    Path getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Gives back an appender obtained by {@link #acquire(Path, FileOptions)}.
+     * When no logger uses it anymore, any buffered content is written and the file is closed.
+     */
+    void release() {
+        synchronized (APPENDERS) {
+            if (--references > 0)
+                return;
+            APPENDERS.remove(filePath);
+        }
+        close();
+    }
+
+    private void reuse(FileOptions options) throws IOException {
+        lock.lock();
+        try {
+            if (!channel.isOpen() || !isSameFileOpen()) { // File was closed, deleted or replaced by someone else.
+                closeChannel();
+                closeIndexQuietly();
+                resetCompression();
+                open();
+                rollIfNotAppendable();
+            }
+            if (!options.equals(this.options))
+                configure(options);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isSameFileOpen() {
+        try {
+            Object currentKey = Files.readAttributes(filePath, BasicFileAttributes.class).fileKey();
+            return currentKey == null || currentKey.equals(fileKey); // Without file keys (platform dependent), existence is all that can be checked.
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        fileKey = Files.readAttributes(filePath, BasicFileAttributes.class).fileKey();
+        binaryWriter.reset(); // Binary records in a new (or reopened) file start a new segment, with its own dictionary.
+        if (options != null && options.isIndexed())
+            openIndex();
+        nextRollingTime = options != null && options.rollingPeriodMillis > 0 ? System.currentTimeMillis() + options.rollingPeriodMillis : 0;
+    }
+
+    private void configure(FileOptions options) throws IOException {
+        lock.lock();
+        try {
+            if (buffer != null && buffer.position() > 0)
+                flush();
+            if (this.options != null && options.isCompressed() != this.options.isCompressed() && fileSize > 0)
+                roll(); // With the previous options, so the content is archived as what it is. If it can't roll, the change is rejected.
+            int previousCompressionLevel = this.options != null ? this.options.compressionLevel : 0;
+            if (options.compressionLevel != previousCompressionLevel) {
+                finishCompression(); // The current GZIP member (if any) is completed, and a new one starts with the new level.
+                if (deflater != null)
+                    deflater.end();
+                deflater = options.isCompressed() ? new Deflater(options.compressionLevel, true) : null;
+                if (deflater != null && compressed == null)
+                    compressed = ByteBuffer.allocateDirect(MIN_BUFFER_CAPACITY);
+            }
+            boolean wasIndexed = this.options != null && this.options.isIndexed();
+            if (wasIndexed && (!options.isIndexed() || options.indexBucketMillis != this.options.indexBucketMillis))
+                closeIndex();
+            this.options = options;
+            if (options.isIndexed() && timeIndex == null)
+                openIndex();
+            int capacity = Math.max(options.bufferSize, MIN_BUFFER_CAPACITY);
+            if (buffer == null || buffer.capacity() != capacity)
+                buffer = ByteBuffer.allocateDirect(capacity);
+            if (scheduledFlush != null)
+                scheduledFlush.cancel(false);
+            scheduledFlush = options.bufferSize > 0 && options.flushIntervalMillis > 0
+                ? LogScheduler.SCHEDULER.scheduleWithFixedDelay(this::flushIfDue, options.flushIntervalMillis, options.flushIntervalMillis, TimeUnit.MILLISECONDS)
+                : null;
+            if (scheduledSync != null)
+                scheduledSync.cancel(false);
+            scheduledSync = options.isCompressed() && options.syncFlushIntervalMillis > 0
+                ? LogScheduler.SCHEDULER.scheduleWithFixedDelay(this::syncIfDue, options.syncFlushIntervalMillis, options.syncFlushIntervalMillis, TimeUnit.MILLISECONDS)
+                : null;
+            nextRollingTime = options.rollingPeriodMillis > 0 ? System.currentTimeMillis() + options.rollingPeriodMillis : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the text followed by a line break, writing to the file if any flush condition is met.
+     * If the file must roll, it's done before appending, so a line is never split between two files.
+     * If another thread is writing, the line is enqueued for it (or for the next writer) to be written in the same batch,
+     * and this method only returns after the line was handled, so a message is never reported as written before it actually is.
+     * @param text - Text to be appended.
+     * @param timestamp - Instant of the line's message, in milliseconds since epoch (for the file's index).
+     * @param level - Level of the line's message (for the file's index).
+     * @param mustFlush - If the text must be written to the file right away, regardless of the buffer state.
+     * @throws IOException if the file couldn't be written.
+     */
+    void appendLine(CharSequence text, long timestamp, LogLevel level, boolean mustFlush) throws IOException {
+        if (lock.tryLock()) {
+            try {
+                writeBatch(text, timestamp, level, mustFlush);
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        PendingLine pending = new PendingLine(text.toString(), timestamp, level, mustFlush); // The caller may reuse the text once this method returns.
+        pendingLines.add(pending);
+        lock.lock();
+        try {
+            if (!pending.done)
+                writeBatch(null, 0, null, false);
+        } finally {
+            lock.unlock();
+        }
+        if (pending.error != null)
+            throw pending.error;
+    }
+
+    /**
+     * Encodes every enqueued line plus the given one (if any), and writes them if any flush condition is met.
+     * All the lines in the batch are marked as done, sharing the result of the write.
+     * Must be called while holding the lock.
+     * @param text - Text of the calling thread, not enqueued (null if the caller's line is enqueued).
+     * @param timestamp - Instant of the calling thread's message.
+     * @param level - Level of the calling thread's message.
+     * @param mustFlush - If the calling thread's text must be written right away.
+     * @throws IOException if the file couldn't be written and the caller's line wasn't enqueued.
+     */
+    private void writeBatch(CharSequence text, long timestamp, LogLevel level, boolean mustFlush) throws IOException {
+        for (PendingLine pending; (pending = pendingLines.poll()) != null; ) {
+            batch.add(pending);
+            mustFlush |= pending.mustFlush;
+        }
+        IOException error = null;
+        try {
+            for (PendingLine pending : batch)
+                encodeLine(pending.text, pending.timestamp, pending.level);
+            if (text != null)
+                encodeLine(text, timestamp, level);
+            if (mustFlush || options.bufferSize == 0 || buffer.position() >= options.bufferSize
+                    || (options.flushIntervalMillis > 0 && System.currentTimeMillis() - lastFlush >= options.flushIntervalMillis))
+                flush();
+        } catch (IOException e) {
+            error = e;
+        }
+        for (PendingLine pending : batch) {
+            pending.done = true;
+            pending.error = error;
+        }
+        batch.clear();
+        if (error != null && text != null)
+            throw error;
+    }
+
+    /**
+     * Appends a binary record (see {@link LogFormat#BINARY}), encoded by the given function into the appender's {@link BinaryLogWriter}.
+     * Lines enqueued by other threads are written first, so the order of the file is kept. Flush and rolling conditions are the same of lines.
+     * Binary records are not indexed, since they can't be decoded from the middle of a segment.
+     * @param record - Function encoding the record into the writer. It's called while holding the appender's lock.
+     * @param mustFlush - If the record must be written to the file right away, regardless of the buffer state.
+     * @throws IOException if the file couldn't be written.
+     */
+    void appendRecord(Consumer<BinaryLogWriter> record, boolean mustFlush) throws IOException {
+        lock.lock();
+        try {
+            writeBatch(null, 0, null, false);
+            if (options.isRolling())
+                rollIfDue();
+            record.accept(binaryWriter);
+            try {
+                for (int offset = binaryWriter.copyTo(buffer, 0); offset < binaryWriter.length(); offset = binaryWriter.copyTo(buffer, offset))
+                    flush();
+            } catch (IOException e) {
+                buffer.clear(); // A partially written record would corrupt the next ones.
+                throw e;
+            }
+            if (mustFlush || options.bufferSize == 0 || buffer.position() >= options.bufferSize
+                    || (options.flushIntervalMillis > 0 && System.currentTimeMillis() - lastFlush >= options.flushIntervalMillis))
+                flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void encodeLine(CharSequence text, long timestamp, LogLevel level) throws IOException {
+        if (options.isRolling())
+            rollIfDue();
+        if (timeIndex != null)
+            timeIndex.addLine(fileSize + buffer.position(), timestamp, level);
+        try {
+            encode(text);
+            encode(LINE_SEPARATOR);
+        } catch (IOException e) {
+            buffer.clear(); // Partially encoded content would corrupt the next lines.
+            throw e;
+        }
+    }
+
+    /**
+     * Writes all the buffered content to the file.
+     * If the file is compressed, the content is deflated into the file, but it's only sure to be readable after the next sync flush.
+     * @throws IOException if the file couldn't be written.
+     */
+    void flush() throws IOException {
+        flush(false);
+    }
+
+    /**
+     * Writes all the buffered content to the file, also making all the compressed content readable if mustSync is true
+     * (or if the sync interval has passed).
+     */
+    private void flush(boolean mustSync) throws IOException {
+        lock.lock();
+        try {
+            lastFlush = System.currentTimeMillis();
+            buffer.flip();
+            long start = System.nanoTime();
+            long sizeBefore = fileSize;
+            try {
+                if (deflater != null)
+                    deflate(mustSync || lastFlush - lastSync >= options.syncFlushIntervalMillis);
+                else
+                    writeFully(buffer);
+            } finally {
+                if (fileSize > sizeBefore)
+                    LogMetrics.INSTANCE.fileWritten(fileSize - sizeBefore, System.nanoTime() - start);
+                buffer.clear();
+            }
+            if (timeIndex != null)
+                timeIndex.flush(); // After the content, so the entries never point past the end of the file.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining())
+            fileSize += channel.write(bytes);
+    }
+
+    /**
+     * Deflates the buffer's content into the file, starting a GZIP member if needed.
+     * @param sync - If the deflater must also output everything it holds, so the file can be decompressed up to this point.
+     */
+    private void deflate(boolean sync) throws IOException {
+        if (!buffer.hasRemaining() && !(sync && unsynced))
+            return;
+        if (!memberStarted) {
+            writeFully(ByteBuffer.wrap(GZIP_HEADER));
+            memberStarted = true;
+        }
+        crc.update(buffer.duplicate());
+        uncompressedSize += buffer.remaining();
+        deflater.setInput(buffer);
+        while (!deflater.needsInput())
+            writeDeflated(Deflater.NO_FLUSH);
+        deflater.setInput(NO_BYTES); // The deflater keeps the buffer as input, which is cleared and refilled after this.
+        unsynced = true;
+        if (sync) {
+            while (writeDeflated(Deflater.SYNC_FLUSH) == compressed.capacity())
+                ; // A full output means there may be more to be flushed.
+            unsynced = false;
+            lastSync = System.currentTimeMillis();
+        }
+    }
+
+    private int writeDeflated(int flushMode) throws IOException {
+        compressed.clear();
+        int count = deflater.deflate(compressed, flushMode);
+        compressed.flip();
+        writeFully(compressed);
+        return count;
+    }
+
+    /**
+     * Completes the current GZIP member (if any), writing the rest of the deflated content and the trailer (CRC-32 and size).
+     * Must be called while holding the lock, with the buffer already flushed.
+     */
+    private void finishCompression() throws IOException {
+        if (!memberStarted)
+            return;
+        deflater.finish();
+        while (!deflater.finished())
+            writeDeflated(Deflater.NO_FLUSH);
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue()).putInt((int) uncompressedSize).flip();
+        writeFully(trailer);
+        resetCompression();
+    }
+
+    /**
+     * Forgets the current GZIP member, so the next write starts a new one.
+     */
+    private void resetCompression() {
+        if (deflater != null)
+            deflater.reset();
+        crc.reset();
+        uncompressedSize = 0;
+        memberStarted = false;
+        unsynced = false;
+    }
+
+    private void syncIfDue() {
+        lock.lock();
+        try {
+            if (channel.isOpen() && deflater != null && (buffer.position() > 0 || unsynced)
+                    && System.currentTimeMillis() - lastSync >= options.syncFlushIntervalMillis)
+                flush(true);
+        } catch (IOException e) {
+            // Background syncs have no one to report to. The next foreground write will report the problem.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all the buffered content to the file, ignoring failures.
+     */
+    void flushQuietly() {
+        lock.lock();
+        try {
+            if (!channel.isOpen() || buffer.position() == 0)
+                return;
+            flush();
+        } catch (IOException e) {
+            // Background flushes have no one to report to. The next foreground write will report the problem.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all the buffered content to the file, completing the GZIP member if it's compressed (so the whole file is valid GZIP),
+     * ignoring failures. The file stays open, and later writes start a new member.
+     */
+    void finishQuietly() {
+        lock.lock();
+        try {
+            flushQuietly();
+            if (deflater != null)
+                finishCompressionQuietly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes any buffered content and closes the file.
+     * Loggers should call {@link #release()} instead, since the appender may be shared.
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (scheduledFlush != null)
+                scheduledFlush.cancel(false);
+            if (scheduledSync != null)
+                scheduledSync.cancel(false);
+            flushQuietly();
+            boolean completed = finishCompressionQuietly();
+            closeChannel();
+            closeIndexQuietly();
+            if (deflater != null) {
+                deflater.end();
+                if (completed)
+                    rememberComplete(filePath);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes the current GZIP member (if any), returning wether the file was left complete.
+     */
+    private boolean finishCompressionQuietly() {
+        boolean completed = false;
+        try {
+            if (channel.isOpen()) {
+                finishCompression();
+                completed = true;
+            }
+        } catch (IOException e) {
+            // The member is left incomplete, which GZIP readers still decompress up to the last sync.
+        }
+        resetCompression();
+        return completed;
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing else to be done, the file is being discarded anyway.
+        }
+    }
+
+    private void openIndex() throws IOException {
+        timeIndex = new TimeIndex(filePath, options.indexBucketMillis, fileSize == 0);
+    }
+
+    /**
+     * Ends the index's last segment at the end of the file, and closes it. Must be called while holding the lock, with the buffer already flushed.
+     */
+    private void closeIndex() throws IOException {
+        if (timeIndex == null)
+            return;
+        try {
+            timeIndex.close(fileSize);
+        } finally {
+            timeIndex = null;
+        }
+    }
+
+    private void closeIndexQuietly() {
+        try {
+            closeIndex();
+        } catch (IOException e) {
+            // The last entries are lost, and their lines are read as part of the unindexed end of the file.
+        }
+    }
+
+    /**
+     * Rolls the file just opened if its content can't be appended to with the current options (see the class description).
+     * Checking a compressed file decompresses it whole, but only when it's opened, and not again while it's unchanged since it was
+     * last known to be complete.
+     */
+    private void rollIfNotAppendable() throws IOException {
+        if (fileSize == 0)
+            return;
+        boolean gzipContent = hasGzipHeader(filePath);
+        if (gzipContent == options.isCompressed() && (!gzipContent || isCompleteGzip(filePath)))
+            return;
+        roll(gzipContent);
+    }
+
+    private static boolean hasGzipHeader(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == (GZIP_HEADER[0] & 0xff) && in.read() == (GZIP_HEADER[1] & 0xff);
+        }
+    }
+
+    private static boolean isCompleteGzip(Path file) throws IOException {
+        String state = fileState(file);
+        if (state.equals(COMPLETE_FILES.get(file)))
+            return true;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            return false; // The last member ends without its trailer (EOFException), or it's corrupt.
+        }
+        COMPLETE_FILES.put(file, state);
+        return true;
+    }
+
+    private static void rememberComplete(Path file) {
+        try {
+            COMPLETE_FILES.put(file, fileState(file));
+        } catch (IOException e) {
+            COMPLETE_FILES.remove(file); // It will be checked when opened again.
+        }
+    }
+
+    /**
+     * Returns the identity, size and modification time of the file, which change if anyone else replaces or writes to it.
+     */
+    private static String fileState(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.fileKey() + "/" + attributes.size() + "/" + attributes.lastModifiedTime().toMillis();
+    }
+
+    private void rollIfDue() {
+        // Compressed files are measured by what was already written, since buffered content is still uncompressed.
+        long size = deflater != null ? fileSize : fileSize + buffer.position();
+        boolean bySize = options.maxFileSize > 0 && size >= options.maxFileSize;
+        boolean byTime = nextRollingTime > 0 && System.currentTimeMillis() >= nextRollingTime;
+        if ((bySize || byTime) && System.currentTimeMillis() >= nextRollAttempt) {
+            try {
+                roll();
+            } catch (IOException e) {
+                // The line is still appended to the current file, which is rolled on a later attempt.
+            }
+        }
+    }
+
+    /**
+     * Moves the current file to an archive and starts a new one. The archive is compressed (and old ones deleted) in the background.
+     * The file is always reopened: if it can't be moved, the current file is kept (and appended to), and rolling is tried again later.
+     * @throws IOException if the file couldn't be flushed, moved or reopened.
+     */
+    void roll() throws IOException {
+        roll(options.isCompressed());
+    }
+
+    /**
+     * Rolls the file, whose content is compressed or not (which may differ from the current options, for a file just opened).
+     */
+    private void roll(boolean compressedContent) throws IOException {
+        lock.lock();
+        try {
+            flush();
+            finishCompression();
+            boolean indexed = timeIndex != null;
+            closeIndexQuietly();
+            closeChannel();
+            Path archive = null;
+            try {
+                if (fileSize > 0) {
+                    Path target = archivePath(compressedContent);
+                    Files.move(filePath, target);
+                    archive = target;
+                    if (indexed)
+                        moveIndexQuietly(archive);
+                }
+            } finally {
+                nextRollAttempt = archive == null && fileSize > 0 ? System.currentTimeMillis() + ROLL_RETRY_MILLIS : 0;
+                open(); // A new file if it was moved, the current one otherwise.
+            }
+            if (archive != null) {
+                Path movedArchive = archive;
+                int maxArchives = options.maxArchives;
+                if (compressedContent)
+                    ARCHIVER.execute(() -> deleteOldArchivesQuietly(maxArchives)); // Already compressed.
+                else
+                    ARCHIVER.execute(() -> archive(movedArchive, maxArchives));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void moveIndexQuietly(Path archive) {
+        try {
+            Files.move(TimeIndex.indexPath(filePath), TimeIndex.indexPath(archive), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The archive is left without an index, and is read whole. The new file starts a new index anyway.
+        }
+    }
+
+    /**
+     * Returns an unused name for an archive of the file. Compressed content is named with ".gz" right away, like uncompressed archives once compressed.
+     */
+    private Path archivePath(boolean compressedContent) {
+        String name = filePath.getFileName() + "." + ARCHIVE_DATE_FORMAT.format(Instant.now());
+        Path archive = filePath.resolveSibling(name);
+        for (int i = 1; Files.exists(archive) || Files.exists(archive.resolveSibling(archive.getFileName() + ".gz")); i++)
+            archive = filePath.resolveSibling(name + "-" + i);
+        return compressedContent ? archive.resolveSibling(archive.getFileName() + ".gz") : archive;
+    }
+
+    private void archive(Path archive, int maxArchives) {
+        Path compressed = archive.resolveSibling(archive.getFileName() + ".gz");
+        try (InputStream in = Files.newInputStream(archive);
+                OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            return; // The uncompressed archive is kept, so nothing is lost.
+        }
+        try {
+            Files.delete(archive);
+            Files.deleteIfExists(TimeIndex.indexPath(archive)); // Its offsets don't apply to the compressed archive.
+            if (maxArchives > 0)
+                deleteOldArchives(maxArchives);
+        } catch (IOException e) {
+            // Old archives will be deleted on the next roll.
+        }
+    }
+
+    private void deleteOldArchivesQuietly(int maxArchives) {
+        try {
+            if (maxArchives > 0)
+                deleteOldArchives(maxArchives);
+        } catch (IOException e) {
+            // Old archives will be deleted on the next roll.
+        }
+    }
+
+    private void deleteOldArchives(int maxArchives) throws IOException {
+        String prefix = filePath.getFileName().toString();
+        List<Path> archives = new ArrayList<>();
+        try (Stream<Path> files = Files.list(filePath.getParent())) {
+            files.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(prefix) && ARCHIVE_SUFFIX.matcher(name.substring(prefix.length())).matches();
+            }).forEach(archives::add);
+        }
+        archives.sort(ARCHIVE_ORDER.reversed());
+        for (int i = maxArchives; i < archives.size(); i++) {
+            Files.deleteIfExists(archives.get(i));
+            Files.deleteIfExists(TimeIndex.indexPath(archives.get(i)));
+        }
+    }
+
+    private static Matcher archiveName(Path archive) {
+        Matcher matcher = ARCHIVE_NAME.matcher(archive.getFileName().toString());
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Not a log archive: " + archive);
+        return matcher;
+    }
+
+    private void encode(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow())
+            flush();
+        while (encoder.flush(buffer).isOverflow())
+            flush();
+    }
+
+    private void flushIfDue() {
+        lock.lock();
+        try {
+            if (buffer.position() > 0 && System.currentTimeMillis() - lastFlush >= options.flushIntervalMillis)
+                flushQuietly();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
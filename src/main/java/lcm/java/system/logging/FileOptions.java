@@ -0,0 +1,88 @@
+package lcm.java.system.logging;
+
+import java.util.Objects;
+
+/**
+ * Immutable settings of a log file: buffering, rolling, compression and indexing.
+ * Loggers keep one instance and replace it on every change, so a file can be (re)opened with a consistent set of options.
+ */
+final class FileOptions {
+
+    static final FileOptions DEFAULT = new FileOptions(0, 0, 0, 0, 0, 0, 0, 0);
+
+    /** Number of bytes to be accumulated before writing to the file (0 writes every message immediately). */
+    final int bufferSize;
+    /** Maximum time (in milliseconds) for a message to stay in the buffer (0 disables time-based writes). */
+    final long flushIntervalMillis;
+    /** Size (in bytes) that makes the file roll to an archive (0 disables size-based rolling). */
+    final long maxFileSize;
+    /** Time (in milliseconds) after which the file rolls to an archive (0 disables time-based rolling). */
+    final long rollingPeriodMillis;
+    /** Number of archives to be kept after rolling (0 keeps all of them). */
+    final int maxArchives;
+    /** Deflate level (1 to 9) for writing the file as a GZIP stream (0 writes it uncompressed). */
+    final int compressionLevel;
+    /** Maximum time (in milliseconds) for compressed content to become readable from the file with a sync flush (0 syncs on every write). */
+    final long syncFlushIntervalMillis;
+    /** Size (in milliseconds) of the time buckets of the file's sidecar index (0 disables the index). See {@link TimeIndex}. */
+    final long indexBucketMillis;
+
+    private FileOptions(int bufferSize, long flushIntervalMillis, long maxFileSize, long rollingPeriodMillis, int maxArchives,
+            int compressionLevel, long syncFlushIntervalMillis, long indexBucketMillis) {
+        this.bufferSize = Math.max(bufferSize, 0);
+        this.flushIntervalMillis = Math.max(flushIntervalMillis, 0);
+        this.maxFileSize = Math.max(maxFileSize, 0);
+        this.rollingPeriodMillis = Math.max(rollingPeriodMillis, 0);
+        this.maxArchives = Math.max(maxArchives, 0);
+        this.compressionLevel = Math.min(Math.max(compressionLevel, 0), 9);
+        this.syncFlushIntervalMillis = Math.max(syncFlushIntervalMillis, 0);
+        this.indexBucketMillis = Math.max(indexBucketMillis, 0);
+    }
+
+    FileOptions withBuffering(int bufferSize, long flushIntervalMillis) {
+        return new FileOptions(bufferSize, flushIntervalMillis, maxFileSize, rollingPeriodMillis, maxArchives, compressionLevel, syncFlushIntervalMillis, indexBucketMillis);
+    }
+
+    FileOptions withRolling(long maxFileSize, long rollingPeriodMillis, int maxArchives) {
+        return new FileOptions(bufferSize, flushIntervalMillis, maxFileSize, rollingPeriodMillis, maxArchives, compressionLevel, syncFlushIntervalMillis, indexBucketMillis);
+    }
+
+    FileOptions withCompression(int compressionLevel, long syncFlushIntervalMillis) {
+        return new FileOptions(bufferSize, flushIntervalMillis, maxFileSize, rollingPeriodMillis, maxArchives, compressionLevel, syncFlushIntervalMillis, indexBucketMillis);
+    }
+
+    FileOptions withIndex(long indexBucketMillis) {
+        return new FileOptions(bufferSize, flushIntervalMillis, maxFileSize, rollingPeriodMillis, maxArchives, compressionLevel, syncFlushIntervalMillis, indexBucketMillis);
+    }
+
+    boolean isRolling() {
+        return maxFileSize > 0 || rollingPeriodMillis > 0;
+    }
+
+    boolean isCompressed() {
+        return compressionLevel > 0;
+    }
+
+    /**
+     * The index holds byte offsets of the file's content, so it's only kept for uncompressed files.
+     */
+    boolean isIndexed() {
+        return indexBucketMillis > 0 && !isCompressed();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileOptions))
+            return false;
+        FileOptions other = (FileOptions) o;
+        return bufferSize == other.bufferSize && flushIntervalMillis == other.flushIntervalMillis && maxFileSize == other.maxFileSize
+            && rollingPeriodMillis == other.rollingPeriodMillis && maxArchives == other.maxArchives
+            && compressionLevel == other.compressionLevel && syncFlushIntervalMillis == other.syncFlushIntervalMillis
+            && indexBucketMillis == other.indexBucketMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bufferSize, flushIntervalMillis, maxFileSize, rollingPeriodMillis, maxArchives, compressionLevel, syncFlushIntervalMillis, indexBucketMillis);
+    }
+}
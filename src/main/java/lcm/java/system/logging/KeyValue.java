@@ -0,0 +1,169 @@
+package lcm.java.system.logging;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Objects;
+
+/**
+ * A named value attached to a log message, for structured logging.
+ * Key-values are passed among the message parameters, e.g. {@code OLog.info("Request done", kv("user", id), kv("ms", elapsed))}.
+ * They're not used for String formatting: in the TEXT format they're appended to the message as "key=value",
+ * and in the JSON format each one becomes a field of the line.
+ * Primitive values (long, double, boolean) are kept unboxed, and no reflection is used for encoding any value.
+ */
+public final class KeyValue {
+
+    private enum Type { OBJECT, LONG, DOUBLE, BOOLEAN }
+
+    private final String key;
+    private final Type type;
+    private final Object objectValue;
+    private final long longValue;
+    private final double doubleValue;
+
+    private KeyValue(String key, Type type, Object objectValue, long longValue, double doubleValue) {
+        this.key = String.valueOf(key);
+        this.type = type;
+        this.objectValue = objectValue;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+    }
+
+    /**
+     * Creates a key-value with any value, which is encoded by its toString (or as a JSON number, for the standard Number types).
+     * @param key - Name of the value.
+     * @param value - The value (may be null).
+     */
+    public static KeyValue kv(String key, Object value) {
+        return new KeyValue(key, Type.OBJECT, value, 0, 0);
+    }
+
+    /**
+     * Creates a key-value with an integer value (int, long, short or byte), without boxing it.
+     * @param key - Name of the value.
+     * @param value - The value.
+     */
+    public static KeyValue kv(String key, long value) {
+        return new KeyValue(key, Type.LONG, null, value, 0);
+    }
+
+    /**
+     * Creates a key-value with a decimal value (double or float), without boxing it.
+     * @param key - Name of the value.
+     * @param value - The value. NaN and infinite values are encoded as strings in the JSON format.
+     */
+    public static KeyValue kv(String key, double value) {
+        return new KeyValue(key, Type.DOUBLE, null, 0, value);
+    }
+
+    /**
+     * Creates a key-value with a boolean value, without boxing it.
+     * @param key - Name of the value.
+     * @param value - The value.
+     */
+    public static KeyValue kv(String key, boolean value) {
+        return new KeyValue(key, Type.BOOLEAN, null, value ? 1 : 0, 0);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value, boxing it if it's a primitive.
+     */
+    public Object getValue() {
+        switch (type) {
+            case LONG: return longValue;
+            case DOUBLE: return doubleValue;
+            case BOOLEAN: return longValue != 0;
+            default: return objectValue;
+        }
+    }
+
+    /**
+     * Appends "key=value", quoting the value if it has spaces, quotes, equal signs or control characters, so the pair can still be parsed.
+     * Quoted values are escaped as JSON strings are, so line breaks and other control characters never break the line.
+     */
+    void appendText(StringBuilder sb) {
+        sb.append(key).append('=');
+        switch (type) {
+            case LONG: sb.append(longValue); return;
+            case DOUBLE: sb.append(doubleValue); return;
+            case BOOLEAN: sb.append(longValue != 0); return;
+            default:
+        }
+        String value = String.valueOf(objectValue);
+        if (!needsQuotes(value)) {
+            sb.append(value);
+            return;
+        }
+        LineEncoder.appendJsonString(sb, value);
+    }
+
+    private static boolean needsQuotes(String value) {
+        if (value.isEmpty())
+            return true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c) || c < 0x20 || c == '"' || c == '=')
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Appends the value as a JSON value: numbers and booleans as they are, anything else as an escaped string.
+     */
+    void appendJsonValue(StringBuilder sb) {
+        switch (type) {
+            case LONG:
+                sb.append(longValue);
+                return;
+            case DOUBLE:
+                appendJsonNumber(sb, doubleValue);
+                return;
+            case BOOLEAN:
+                sb.append(longValue != 0);
+                return;
+            default:
+        }
+        if (objectValue == null)
+            sb.append("null");
+        else if (objectValue instanceof Integer || objectValue instanceof Long || objectValue instanceof Short || objectValue instanceof Byte
+                || objectValue instanceof BigInteger || objectValue instanceof BigDecimal || objectValue instanceof Boolean)
+            sb.append(objectValue);
+        else if (objectValue instanceof Double || objectValue instanceof Float)
+            appendJsonNumber(sb, ((Number) objectValue).doubleValue());
+        else
+            LineEncoder.appendJsonString(sb, String.valueOf(objectValue));
+    }
+
+    private static void appendJsonNumber(StringBuilder sb, double value) {
+        if (Double.isFinite(value))
+            sb.append(value);
+        else
+            sb.append('"').append(value).append('"');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof KeyValue))
+            return false;
+        KeyValue other = (KeyValue) o;
+        return key.equals(other.key) && type == other.type && longValue == other.longValue
+            && Double.compare(doubleValue, other.doubleValue) == 0 && Objects.equals(objectValue, other.objectValue);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, type, objectValue, longValue, doubleValue);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendText(sb);
+        return sb.toString();
+    }
+}
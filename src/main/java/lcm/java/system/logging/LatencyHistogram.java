@@ -0,0 +1,60 @@
+package lcm.java.system.logging;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies with power of 2 buckets: bucket i counts latencies from 2^(i-1) (inclusive) to 2^i (exclusive) nanoseconds.
+ * Recording is a couple of arithmetic operations plus a LongAdder increment, so it can be used on hot paths by many threads.
+ * Percentiles are approximated by the upper bound of the bucket they fall in (so they're at most 2x the actual value).
+ */
+class LatencyHistogram {
+
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    void record(long nanos) {
+        buckets[nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+    }
+
+    /**
+     * Returns the count of every bucket.
+     */
+    long[] snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+        return counts;
+    }
+
+    /**
+     * Returns the (approximate) latency in nanoseconds under which the given fraction of the recorded latencies are, or 0 if nothing was recorded.
+     * @param fraction - Fraction of the latencies (e.g. 0.99 for the 99th percentile).
+     */
+    long percentile(double fraction) {
+        long[] counts = snapshot();
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        if (total == 0)
+            return 0;
+        long target = (long) Math.ceil(total * fraction);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            accumulated += counts[i];
+            if (accumulated >= Math.max(target, 1))
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+    }
+}
@@ -0,0 +1,175 @@
+package lcm.java.system.logging;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Reusable encoder for log lines ("date [LEVEL] header text", or a JSON object for the JSON format).
+ * It does the line wrapping (maxLineLength), header and level in a single pass over a reused StringBuilder, without intermediate Strings.
+ * Texts come already cut to the maximum message length (see {@link BoundedText}), which uses the same cut mark.
+ * The formatted date is cached and only regenerated when the timestamp changes at the precision used by the formatter (second or millisecond).
+ * Instances are not thread-safe: each logger owns one and only uses it while holding its own lock.
+ */
+class LineEncoder {
+
+    static final String LINE_SEPARATOR = System.lineSeparator();
+    static final String CUT_MARK = "(...)";
+    private static final String HEX_DIGITS = "0123456789abcdef";
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+    private StringBuilder line = new StringBuilder(INITIAL_CAPACITY);
+    private DateTimeFormatter cachedFormat;
+    private boolean cachedFormatUsesMillis;
+    private long cachedKey;
+    private String cachedDate;
+
+    /**
+     * Encodes a log line into the encoder's buffer, which is returned and is only valid until the next call.
+     * @param timestamp - Instant of the message, in milliseconds since epoch.
+     * @param level - Level of the message.
+     * @param text - The message's text, already formatted with its parameters.
+     * @param dateTimeFormat - Format for the timestamp.
+     * @param header - Custom header to be put before the text.
+     * @param category - Name of the category that logged the message, put between brackets after the header (null for none).
+     * @param maxLineLength - Maximum length of each line of the text (0 for no limit). Longer lines are broken and indented.
+     */
+    StringBuilder encode(long timestamp, LogLevel level, CharSequence text, DateTimeFormatter dateTimeFormat, String header, String category, int maxLineLength) {
+        resetLine();
+        line.append(formatDate(timestamp, dateTimeFormat)).append(" [").append(level.name()).append("] ").append(header);
+        if (category != null)
+            line.append('[').append(category).append("] ");
+        if (maxLineLength > 0 && text.length() > maxLineLength)
+            appendWrapped(text, maxLineLength);
+        else
+            line.append(text);
+        return line;
+    }
+
+    /**
+     * Encodes a log line as a JSON object into the encoder's buffer, which is returned and is only valid until the next call.
+     * Fields are "time", "level", "header" (only if not empty), "category" (only if not null), "msg" and then one field per key-value, in order.
+     * @param timestamp - Instant of the message, in milliseconds since epoch.
+     * @param level - Level of the message.
+     * @param text - The message's text, already formatted with its parameters (without key-values).
+     * @param keyValues - Key-values of the message (may be empty).
+     * @param dateTimeFormat - Format for the timestamp.
+     * @param header - Custom header.
+     * @param category - Name of the category that logged the message (null for none).
+     */
+    StringBuilder encodeJson(long timestamp, LogLevel level, CharSequence text, KeyValue[] keyValues, DateTimeFormatter dateTimeFormat, String header, String category) {
+        resetLine();
+        line.append("{\"time\":");
+        appendJsonString(line, formatDate(timestamp, dateTimeFormat));
+        line.append(",\"level\":\"").append(level.name()).append('"');
+        if (header != null && !header.isEmpty()) {
+            line.append(",\"header\":");
+            appendJsonString(line, header);
+        }
+        if (category != null) {
+            line.append(",\"category\":");
+            appendJsonString(line, category);
+        }
+        line.append(",\"msg\":");
+        appendJsonString(line, text);
+        for (KeyValue keyValue : keyValues) {
+            line.append(',');
+            appendJsonString(line, keyValue.getKey());
+            line.append(':');
+            keyValue.appendJsonValue(line);
+        }
+        return line.append('}');
+    }
+
+    private void resetLine() {
+        if (line.capacity() > MAX_RETAINED_CAPACITY)
+            line = new StringBuilder(INITIAL_CAPACITY); // A huge message shouldn't keep its memory retained forever.
+        line.setLength(0);
+    }
+
+    /**
+     * Appends the text as a quoted JSON string, escaping quotes, backslashes and control characters.
+     */
+    static void appendJsonString(StringBuilder sb, CharSequence text) {
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append("\\u00").append(HEX_DIGITS.charAt(c >> 4)).append(HEX_DIGITS.charAt(c & 0xF));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Appends the text breaking lines longer than the limit, and indenting every line after the first one.
+     * Just like splitting the text by lines, trailing line breaks are dropped.
+     */
+    private void appendWrapped(CharSequence text, int maxLineLength) {
+        int length = text.length();
+        while (isLineSeparatorAt(text, length - LINE_SEPARATOR.length()))
+            length -= LINE_SEPARATOR.length();
+        int column = 0;
+        int i = 0;
+        while (i < length) {
+            if (isLineSeparatorAt(text, i)) {
+                line.append(LINE_SEPARATOR).append('\t');
+                column = 0;
+                i += LINE_SEPARATOR.length();
+                continue;
+            }
+            if (column == maxLineLength) {
+                line.append(LINE_SEPARATOR).append('\t');
+                column = 0;
+            }
+            line.append(text.charAt(i++));
+            column++;
+        }
+    }
+
+    private static boolean isLineSeparatorAt(CharSequence text, int index) {
+        if (index < 0 || index + LINE_SEPARATOR.length() > text.length())
+            return false;
+        for (int i = 0; i < LINE_SEPARATOR.length(); i++)
+            if (text.charAt(index + i) != LINE_SEPARATOR.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the formatted date for the timestamp, reusing the last one if it's the same at the formatter's precision.
+     */
+    String formatDate(long timestamp, DateTimeFormatter dateTimeFormat) {
+        if (dateTimeFormat != cachedFormat) {
+            cachedFormat = dateTimeFormat;
+            cachedFormatUsesMillis = usesMillis(dateTimeFormat);
+            cachedDate = null;
+        }
+        long key = cachedFormatUsesMillis ? timestamp : Math.floorDiv(timestamp, 1000);
+        if (cachedDate == null || key != cachedKey) {
+            cachedDate = dateTimeFormat.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), zone));
+            cachedKey = key;
+        }
+        return cachedDate;
+    }
+
+    /**
+     * Checks wether the formatter prints anything below seconds, by comparing two instants within the same second.
+     */
+    private boolean usesMillis(DateTimeFormatter dateTimeFormat) {
+        LocalDateTime startOfSecond = LocalDateTime.of(2000, 1, 1, 0, 0, 0);
+        return !dateTimeFormat.format(startOfSecond).equals(dateTimeFormat.format(startOfSecond.withNano(999_000_000)));
+    }
+}
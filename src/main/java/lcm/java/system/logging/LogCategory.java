@@ -0,0 +1,192 @@
+package lcm.java.system.logging;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named category of messages (e.g. "db", "db.pool", "http"), obtained by {@link OLog#category(String)}, that can have its own minimum level.
+ * Names are hierarchical by dots: a category without a minimum level of its own inherits the one of its closest ancestor that has one
+ * ("db.pool" inherits from "db"), or else OLog's minimum level. The category name is outputted with every message it logs.
+ *
+ * The effective levels of all categories are resolved only when some level changes, and published together as one immutable snapshot,
+ * so checking a level costs just a couple of field reads, and no thread ever sees some categories with a change applied and others without it.
+ * Categories are usually kept in static fields.
+ */
+public final class LogCategory {
+
+    private final String name;
+    private final Registry registry;
+    private final int index; // Position of the category's level in the registry's snapshots.
+    private volatile LogLevel minimumLevel;
+
+    private LogCategory(String name, Registry registry, int index) {
+        this.name = name;
+        this.registry = registry;
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Defines the minimum log level for the messages of this category (and its descendants without a level of their own).
+     * @param minimumLevel - The minimum log level to be set, or null to inherit it again from the closest ancestor.
+     */
+    public void setMinimumLevel(LogLevel minimumLevel) {
+        synchronized (registry) {
+            this.minimumLevel = minimumLevel;
+            registry.refresh();
+        }
+    }
+
+    /**
+     * Returns the minimum log level set for this category, or null if it's inherited.
+     */
+    public LogLevel getMinimumLevel() {
+        return minimumLevel;
+    }
+
+    /**
+     * Returns the minimum log level that currently applies to this category (its own, or else the inherited one).
+     */
+    public LogLevel getEffectiveLevel() {
+        return registry.effectiveLevels[index];
+    }
+
+    /**
+     * Returns wether messages with the given level are currently being outputted by this category.
+     * This check only reads the current snapshot of levels, lock-free and without allocating memory.
+     * @param level - The log level to be checked.
+     */
+    public boolean isEnabled(LogLevel level) {
+        return level.code >= getEffectiveLevel().code;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public boolean isInfoEnabled() {
+        return isEnabled(LogLevel.INFO);
+    }
+
+    public boolean isWarnEnabled() {
+        return isEnabled(LogLevel.WARN);
+    }
+
+    public boolean isErrorEnabled() {
+        return isEnabled(LogLevel.ERROR);
+    }
+
+    /**
+     * Logs a DEBUG message of this category. See {@link OLog#debug(String, Object...)}.
+     */
+    public void debug(String message, Object... params) {
+        log(LogLevel.DEBUG, message, params);
+    }
+
+    /**
+     * Logs an INFO message of this category. See {@link OLog#info(String, Object...)}.
+     */
+    public void info(String message, Object... params) {
+        log(LogLevel.INFO, message, params);
+    }
+
+    /**
+     * Logs a WARN message of this category. See {@link OLog#warn(String, Object...)}.
+     */
+    public void warn(String message, Object... params) {
+        log(LogLevel.WARN, message, params);
+    }
+
+    /**
+     * Logs an ERROR message of this category. See {@link OLog#error(String, Object...)}.
+     */
+    public void error(String message, Object... params) {
+        log(LogLevel.ERROR, message, params);
+    }
+
+    /**
+     * Logs an ERROR message of this category, with the summary and stacktrace of the Throwable. See {@link OLog#error(Throwable, String, Object...)}.
+     */
+    public void error(Throwable throwable, String message, Object... params) {
+        error(throwable, 0, message, params);
+    }
+
+    /**
+     * Logs an ERROR message of this category, with the summary and limited stacktrace of the Throwable. See {@link OLog#error(Throwable, int, String, Object...)}.
+     */
+    public void error(Throwable throwable, int stackTraceLimit, String message, Object... params) {
+        if (isEnabled(LogLevel.ERROR) || registry.logger.discardedMessages != null)
+            registry.logger.logMessage(LogLevel.ERROR, isEnabled(LogLevel.ERROR), name, message == null ? "" : message,
+                registry.logger.withThrowable(throwable, stackTraceLimit, params));
+    }
+
+    private void log(LogLevel level, String message, Object... params) {
+        boolean enabled = isEnabled(level);
+        // Disabled messages still go to the logger when it's preserving discarded messages.
+        if (enabled || registry.logger.discardedMessages != null)
+            registry.logger.logMessage(level, enabled, name, message, params);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * The categories of a logger. Effective levels are resolved for every category whenever any level changes (which is rare),
+     * under the registry's lock, into a new array indexed by category, which replaces the previous one with a single volatile write.
+     * A reader gets either the whole previous snapshot or the whole new one, so a change of an ancestor is never seen applied
+     * to some of its descendants but not yet to others.
+     */
+    static final class Registry {
+        final BasicLogger logger;
+        private final ConcurrentHashMap<String, LogCategory> categories = new ConcurrentHashMap<>();
+        private volatile LogLevel[] effectiveLevels = new LogLevel[0]; // Never modified once published.
+
+        Registry(BasicLogger logger) {
+            this.logger = logger;
+        }
+
+        LogCategory get(String name) {
+            if (name == null || name.isEmpty() || name.startsWith(".") || name.endsWith("."))
+                throw new IllegalArgumentException("Invalid category name: " + name);
+            LogCategory category = categories.get(name);
+            if (category != null)
+                return category;
+            synchronized (this) {
+                category = categories.get(name);
+                if (category == null) {
+                    category = new LogCategory(name, this, categories.size());
+                    LogLevel[] levels = Arrays.copyOf(effectiveLevels, categories.size() + 1);
+                    levels[category.index] = resolve(name);
+                    effectiveLevels = levels; // Before the category is visible, so its index is always within the snapshot.
+                    categories.put(name, category);
+                }
+                return category;
+            }
+        }
+
+        /**
+         * Resolves the effective level of every category again, after some minimum level has changed.
+         */
+        synchronized void refresh() {
+            LogLevel[] levels = new LogLevel[effectiveLevels.length];
+            for (LogCategory category : categories.values())
+                levels[category.index] = resolve(category.name);
+            effectiveLevels = levels;
+        }
+
+        private LogLevel resolve(String name) {
+            for (String ancestor = name; ; ancestor = ancestor.substring(0, ancestor.lastIndexOf('.'))) {
+                LogCategory category = categories.get(ancestor);
+                if (category != null && category.minimumLevel != null)
+                    return category.minimumLevel;
+                if (ancestor.indexOf('.') < 0)
+                    return logger.minimumLevel;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package lcm.java.system.logging;
+
+import java.util.concurrent.Callable;
+
+/**
+ * An explicit context for TLog, holding the settings, buffered and discarded messages that would otherwise belong to a thread.
+ * It's created by {@link TLog#newContext()} with TLog's Global defaults, and can be carried by hand (e.g. inside a request object),
+ * so any thread working for it can run code in it with {@link #run(Runnable)}, where every TLog method applies to the context.
+ *
+ * This is meant for many short-lived threads (e.g. virtual threads), which would otherwise create a logger each just to change settings.
+ * Threads that never change settings don't need a context nor a logger of their own: they log through a logger shared with the Global defaults.
+ *
+ * WARNING: A context may be used by several threads at the same time, but its settings are shared, so they should be changed only while setting it up.
+ * The context must be closed when it's not needed anymore, to flush its remaining messages and release its file.
+ */
+public final class LogContext implements AutoCloseable {
+
+    final BasicLogger logger;
+
+    LogContext(BasicLogger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Runs the task on the current thread, with every TLog method applying to this context.
+     * @param task - The task to be run.
+     * @see TLog#runInContext(LogContext, Runnable)
+     */
+    public void run(Runnable task) {
+        TLog.runInContext(this, task);
+    }
+
+    /**
+     * Calls the task on the current thread, with every TLog method applying to this context.
+     * @param task - The task to be called.
+     * @return The value returned by the task.
+     * @throws Exception - Any exception thrown by the task.
+     * @see TLog#callInContext(LogContext, Callable)
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        return TLog.callInContext(this, task);
+    }
+
+    /**
+     * Flushes the context's pending messages (with a warning, if there are buffered messages that weren't flushed) and releases its file.
+     */
+    @Override
+    public void close() {
+        logger.finishInstance();
+        logger.closeFile();
+    }
+}
@@ -0,0 +1,249 @@
+package lcm.java.system.logging;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Utility methods for reading log files back: compressed files, and time ranges of indexed files.
+ */
+public final class LogFiles {
+
+    private LogFiles() {
+    }
+
+    /**
+     * Opens a reader for a compressed log file (see {@link OLog#setFileCompression(int, long)}), or for a compressed archive.
+     * Files still being written can be read too: the reader ends at the last sync flush, instead of failing on the incomplete end.
+     * @param filePath - Path of the GZIP file.
+     * @return A reader of the decompressed lines, which must be closed after use.
+     * @throws IOException if the file can't be opened, or isn't a GZIP file.
+     */
+    public static BufferedReader newCompressedReader(Path filePath) throws IOException {
+        InputStream in = Files.newInputStream(filePath);
+        try {
+            return new BufferedReader(new InputStreamReader(new TailTolerantGZIPInputStream(in), StandardCharsets.UTF_8));
+        } catch (EOFException e) {
+            in.close();
+            return new BufferedReader(Reader.nullReader()); // Nothing was written yet.
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the lines of an indexed log file (see {@link OLog#setFileIndex(java.time.Duration)}) logged within the time range,
+     * seeking straight to the segments of the file that overlap it. Lines are filtered with the precision of the index's buckets,
+     * so a few lines just outside the range may be included. Parts of the file not indexed (e.g. the end not indexed yet) are always read.
+     * If the file has no index (or the index doesn't match the file), the whole file is read.
+     * @param filePath - Path of the (uncompressed) log file.
+     * @param from - First instant of the range (inclusive), or null for no start.
+     * @param to - Last instant of the range (exclusive), or null for no end.
+     * @return A lazy Stream of the lines, which must be closed after use. Failures while reading are thrown as UncheckedIOException.
+     * @throws IOException if the file or its index can't be read.
+     */
+    public static Stream<String> readTimeRange(Path filePath, Instant from, Instant to) throws IOException {
+        return readTimeRange(filePath, from, to, null);
+    }
+
+    /**
+     * Reads the lines of an indexed log file logged within the time range, like {@link #readTimeRange(Path, Instant, Instant)},
+     * but also parsing the date at the start of each line to filter the lines exactly (with the precision of the date format).
+     * Lines not starting with a date (e.g. the stack trace of an error) follow the decision for the line before them.
+     * @param filePath - Path of the (uncompressed) log file.
+     * @param from - First instant of the range (inclusive), or null for no start.
+     * @param to - Last instant of the range (exclusive), or null for no end.
+     * @param dateTimeFormat - Format of the dates in the file (the same given to the logger), or null to filter by the index only.
+     * @return A lazy Stream of the lines, which must be closed after use. Failures while reading are thrown as UncheckedIOException.
+     * @throws IOException if the file or its index can't be read.
+     */
+    public static Stream<String> readTimeRange(Path filePath, Instant from, Instant to, DateTimeFormatter dateTimeFormat) throws IOException {
+        long fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        List<TimeIndex.Entry> entries = TimeIndex.readEntries(filePath);
+        FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        List<long[]> ranges = new ArrayList<>();
+        long indexedEnd = 0;
+        try {
+            long size = channel.size(); // After reading the index, which may only point up to the size the file had then.
+            if (!matches(entries, size))
+                entries = List.of(); // The whole file is read.
+            for (TimeIndex.Entry entry : entries) {
+                addRange(ranges, indexedEnd, entry.startOffset); // Lines not indexed (e.g. the process was killed before writing the entry).
+                if (entry.overlaps(fromMillis, toMillis))
+                    addRange(ranges, entry.startOffset, entry.endOffset);
+                indexedEnd = entry.endOffset;
+            }
+            addRange(ranges, indexedEnd, size);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        Stream<String> lines = ranges.stream()
+            .flatMap(range -> new BufferedReader(new InputStreamReader(new RangeInputStream(channel, range[0], range[1]), StandardCharsets.UTF_8)).lines())
+            .onClose(() -> {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        return dateTimeFormat != null ? lines.filter(new DateFilter(dateTimeFormat, fromMillis, toMillis)) : lines;
+    }
+
+    /**
+     * Counts the messages of each level logged within the time range, reading only the index of the file, with the precision of its buckets.
+     * Messages not indexed aren't counted: the end of the file not indexed yet (at most one bucket, while the file is being written),
+     * or lines whose entry was lost (e.g. the process was killed before writing it).
+     * @param filePath - Path of the indexed log file.
+     * @param from - First instant of the range (inclusive), or null for no start.
+     * @param to - Last instant of the range (exclusive), or null for no end.
+     * @return Number of messages for each level.
+     * @throws IOException if the file or its index can't be read, or if the index doesn't match the file (e.g. the file was replaced).
+     */
+    public static Map<LogLevel, Long> countMessages(Path filePath, Instant from, Instant to) throws IOException {
+        long fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        List<TimeIndex.Entry> entries = TimeIndex.readEntries(filePath);
+        if (!matches(entries, Files.size(filePath)))
+            throw new IOException("Index doesn't match the log file " + filePath);
+        Map<LogLevel, Long> counts = new EnumMap<>(LogLevel.class);
+        for (LogLevel level : LogLevel.values())
+            counts.put(level, 0L);
+        for (TimeIndex.Entry entry : entries) {
+            if (entry.overlaps(fromMillis, toMillis)) {
+                for (LogLevel level : LogLevel.values())
+                    counts.merge(level, (long) entry.counts[level.ordinal()], Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Checks whether the index entries match the file: an entry past the end of the file, or out of order, means the index belongs
+     * to a previous (or replaced) file.
+     * @param fileSize - Size of the file, taken after reading the entries.
+     */
+    private static boolean matches(List<TimeIndex.Entry> entries, long fileSize) {
+        long indexedEnd = 0;
+        for (TimeIndex.Entry entry : entries) {
+            if (entry.endOffset > fileSize || entry.startOffset < indexedEnd || entry.endOffset < entry.startOffset)
+                return false;
+            indexedEnd = entry.endOffset;
+        }
+        return true;
+    }
+
+    private static void addRange(List<long[]> ranges, long start, long end) {
+        if (start >= end)
+            return;
+        long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+        if (last != null && last[1] == start)
+            last[1] = end; // Contiguous segments are read as a single range.
+        else
+            ranges.add(new long[] {start, end});
+    }
+
+    /**
+     * Stream of a byte range of a file, read with positional reads, so several ranges can share the channel.
+     */
+    private static class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end)
+                return -1;
+            int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (count < 0)
+                return -1;
+            position += count;
+            return count;
+        }
+    }
+
+    /**
+     * Keeps the lines whose date is within the range, and the lines without a date following them.
+     */
+    private static class DateFilter implements Predicate<String> {
+        private final DateTimeFormatter dateTimeFormat;
+        private final ZoneId zone = ZoneId.systemDefault();
+        private final long fromMillis;
+        private final long toMillis;
+        private boolean included = true; // Until a date is found, lines are kept, since they may belong to the range.
+
+        DateFilter(DateTimeFormatter dateTimeFormat, long fromMillis, long toMillis) {
+            this.dateTimeFormat = dateTimeFormat;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        @Override
+        public boolean test(String line) {
+            try {
+                long millis = LocalDateTime.from(dateTimeFormat.parse(line, new ParsePosition(0))).atZone(zone).toInstant().toEpochMilli();
+                included = millis >= fromMillis && millis < toMillis;
+            } catch (DateTimeException e) {
+                // A continuation line, or a format without time.
+            }
+            return included;
+        }
+    }
+
+    /**
+     * GZIP stream that treats an abrupt end of the content as its normal end, since the last member of a log file
+     * is only completed when the file is closed.
+     */
+    private static class TailTolerantGZIPInputStream extends GZIPInputStream {
+        TailTolerantGZIPInputStream(InputStream in) throws IOException {
+            super(in, 64 * 1024);
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            try {
+                return super.read(buf, off, len);
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+    }
+}
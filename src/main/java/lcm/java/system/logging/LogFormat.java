@@ -0,0 +1,20 @@
+package lcm.java.system.logging;
+
+/**
+ * Defines how log lines are written.
+ */
+public enum LogFormat {
+    /** Human readable lines: "date [LEVEL] header message key=value...". This is the default. */
+    TEXT,
+    /**
+     * JSON Lines: one JSON object per line, with the fields "time", "level", "header" (if any), "msg" and one field per key-value.
+     * Lines are never broken (maxLineLength is ignored), but maxMessageLength still applies to the message.
+     */
+    JSON,
+    /**
+     * Compact binary records, only for the file: each format string is written once, and then only referenced by an ID in the records,
+     * which hold the timestamp, level and arguments without formatting them. Other outputs (console, delegated loggers) still get TEXT lines.
+     * Files are read back as TEXT lines by {@link BinaryLogDecoder}.
+     */
+    BINARY;
+}
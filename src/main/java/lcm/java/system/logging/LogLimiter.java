@@ -0,0 +1,182 @@
+package lcm.java.system.logging;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many messages a log statement outputs, either by rate (at most K messages per period) or by sampling (1 in N messages).
+ * Limits are applied per message (the format string, before formatting), so a single limiter can be shared by many log statements.
+ * Messages skipped by the limiter are counted, and reported periodically in one summary line per logger.
+ *
+ * A limiter is lock-free: checking it costs a map lookup and a compare-and-set, so it's meant for hot log statements,
+ * which could otherwise flood the outputs (e.g. the same warning for every request during an incident).
+ * Usage: {@code static final LogLimiter LIMITER = LogLimiter.perSecond(10);} and then {@code OLog.warn(LIMITER, "Connection to %s failed", host);}
+ */
+public final class LogLimiter {
+
+    /** Default interval between summaries of skipped messages. */
+    public static final Duration DEFAULT_SUMMARY_INTERVAL = Duration.ofMinutes(1);
+    /** Maximum number of messages limited independently. Beyond that, other messages share a single limit. */
+    static final int MAX_KEYS = 1024;
+    private static final String OTHER_MESSAGES_KEY = "(other messages)";
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    /**
+     * Limiting state of a single message. The window and the count within it are packed in a single long, so they're updated by a single CAS.
+     */
+    private static class MessageState {
+        final AtomicLong state;
+        final LongAdder skipped = new LongAdder();
+        volatile BasicLogger logger;
+        volatile LogLevel level;
+
+        MessageState(long initialState) {
+            state = new AtomicLong(initialState);
+        }
+    }
+
+    private final int maxMessages;
+    private final long periodMillis; // 0 for sampling.
+    private final long summaryIntervalMillis;
+    private final ConcurrentHashMap<String, MessageState> states = new ConcurrentHashMap<>();
+    private final AtomicBoolean summaryScheduled = new AtomicBoolean();
+
+    private LogLimiter(int maxMessages, long periodMillis, long summaryIntervalMillis) {
+        this.maxMessages = maxMessages;
+        this.periodMillis = periodMillis;
+        this.summaryIntervalMillis = summaryIntervalMillis;
+    }
+
+    /**
+     * Creates a limiter that outputs at most the given number of messages per second, for each message.
+     * @param maxMessages - Maximum number of messages per second (from 1 to 1,000,000).
+     * @throws IllegalArgumentException if the number of messages is out of range.
+     */
+    public static LogLimiter perSecond(int maxMessages) {
+        return perPeriod(maxMessages, Duration.ofSeconds(1));
+    }
+
+    /**
+     * Creates a limiter that outputs at most the given number of messages per period, for each message.
+     * Periods are fixed windows (e.g. each second of the clock), not sliding ones.
+     * @param maxMessages - Maximum number of messages per period (from 1 to 1,000,000).
+     * @param period - Length of each period (at least 1 millisecond).
+     * @throws IllegalArgumentException if the number of messages or the period are out of range.
+     */
+    public static LogLimiter perPeriod(int maxMessages, Duration period) {
+        if (maxMessages < 1 || maxMessages > 1_000_000)
+            throw new IllegalArgumentException("Maximum number of messages must be between 1 and 1,000,000: " + maxMessages);
+        if (period == null || period.toMillis() < 1)
+            throw new IllegalArgumentException("Period must be at least 1 millisecond: " + period);
+        return new LogLimiter(maxMessages, period.toMillis(), DEFAULT_SUMMARY_INTERVAL.toMillis());
+    }
+
+    /**
+     * Creates a limiter that outputs only 1 of every N messages, for each message (the first, the N+1th, and so on).
+     * @param oneIn - Number N, so that 1 in N messages is outputted (at least 1).
+     * @throws IllegalArgumentException if N is less than 1.
+     */
+    public static LogLimiter sampling(int oneIn) {
+        if (oneIn < 1)
+            throw new IllegalArgumentException("Sampling rate must be at least 1: " + oneIn);
+        return new LogLimiter(oneIn, 0, DEFAULT_SUMMARY_INTERVAL.toMillis());
+    }
+
+    /**
+     * Returns a copy of this limiter with a different interval between summaries of skipped messages (1 minute by default).
+     * @param summaryInterval - Interval between summaries (at least 1 millisecond).
+     * @throws IllegalArgumentException if the interval is out of range.
+     */
+    public LogLimiter withSummaryInterval(Duration summaryInterval) {
+        if (summaryInterval == null || summaryInterval.toMillis() < 1)
+            throw new IllegalArgumentException("Summary interval must be at least 1 millisecond: " + summaryInterval);
+        return new LogLimiter(maxMessages, periodMillis, summaryInterval.toMillis());
+    }
+
+    /**
+     * Returns the number of skipped messages not reported by a summary yet.
+     */
+    public long getPendingSkippedMessages() {
+        return states.values().stream().mapToLong(s -> s.skipped.sum()).sum();
+    }
+
+    /**
+     * Checks wether the message may be outputted now, counting it as skipped otherwise.
+     * @param logger - Logger the message would be outputted by, which reports the summary of skipped messages.
+     * @param level - Level of the message.
+     * @param message - The message (format string) used as key for the limit.
+     */
+    boolean tryAcquire(BasicLogger logger, LogLevel level, String message) {
+        MessageState messageState = stateOf(message);
+        if (periodMillis > 0 ? tryAcquireInPeriod(messageState.state) : tryAcquireSample(messageState.state))
+            return true;
+        messageState.skipped.increment();
+        LogMetrics.INSTANCE.messagesDropped(1);
+        if (messageState.logger != logger)
+            messageState.logger = logger;
+        if (messageState.level == null || messageState.level.code < level.code)
+            messageState.level = level;
+        if (summaryScheduled.compareAndSet(false, true))
+            LogScheduler.SCHEDULER.schedule(this::reportSkippedMessages, summaryIntervalMillis, TimeUnit.MILLISECONDS);
+        return false;
+    }
+
+    private MessageState stateOf(String message) {
+        String key = message == null ? "null" : message;
+        MessageState messageState = states.get(key);
+        if (messageState != null)
+            return messageState;
+        if (states.size() >= MAX_KEYS) // Dynamic messages (e.g. concatenated instead of formatted) mustn't make the map grow forever.
+            key = OTHER_MESSAGES_KEY;
+        return states.computeIfAbsent(key, k -> new MessageState(periodMillis > 0 ? -1L << COUNT_BITS : 0)); // No window is -1.
+    }
+
+    private boolean tryAcquireInPeriod(AtomicLong state) {
+        long window = System.currentTimeMillis() / periodMillis;
+        while (true) {
+            long current = state.get();
+            if (current >> COUNT_BITS != window) {
+                if (state.compareAndSet(current, window << COUNT_BITS | 1))
+                    return true;
+            } else if ((current & COUNT_MASK) >= maxMessages) {
+                return false;
+            } else if (state.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean tryAcquireSample(AtomicLong state) {
+        return state.getAndIncrement() % maxMessages == 0;
+    }
+
+    /**
+     * Outputs one line per logger with the number of skipped messages since the last summary, at the highest level among them.
+     */
+    void reportSkippedMessages() {
+        summaryScheduled.set(false);
+        Map<BasicLogger, StringBuilder> summaries = new LinkedHashMap<>();
+        Map<BasicLogger, LogLevel> levels = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageState> entry : states.entrySet()) {
+            MessageState messageState = entry.getValue();
+            long skipped = messageState.skipped.sumThenReset();
+            BasicLogger logger = messageState.logger;
+            LogLevel level = messageState.level;
+            if (skipped == 0 || logger == null || level == null)
+                continue;
+            StringBuilder summary = summaries.computeIfAbsent(logger, l -> new StringBuilder());
+            summary.append(summary.length() == 0 ? "" : ", ").append(skipped).append(" x \"").append(entry.getKey()).append('"');
+            levels.merge(logger, level, (a, b) -> a.code >= b.code ? a : b);
+        }
+        String period = summaryIntervalMillis % 1000 == 0 ? summaryIntervalMillis / 1000 + "s" : summaryIntervalMillis + "ms";
+        summaries.forEach((logger, summary) ->
+            logger.logMessage(levels.get(logger), "Messages skipped by rate limit in the last %s: %s", period, summary));
+    }
+}
@@ -0,0 +1,178 @@
+package lcm.java.system.logging;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms about the cost of logging, shared by all the loggers (OLog and every TLog thread).
+ * Everything is recorded with LongAdders, so recording is lock-free and cheap even with many logging threads.
+ * Messages with a disabled level are not measured at all, so they keep costing only the level check.
+ *
+ * Metrics can be read by {@link #get()} (or OLog/TLog getMetrics), and through JMX, since the instance is registered
+ * in the platform MBeanServer as "lcm.java.system.logging:type=LogMetrics" (see {@link LogMetricsMXBean}).
+ */
+public final class LogMetrics implements LogMetricsMXBean {
+
+    static final String OBJECT_NAME = "lcm.java.system.logging:type=LogMetrics";
+    static final LogMetrics INSTANCE = new LogMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // Metrics are still available through the Java API.
+        }
+    }
+
+    private final LongAdder[] messagesPerLevel = new LongAdder[LogLevel.values().length];
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder discardedMessages = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder bufferedMessages = new LongAdder();
+    private final LongAdder pendingAsyncMessages = new LongAdder();
+    private final LatencyHistogram logLatency = new LatencyHistogram();
+    private final LatencyHistogram fileWriteLatency = new LatencyHistogram();
+
+    private LogMetrics() {
+        for (int i = 0; i < messagesPerLevel.length; i++)
+            messagesPerLevel[i] = new LongAdder();
+    }
+
+    /**
+     * Returns the metrics shared by all the loggers.
+     */
+    public static LogMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the number of messages logged with the given level (outputted, buffered or sent to the background), since the start or the last reset.
+     * @param level - Level of the messages.
+     */
+    public long getMessages(LogLevel level) {
+        return messagesPerLevel[level.ordinal()].sum();
+    }
+
+    @Override
+    public long getDebugMessages() {
+        return getMessages(LogLevel.DEBUG);
+    }
+
+    @Override
+    public long getInfoMessages() {
+        return getMessages(LogLevel.INFO);
+    }
+
+    @Override
+    public long getWarnMessages() {
+        return getMessages(LogLevel.WARN);
+    }
+
+    @Override
+    public long getErrorMessages() {
+        return getMessages(LogLevel.ERROR);
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    @Override
+    public long getDiscardedMessages() {
+        return discardedMessages.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    @Override
+    public long getBufferedMessages() {
+        return bufferedMessages.sum();
+    }
+
+    @Override
+    public long getPendingAsyncMessages() {
+        return pendingAsyncMessages.sum();
+    }
+
+    @Override
+    public long getLogLatencyP50Nanos() {
+        return logLatency.percentile(0.5);
+    }
+
+    @Override
+    public long getLogLatencyP99Nanos() {
+        return logLatency.percentile(0.99);
+    }
+
+    @Override
+    public long getFileWriteLatencyP50Nanos() {
+        return fileWriteLatency.percentile(0.5);
+    }
+
+    @Override
+    public long getFileWriteLatencyP99Nanos() {
+        return fileWriteLatency.percentile(0.99);
+    }
+
+    @Override
+    public long[] getLogLatencyHistogram() {
+        return logLatency.snapshot();
+    }
+
+    @Override
+    public long[] getFileWriteLatencyHistogram() {
+        return fileWriteLatency.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : messagesPerLevel)
+            counter.reset();
+        droppedMessages.reset();
+        discardedMessages.reset();
+        bytesWritten.reset();
+        flushCount.reset();
+        logLatency.reset();
+        fileWriteLatency.reset();
+    }
+
+    void messageLogged(LogLevel level, long nanos) {
+        messagesPerLevel[level.ordinal()].increment();
+        logLatency.record(nanos);
+    }
+
+    void messagesDropped(long count) {
+        droppedMessages.add(count);
+    }
+
+    void messageDiscarded() {
+        discardedMessages.increment();
+    }
+
+    void fileWritten(long bytes, long nanos) {
+        bytesWritten.add(bytes);
+        flushCount.increment();
+        fileWriteLatency.record(nanos);
+    }
+
+    void bufferedMessagesChanged(long delta) {
+        bufferedMessages.add(delta);
+    }
+
+    void pendingAsyncMessagesChanged(long delta) {
+        pendingAsyncMessages.add(delta);
+    }
+}
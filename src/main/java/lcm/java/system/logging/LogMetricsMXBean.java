@@ -0,0 +1,49 @@
+package lcm.java.system.logging;
+
+/**
+ * Management interface of {@link LogMetrics}, registered in the platform MBeanServer as "lcm.java.system.logging:type=LogMetrics".
+ * Latencies are in nanoseconds, approximated to the next power of 2.
+ */
+public interface LogMetricsMXBean {
+
+    long getDebugMessages();
+
+    long getInfoMessages();
+
+    long getWarnMessages();
+
+    long getErrorMessages();
+
+    /** Messages lost on purpose: buffer overflows and rate limits. */
+    long getDroppedMessages();
+
+    /** Messages below the minimum level that were preserved in memory instead of outputted. */
+    long getDiscardedMessages();
+
+    long getBytesWritten();
+
+    long getFlushCount();
+
+    /** Messages currently held in message buffers, waiting for a flush. */
+    long getBufferedMessages();
+
+    /** Messages currently waiting in asynchronous queues. */
+    long getPendingAsyncMessages();
+
+    long getLogLatencyP50Nanos();
+
+    long getLogLatencyP99Nanos();
+
+    long getFileWriteLatencyP50Nanos();
+
+    long getFileWriteLatencyP99Nanos();
+
+    /** Counts of logging latencies, where position i counts latencies below 2^i nanoseconds (and not below the previous position). */
+    long[] getLogLatencyHistogram();
+
+    /** Counts of file write latencies, where position i counts latencies below 2^i nanoseconds (and not below the previous position). */
+    long[] getFileWriteLatencyHistogram();
+
+    /** Sets all the counters and histograms back to zero (except the current buffered and pending messages). */
+    void reset();
+}
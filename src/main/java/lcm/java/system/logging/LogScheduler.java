@@ -0,0 +1,76 @@
+package lcm.java.system.logging;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Background threads shared by the logging classes for periodic and deferred work (flushing files, reporting summaries).
+ * Threads are daemons, so they never keep the application alive.
+ *
+ * It also runs the single shutdown hook of the logging classes. The JVM runs separate hooks in no particular order, so a file
+ * could be finished before a logger's pending messages were written to it (losing them, or starting a compressed member
+ * that is never finished). The hook runs the registered steps phase by phase instead.
+ */
+final class LogScheduler {
+
+    /** Single thread for short periodic tasks. Tasks must not block for long, since they delay each other. */
+    static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "lcm-log-scheduler"));
+
+    /**
+     * Phases of the shutdown, in the order they run.
+     */
+    enum ShutdownPhase {
+        /** Loggers output what they still hold (buffered messages, asynchronous rings). */
+        LOGGERS,
+        /** Sink queues deliver what they still hold. */
+        SINK_QUEUES,
+        /** Files write what they still buffer, and finish their compressed members. */
+        FILES
+    }
+
+    private static final Map<ShutdownPhase, List<Runnable>> SHUTDOWN_STEPS = new EnumMap<>(ShutdownPhase.class); // Also used as its lock.
+
+    static {
+        for (ShutdownPhase phase : ShutdownPhase.values())
+            SHUTDOWN_STEPS.put(phase, new ArrayList<>());
+        Runtime.getRuntime().addShutdownHook(new Thread(LogScheduler::shutdown, "lcm-log-shutdown"));
+    }
+
+    private LogScheduler() {
+    }
+
+    /**
+     * Registers a step to be run when the JVM shuts down, after every step of the previous phases.
+     */
+    static void onShutdown(ShutdownPhase phase, Runnable step) {
+        synchronized (SHUTDOWN_STEPS) {
+            SHUTDOWN_STEPS.get(phase).add(step);
+        }
+    }
+
+    private static void shutdown() {
+        for (ShutdownPhase phase : ShutdownPhase.values()) {
+            List<Runnable> steps;
+            synchronized (SHUTDOWN_STEPS) {
+                steps = new ArrayList<>(SHUTDOWN_STEPS.get(phase));
+            }
+            for (Runnable step : steps) {
+                try {
+                    step.run();
+                } catch (RuntimeException e) {
+                    // A failing step mustn't keep the next ones from saving what they can.
+                }
+            }
+        }
+    }
+
+    static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,34 @@
+package lcm.java.system.logging;
+
+import java.util.function.BiConsumer;
+
+/**
+ * The delegated outputs of a logger, which may be decoupled from logging threads by their own queues (see OLog/TLog setSinkQueue).
+ * The print stream and the file are not sinks: they're written by the logging thread (or by the asynchronous logging thread).
+ */
+public enum LogSink {
+    /** The java.lang.System.Logger defined by setSystemLogger. */
+    SYSTEM_LOGGER {
+        @Override
+        void deliver(Object target, LogLevel level, String text) {
+            ((java.lang.System.Logger) target).log(level.systemLoggerLevel, text);
+        }
+    },
+    /** The java.util.logging.Logger defined by setUtilLogger. */
+    UTIL_LOGGER {
+        @Override
+        void deliver(Object target, LogLevel level, String text) {
+            ((java.util.logging.Logger) target).log(level.utilLoggerLevel, text);
+        }
+    },
+    /** The custom output handler defined by setCustomOutputHandler. */
+    CUSTOM_OUTPUT_HANDLER {
+        @Override
+        @SuppressWarnings("unchecked")
+        void deliver(Object target, LogLevel level, String text) {
+            ((BiConsumer<LogLevel, String>) target).accept(level, text);
+        }
+    };
+
+    abstract void deliver(Object target, LogLevel level, String text);
+}
@@ -0,0 +1,264 @@
+package lcm.java.system.logging;
+
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory tail of the most recent log messages, to be queried e.g. from a diagnostics endpoint without reading log files.
+ * Set it as an output with {@link OLog#setLogTail(LogTail)} or {@link TLog#setGlobalDefaultLogTail(LogTail)} (a same tail may be shared by both).
+ *
+ * Messages are kept in a ring allocated once, in compact form (timestamp, level, category and message text, without the formatted line),
+ * each new message overwriting the oldest one. Texts longer than the maximum length are cut in the middle, so memory is strictly bounded
+ * by capacity and maximum text length. Besides the ring, each level has an index ring with the positions of its messages,
+ * so a query for the last messages of some levels only visits those messages, not the whole ring.
+ *
+ * Writers take no locks and never wait for readers: they claim a position, fill its slot and publish it. A writer only waits (spinning)
+ * if the slot it claimed still has the message of the previous lap being written, by a writer that fell a whole lap of the ring behind.
+ * Queries don't lock either: they read the slots optimistically, discarding the ones overwritten while being read.
+ */
+public final class LogTail {
+
+    static final int DEFAULT_MAX_TEXT_LENGTH = 1024;
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    /**
+     * A message of the tail.
+     */
+    public static final class Entry {
+        private final long position;
+        private final long levelPosition;
+        private final long timestamp;
+        private final LogLevel level;
+        private final String category;
+        private final String text;
+
+        private Entry(long position, long levelPosition, long timestamp, LogLevel level, String category, String text) {
+            this.position = position;
+            this.levelPosition = levelPosition;
+            this.timestamp = timestamp;
+            this.level = level;
+            this.category = category;
+            this.text = text;
+        }
+
+        /**
+         * Returns the instant when the message was logged.
+         */
+        public Instant getTime() {
+            return Instant.ofEpochMilli(timestamp);
+        }
+
+        /**
+         * Returns the level of the message.
+         */
+        public LogLevel getLevel() {
+            return level;
+        }
+
+        /**
+         * Returns the category of the message (see {@link OLog#category(String)}), or null if it was logged without one.
+         */
+        public String getCategory() {
+            return category;
+        }
+
+        /**
+         * Returns the text of the message, with its parameters and key-values (cut in the middle if it was longer than the tail's maximum).
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Returns the message as a line: "instant [LEVEL] [category] text".
+         */
+        @Override
+        public String toString() {
+            return getTime() + " [" + level + "] " + (category != null ? "[" + category + "] " : "") + text;
+        }
+    }
+
+    private final int mask;
+    private final int maxTextLength;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLongArray sequences; // Per slot: position+1 when published, 0 while empty or being written.
+    private final long[] levelPositions; // Per slot: position of the message in its level's index ring.
+    private final long[] timestamps;
+    private final byte[] levels;
+    private final String[] categories;
+    private final String[] texts;
+    private final AtomicLong[] levelClaimed = new AtomicLong[LEVELS.length];
+    private final AtomicLongArray[] levelIndexes = new AtomicLongArray[LEVELS.length]; // Per level: position+1 of its messages, 0 while empty.
+
+    /**
+     * Creates a tail keeping the last messages, with texts of up to 1024 characters.
+     * @param capacity - Number of messages to be kept (rounded up to a power of 2).
+     */
+    public LogTail(int capacity) {
+        this(capacity, DEFAULT_MAX_TEXT_LENGTH);
+    }
+
+    /**
+     * Creates a tail keeping the last messages.
+     * @param capacity - Number of messages to be kept (rounded up to a power of 2).
+     * @param maxTextLength - Maximum number of characters kept from each message's text (longer texts are cut in the middle).
+     */
+    public LogTail(int capacity, int maxTextLength) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity for a log tail must be positive: " + capacity);
+        if (maxTextLength <= 0)
+            throw new IllegalArgumentException("Max text length for a log tail must be positive: " + maxTextLength);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.mask = size - 1;
+        this.maxTextLength = maxTextLength;
+        this.sequences = new AtomicLongArray(size);
+        this.levelPositions = new long[size];
+        this.timestamps = new long[size];
+        this.levels = new byte[size];
+        this.categories = new String[size];
+        this.texts = new String[size];
+        for (int i = 0; i < LEVELS.length; i++) {
+            levelClaimed[i] = new AtomicLong();
+            levelIndexes[i] = new AtomicLongArray(size);
+        }
+    }
+
+    /**
+     * Returns the number of messages the tail keeps.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of messages currently in the tail.
+     */
+    public int size() {
+        return (int) Math.min(claimed.get(), capacity());
+    }
+
+    /**
+     * Adds a message, overwriting the oldest one if the tail is full.
+     */
+    void add(long timestamp, LogLevel level, String category, String text) {
+        String keptText = cut(text); // Before claiming the slot, so it's held for as little as possible.
+        long position = claimed.getAndIncrement();
+        long levelPosition = levelClaimed[level.ordinal()].getAndIncrement();
+        int index = (int) position & mask;
+        if (position > mask) {
+            while (sequences.get(index) != position - mask) // The previous message of this slot must be complete before it's overwritten.
+                Thread.onSpinWait();
+        }
+        sequences.set(index, 0);
+        VarHandle.storeStoreFence(); // Readers must see the slot as invalid before any of its fields change.
+        levelPositions[index] = levelPosition;
+        timestamps[index] = timestamp;
+        levels[index] = (byte) level.ordinal();
+        categories[index] = category;
+        texts[index] = keptText;
+        sequences.set(index, position + 1);
+        levelIndexes[level.ordinal()].set((int) levelPosition & mask, position + 1);
+    }
+
+    /**
+     * Cuts the middle of a text longer than the maximum, the same way messages longer than the maximum message length are.
+     */
+    private String cut(String text) {
+        if (text.length() <= maxTextLength)
+            return text;
+        return text.substring(0, (int) BoundedText.cutStart(text.length(), maxTextLength)) + LineEncoder.CUT_MARK
+            + text.substring((int) BoundedText.cutEnd(text.length(), maxTextLength));
+    }
+
+    /**
+     * Returns the last messages of every level, from the oldest to the newest.
+     * @param limit - Maximum number of messages to be returned.
+     */
+    public List<Entry> last(int limit) {
+        return query(LogLevel.DEBUG, (Instant) null, limit);
+    }
+
+    /**
+     * Returns the last messages with the given level or higher, logged within the given time, from the oldest to the newest.
+     * E.g. the last 500 warnings and errors of the past 10 minutes: {@code tail.query(LogLevel.WARN, Duration.ofMinutes(10), 500)}.
+     * @param minimumLevel - Minimum level of the messages.
+     * @param maxAge - Maximum age of the messages (null for any age).
+     * @param limit - Maximum number of messages to be returned.
+     */
+    public List<Entry> query(LogLevel minimumLevel, Duration maxAge, int limit) {
+        return query(minimumLevel, maxAge != null ? Instant.now().minus(maxAge) : null, limit);
+    }
+
+    /**
+     * Returns the last messages with the given level or higher, logged since the given instant, from the oldest to the newest.
+     * Only the index rings of the requested levels are visited, from the newest message back, stopping at the limit or at the first older message,
+     * so the cost is proportional to the result (plus the level's messages already overwritten, if the limit isn't reached), not to the capacity.
+     * Messages overwritten while being read are left out.
+     * @param minimumLevel - Minimum level of the messages.
+     * @param since - Instant of the oldest messages (null for any instant).
+     * @param limit - Maximum number of messages to be returned.
+     */
+    public List<Entry> query(LogLevel minimumLevel, Instant since, int limit) {
+        long sinceMillis = since != null ? since.toEpochMilli() : Long.MIN_VALUE;
+        List<Entry> entries = new ArrayList<>();
+        for (LogLevel level : LEVELS) {
+            if (level.code >= minimumLevel.code)
+                collect(level, sinceMillis, limit, entries);
+        }
+        entries.sort(Comparator.comparingLong((Entry e) -> e.position).reversed());
+        List<Entry> result = new ArrayList<>(entries.subList(0, Math.min(limit, entries.size())));
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Adds to the list the last messages of the level (up to the limit), walking its index ring from the newest message back.
+     */
+    private void collect(LogLevel level, long sinceMillis, int limit, List<Entry> entries) {
+        AtomicLongArray positions = levelIndexes[level.ordinal()];
+        long end = levelClaimed[level.ordinal()].get();
+        int found = 0;
+        for (long levelPosition = end - 1; levelPosition >= Math.max(0, end - capacity()) && found < limit; levelPosition--) {
+            long position = positions.get((int) levelPosition & mask) - 1;
+            if (position < 0)
+                continue; // Claimed by a writer, but not filled yet.
+            Entry entry = read(position);
+            // Skipped if overwritten (or still being written), or if the index slot still points to the message of its previous lap,
+            // because the writer that claimed it hasn't filled it yet: that message is older, and mustn't end the walk nor count for the limit.
+            if (entry == null || entry.level != level || entry.levelPosition != levelPosition)
+                continue;
+            if (entry.timestamp < sinceMillis)
+                break;
+            entries.add(entry);
+            found++;
+        }
+    }
+
+    /**
+     * Reads the message at the position, or returns null if its slot doesn't hold it (anymore), or was overwritten while being read.
+     */
+    private Entry read(long position) {
+        int index = (int) position & mask;
+        long sequence = sequences.get(index);
+        if (sequence != position + 1)
+            return null;
+        long levelPosition = levelPositions[index];
+        long timestamp = timestamps[index];
+        byte level = levels[index];
+        String category = categories[index];
+        String text = texts[index];
+        VarHandle.acquireFence(); // The fields must be read before the sequence is checked again.
+        if (sequences.get(index) != sequence)
+            return null;
+        return new Entry(position, levelPosition, timestamp, LEVELS[level], category, text);
+    }
+}
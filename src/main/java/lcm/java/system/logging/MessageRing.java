@@ -0,0 +1,75 @@
+package lcm.java.system.logging;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Fixed-size collection that keeps only the last N elements added, overwriting the oldest one when full.
+ * The array is allocated once, so it works as a flight recorder: cheap to keep always on, bounded in memory.
+ * Iteration goes from the oldest to the newest element. Instances are not thread-safe.
+ */
+class MessageRing<T> extends AbstractCollection<T> {
+
+    private final Object[] slots;
+    private int start = 0;
+    private int size = 0;
+
+    MessageRing(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Ring capacity must be positive: " + capacity);
+        slots = new Object[capacity];
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Adds the element, overwriting the oldest one if the ring is full.
+     */
+    @Override
+    public boolean add(T element) {
+        if (size < slots.length) {
+            slots[(start + size) % slots.length] = element;
+            size++;
+        } else {
+            slots[start] = element;
+            start = (start + 1) % slots.length;
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            slots[(start + i) % slots.length] = null; // Releases the messages and their parameters.
+        start = 0;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return (T) slots[(start + index++) % slots.length];
+            }
+        };
+    }
+}
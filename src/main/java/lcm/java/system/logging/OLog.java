@@ -1,9 +1,11 @@
 package lcm.java.system.logging;
 
 import java.io.PrintStream;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * OLog stands for "One-and-only Log". It's a singleton logger class providing utility methods to make logging easier.
@@ -21,9 +23,11 @@ public class OLog {
 
     static final OLog INST = new OLog();
     private BasicLogger logger;
+    private final LogCategory.Registry categories;
 
     private OLog() {
         this.logger = new BasicLogger();
+        this.categories = new LogCategory.Registry(logger);
         logger.minimumLevel = LogLevel.INFO;
         logger.customHeader = "";
         logger.dateTimeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
@@ -35,7 +39,8 @@ public class OLog {
         logger.utilLogger = null;
         logger.customOutputHandler = null;
         logger.unflushedMessagesWarning = "THERE WERE BUFFERED MESSAGES IN OLOG THAT WEREN'T FLUSHED BEFORE APP END. FLUSHING NOW...";
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> logger.finishInstance()));
+        LogScheduler.onShutdown(LogScheduler.ShutdownPhase.LOGGERS, () -> logger.finishInstance());
+        LogScheduler.onShutdown(LogScheduler.ShutdownPhase.SINK_QUEUES, () -> logger.drainSinkQueues());
     }
 
     /**
@@ -45,7 +50,22 @@ public class OLog {
      * @see LogLevel
      */
     public static void setMinimumLevel(LogLevel minimumLevel) {
-        INST.logger.minimumLevel = minimumLevel;
+        synchronized (INST.categories) {
+            INST.logger.minimumLevel = minimumLevel;
+            INST.categories.refresh();
+        }
+    }
+
+    /**
+     * Returns the category with the given name, creating it on the first call. Categories are hierarchical by dots ("db.pool" is a child of "db"),
+     * and log through OLog, with their name outputted with every message, but can have their own minimum level.
+     * Categories without a level of their own inherit it from their closest ancestor with one, or else from {@link #setMinimumLevel(LogLevel)}.
+     * @param name - Name of the category (e.g. "db" or "db.pool").
+     * @return The category, which should be kept (e.g. in a static field) rather than obtained again for every message.
+     * @see LogCategory
+     */
+    public static LogCategory category(String name) {
+        return INST.categories.get(name);
     }
 
     /**
@@ -70,6 +90,8 @@ public class OLog {
     /**
      * Defines a maximum length to be logged for each message. By default, no limit is set.
      * When a message surpasses this limit, it will be cut in the middle (text replaced by "(...)") to fit the limit. 
+     * The formatted message is built keeping only about this many characters in memory, however long it would be. That includes Strings,
+     * other CharSequences (e.g. StringBuilders) and Formattable parameters, but any other parameter is still rendered in full by its toString() before being cut.
      * @param maxMessageLength - The maximum number of characters to be logged in each message.
      */
     public static void setMaxMessageLength(int maxMessageLength) {
@@ -85,6 +107,18 @@ public class OLog {
         INST.logger.maxLineLength = maxLineLength;
     }
 
+    /**
+     * Defines the format of the log lines. This is TEXT by default.
+     * With JSON, every message is written as a JSON object in a single line (JSON Lines), which can be parsed without regular expressions.
+     * Key-values given among the message parameters (see {@link KeyValue#kv(String, Object)}) become fields of the object.
+     * With BINARY, the file gets compact records that aren't formatted until they're read back with {@link BinaryLogDecoder}.
+     * @param logFormat - Format of the log lines.
+     * @see LogFormat
+     */
+    public static void setLogFormat(LogFormat logFormat) {
+        INST.logger.logFormat = logFormat == null ? LogFormat.TEXT : logFormat;
+    }
+
     /**
      * Defines a PrintStream to be used when printing log messages. By default, no one is used.
      * @param printStream - A PrintStream to be used for printing messages.
@@ -101,6 +135,65 @@ public class OLog {
         INST.logger.setFilePath(filePath);
     }
 
+    /**
+     * Defines how writes to the log file are buffered. By default, there's no buffering and each message is written to the file immediately.
+     * The file is always kept open, and messages are accumulated in memory until the buffer size is reached or the flush interval has passed.
+     * Messages with level WARN or higher, and flushed messages ({@link #flushBufferedMessages()}, {@link #flushDiscardedMessages()}), are always written immediately.
+     * Any content still in the buffer is written when the application ends.
+     * @param bufferSize - Number of bytes to be accumulated before writing to the file (0 disables buffering).
+     * @param flushIntervalMillis - Maximum time (in milliseconds) for a message to stay in the buffer before being written (0 disables time-based writes).
+     * @see #setFilePath(String)
+     */
+    public static void setFileBuffering(int bufferSize, long flushIntervalMillis) {
+        INST.logger.setFileOptions(INST.logger.fileOptions.withBuffering(bufferSize, flushIntervalMillis));
+    }
+
+    /**
+     * Defines when the log file must roll to an archive. By default, messages are appended to the same file forever.
+     * When the file reaches the maximum size, or when the rolling period has passed since it was opened, it's renamed
+     * with a UTC timestamp suffix (like "app.log.20240131-235959-999") and a new file is started.
+     * Archives are compressed with GZIP in a background thread, so rolling never blocks logging threads, and only the newest ones are kept.
+     * A line is never split between two files, so a file may get slightly bigger than the maximum size.
+     * WARNING: Rolling options belong to the file, so they also apply to any TLog threads writing to the same file.
+     * @param maxFileSize - Size (in bytes) that makes the file roll (0 disables size-based rolling). For compressed files, it is the compressed size.
+     * @param rollingPeriod - Time after which the file rolls (null disables time-based rolling).
+     * @param maxArchives - Number of archives to be kept (0 keeps all of them).
+     * @see #setFilePath(String)
+     */
+    public static void setFileRolling(long maxFileSize, Duration rollingPeriod, int maxArchives) {
+        INST.logger.setFileOptions(INST.logger.fileOptions.withRolling(maxFileSize, rollingPeriod != null ? rollingPeriod.toMillis() : 0, maxArchives));
+    }
+
+    /**
+     * Defines wether the log file is written compressed, as a GZIP stream. By default, files are written uncompressed.
+     * Content is deflated as it's written, and a sync flush makes everything written so far readable at most once per sync interval,
+     * so the file can be followed while it's written (e.g. with "zcat" or {@link LogFiles#newCompressedReader(java.nio.file.Path)}).
+     * Shorter intervals make lines readable sooner, at the cost of a lower compression ratio. Archives of compressed files aren't compressed again.
+     * A file with content is never appended to in the other format: turning compression on or off rolls it first (even if rolling is disabled),
+     * and so does opening a compressed file that wasn't closed cleanly (e.g. after a crash), whose content ends in an incomplete GZIP member.
+     * WARNING: Compression options belong to the file, so they also apply to any TLog threads writing to the same file.
+     * @param compressionLevel - Deflate level, from 1 (fastest) to 9 (smallest), or 0 to write the file uncompressed.
+     * @param syncFlushIntervalMillis - Maximum time (in milliseconds) for written content to become readable (0 syncs on every write).
+     * @see #setFilePath(String)
+     */
+    public static void setFileCompression(int compressionLevel, long syncFlushIntervalMillis) {
+        INST.logger.setFileOptions(INST.logger.fileOptions.withCompression(compressionLevel, syncFlushIntervalMillis));
+    }
+
+    /**
+     * Defines wether the log file keeps a sidecar time index (a file with the same name plus ".idx"). By default, files aren't indexed.
+     * The index maps time buckets to byte ranges of the file (with the count of messages per level), so a time range can be read
+     * by seeking straight to it with {@link LogFiles#readTimeRange(java.nio.file.Path, java.time.Instant, java.time.Instant)},
+     * and messages can be counted with {@link LogFiles#countMessages(java.nio.file.Path, java.time.Instant, java.time.Instant)}.
+     * The index of an archive is kept only while it's uncompressed. Compressed files and the BINARY format aren't indexed.
+     * WARNING: Index options belong to the file, so they also apply to any TLog threads writing to the same file.
+     * @param bucket - Time covered by each index entry (null to disable the index). Shorter buckets make reads more precise and the index bigger.
+     * @see #setFilePath(String)
+     */
+    public static void setFileIndex(Duration bucket) {
+        INST.logger.setFileOptions(INST.logger.fileOptions.withIndex(bucket != null ? bucket.toMillis() : 0));
+    }
+
     /**
      * Defines a java.lang.System.Logger instance to be used together with OLog.
      * When a System.Logger is set, each message being logged in OLog will be forwarded to it with the equivalent log level.
@@ -134,6 +227,318 @@ public class OLog {
         INST.logger.customOutputHandler = customOutputHandler;
     }
 
+    /**
+     * Defines a custom output handler that receives messages in batches, instead of one call per message.
+     * A batch holds a whole flush of buffered or discarded messages, or a run of messages outputted asynchronously (see {@link #logAsync(boolean)}) without pause.
+     * Messages logged synchronously without buffering are handed in batches of one. It may be used together with {@link #setCustomOutputHandler(BiConsumer)}.
+     * @param batchOutputHandler - A handler that will receive the levels and texts of the messages being outputted (null disables it).
+     * @see BatchOutputHandler
+     */
+    public static void setBatchOutputHandler(BatchOutputHandler batchOutputHandler) {
+        INST.logger.batchOutputHandler = batchOutputHandler;
+    }
+
+    /**
+     * Defines an in-memory tail to keep the most recent messages, which can then be queried (e.g. the last warnings of the past minutes) without reading files.
+     * Its memory is bounded by its capacity, and writing to it never waits for the threads querying it.
+     * A same tail may be shared with TLog (see {@link TLog#setGlobalDefaultLogTail(LogTail)}), keeping the messages of both.
+     * @param logTail - The tail to keep the messages (null disables it).
+     * @see LogTail
+     */
+    public static void setLogTail(LogTail logTail) {
+        INST.logger.logTail = logTail;
+    }
+
+    /**
+     * Returns the in-memory tail defined with {@link #setLogTail(LogTail)}, or null if there's none.
+     */
+    public static LogTail getLogTail() {
+        return INST.logger.logTail;
+    }
+
+    /**
+     * Returns wether messages with the given level are currently being outputted.
+     * This check is lock-free and doesn't allocate memory, so it can be used to guard expensive logging code.
+     * @param level - The log level to be checked.
+     * @return Boolean indicating if messages with the given level are outputted.
+     * @see #setMinimumLevel(LogLevel)
+     */
+    public static boolean isEnabled(LogLevel level) {
+        return INST.logger.isEnabled(level);
+    }
+
+    /**
+     * Returns wether DEBUG messages are currently being outputted. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if DEBUG messages are outputted.
+     */
+    public static boolean isDebugEnabled() {
+        return INST.logger.isEnabled(LogLevel.DEBUG);
+    }
+
+    /**
+     * Returns wether INFO messages are currently being outputted. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if INFO messages are outputted.
+     */
+    public static boolean isInfoEnabled() {
+        return INST.logger.isEnabled(LogLevel.INFO);
+    }
+
+    /**
+     * Returns wether WARN messages are currently being outputted. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if WARN messages are outputted.
+     */
+    public static boolean isWarnEnabled() {
+        return INST.logger.isEnabled(LogLevel.WARN);
+    }
+
+    /**
+     * Returns wether ERROR messages are currently being outputted. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if ERROR messages are outputted.
+     */
+    public static boolean isErrorEnabled() {
+        return INST.logger.isEnabled(LogLevel.ERROR);
+    }
+
+    /**
+     * Logs a DEBUG message without parameters. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void debug(String message) {
+        if (INST.logger.isLoggable(LogLevel.DEBUG))
+            INST.logger.debug(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs a DEBUG message with 1 parameter for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1) {
+        if (INST.logger.isLoggable(LogLevel.DEBUG))
+            INST.logger.debug(message, param1);
+    }
+
+    /**
+     * Logs a DEBUG message with 2 parameters for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1, Object param2) {
+        if (INST.logger.isLoggable(LogLevel.DEBUG))
+            INST.logger.debug(message, param1, param2);
+    }
+
+    /**
+     * Logs a DEBUG message with 3 parameters for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1, Object param2, Object param3) {
+        if (INST.logger.isLoggable(LogLevel.DEBUG))
+            INST.logger.debug(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs a DEBUG message with 4 parameters for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1, Object param2, Object param3, Object param4) {
+        if (INST.logger.isLoggable(LogLevel.DEBUG))
+            INST.logger.debug(message, param1, param2, param3, param4);
+    }
+
+    /**
+     * Logs an INFO message without parameters. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void info(String message) {
+        if (INST.logger.isLoggable(LogLevel.INFO))
+            INST.logger.info(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs an INFO message with 1 parameter for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1) {
+        if (INST.logger.isLoggable(LogLevel.INFO))
+            INST.logger.info(message, param1);
+    }
+
+    /**
+     * Logs an INFO message with 2 parameters for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1, Object param2) {
+        if (INST.logger.isLoggable(LogLevel.INFO))
+            INST.logger.info(message, param1, param2);
+    }
+
+    /**
+     * Logs an INFO message with 3 parameters for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1, Object param2, Object param3) {
+        if (INST.logger.isLoggable(LogLevel.INFO))
+            INST.logger.info(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs an INFO message with 4 parameters for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1, Object param2, Object param3, Object param4) {
+        if (INST.logger.isLoggable(LogLevel.INFO))
+            INST.logger.info(message, param1, param2, param3, param4);
+    }
+
+    /**
+     * Logs a WARN message without parameters. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void warn(String message) {
+        if (INST.logger.isLoggable(LogLevel.WARN))
+            INST.logger.warn(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs a WARN message with 1 parameter for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1) {
+        if (INST.logger.isLoggable(LogLevel.WARN))
+            INST.logger.warn(message, param1);
+    }
+
+    /**
+     * Logs a WARN message with 2 parameters for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1, Object param2) {
+        if (INST.logger.isLoggable(LogLevel.WARN))
+            INST.logger.warn(message, param1, param2);
+    }
+
+    /**
+     * Logs a WARN message with 3 parameters for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1, Object param2, Object param3) {
+        if (INST.logger.isLoggable(LogLevel.WARN))
+            INST.logger.warn(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs a WARN message with 4 parameters for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1, Object param2, Object param3, Object param4) {
+        if (INST.logger.isLoggable(LogLevel.WARN))
+            INST.logger.warn(message, param1, param2, param3, param4);
+    }
+
+    /**
+     * Logs an ERROR message without parameters. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void error(String message) {
+        if (INST.logger.isLoggable(LogLevel.ERROR))
+            INST.logger.error(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs an ERROR message with 1 parameter for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1) {
+        if (INST.logger.isLoggable(LogLevel.ERROR))
+            INST.logger.error(message, param1);
+    }
+
+    /**
+     * Logs an ERROR message with 2 parameters for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1, Object param2) {
+        if (INST.logger.isLoggable(LogLevel.ERROR))
+            INST.logger.error(message, param1, param2);
+    }
+
+    /**
+     * Logs an ERROR message with 3 parameters for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1, Object param2, Object param3) {
+        if (INST.logger.isLoggable(LogLevel.ERROR))
+            INST.logger.error(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs an ERROR message with 4 parameters for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1, Object param2, Object param3, Object param4) {
+        if (INST.logger.isLoggable(LogLevel.ERROR))
+            INST.logger.error(message, param1, param2, param3, param4);
+    }
+
     /**
      * Logs a DEBUG message. It may use optional parameters for String formatting.
      * @param message - String with the text to be logged.
@@ -170,6 +575,90 @@ public class OLog {
         INST.logger.error(message, params);
     }
 
+    /**
+     * Logs a DEBUG message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void debug(Supplier<String> messageSupplier) {
+        INST.logger.debug(messageSupplier);
+    }
+
+    /**
+     * Logs an INFO message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void info(Supplier<String> messageSupplier) {
+        INST.logger.info(messageSupplier);
+    }
+
+    /**
+     * Logs a WARN message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void warn(Supplier<String> messageSupplier) {
+        INST.logger.warn(messageSupplier);
+    }
+
+    /**
+     * Logs an ERROR message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void error(Supplier<String> messageSupplier) {
+        INST.logger.error(messageSupplier);
+    }
+
+    /**
+     * Logs a DEBUG message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void debug(LogLimiter limiter, String message, Object... params) {
+        INST.logger.logMessage(limiter, LogLevel.DEBUG, message, params);
+    }
+
+    /**
+     * Logs an INFO message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void info(LogLimiter limiter, String message, Object... params) {
+        INST.logger.logMessage(limiter, LogLevel.INFO, message, params);
+    }
+
+    /**
+     * Logs a WARN message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void warn(LogLimiter limiter, String message, Object... params) {
+        INST.logger.logMessage(limiter, LogLevel.WARN, message, params);
+    }
+
+    /**
+     * Logs an ERROR message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void error(LogLimiter limiter, String message, Object... params) {
+        INST.logger.logMessage(limiter, LogLevel.ERROR, message, params);
+    }
+
     /**
      * Logs an ERROR message. It may use optional parameters for String formatting.
      * Additionally, it prints information about the given Throwable error/exception, including its stacktrace.
@@ -200,6 +689,7 @@ public class OLog {
      * Defines wether lower level messages should be preserved. By default this is FALSE.
      * When preserving discarded messages, messages with LogLevel lower than the minimum set will be stored in memory and can be retrieved later.
      * This may be useful for unexpected errors handling, when lower level messages can be outputted on demand by calling {@link #flushDiscardedMessages()}.
+     * Preserved messages are only formatted if they are flushed, so their parameters should not be mutated after being logged.
      * @param mustPreserveDiscardedMessages - Boolean indicating wether lower than minimum level messages should be preserved in memory.
      * @see #flushDiscardedMessages()
      */
@@ -207,11 +697,43 @@ public class OLog {
         INST.logger.preserveDiscardedMessages(mustPreserveDiscardedMessages);
     }
 
+    /**
+     * Preserves only the last discarded messages (flight recorder mode).
+     * Unlike {@link #preserveDiscardedMessages(boolean)}, memory is bounded: messages are kept in a ring allocated once, and each new message overwrites the oldest one.
+     * Messages are only formatted if they are flushed, so this is cheap enough to be kept on in production, providing lower level context when something fails.
+     * See {@link #flushDiscardedMessagesOnError(boolean)} to have them outputted automatically before errors.
+     * @param lastMessages - Maximum number of discarded messages to be preserved (must be positive).
+     * @throws IllegalArgumentException if the number of messages is not positive.
+     * @see #flushDiscardedMessages()
+     */
+    public static void preserveDiscardedMessages(int lastMessages) {
+        INST.logger.preserveDiscardedMessages(lastMessages);
+    }
+
+    /**
+     * Defines wether the preserved discarded messages must be flushed when an ERROR message is logged, right before it. This is FALSE by default.
+     * It only has effect while discarded messages are being preserved (see {@link #preserveDiscardedMessages(int)}).
+     * @param mustFlushOnError - Boolean indicating if discarded messages should be flushed before error messages.
+     */
+    public static void flushDiscardedMessagesOnError(boolean mustFlushOnError) {
+        INST.logger.flushDiscardedMessagesOnError = mustFlushOnError;
+    }
+
+    /**
+     * Returns wether the preserved discarded messages are flushed when an ERROR message is logged.
+     * @return Boolean indicating if discarded messages are flushed before error messages.
+     * @see #flushDiscardedMessagesOnError(boolean)
+     */
+    public static boolean flushDiscardedMessagesOnError() {
+        return INST.logger.flushDiscardedMessagesOnError;
+    }
+
     /**
      * Defines wether logged messages must be buffered instead of outputted immediately. This is FALSE by default.
      * Buffering messages can be useful for grouping them to be displayed together. It may also increase performance by reducing I/O operations.
      * When this method is called with value TRUE, logged messages will only be outputted when {@link #flushBufferedMessages()} is called.
      * WARNING: Buffered messages are expected to be manually flushed eventually. If that never happens, OLog tries to forcefully flush them all when the application is being shutdown. 
+     * Buffered messages are only formatted when flushed, so their parameters should not be mutated after being logged.
      * @param mustBuffer - Boolean indicating if messages should be buffered instead of outputted immediately.
      * @see #flushBufferedMessages()
      */
@@ -219,6 +741,162 @@ public class OLog {
         INST.logger.bufferMessages(mustBuffer);
     }
 
+    /**
+     * Starts buffering messages, keeping at most the given number of them in memory.
+     * When the buffer is full, the overflow policy defines if it's flushed early (FLUSH), if the oldest or the newest message is dropped (DROP_OLDEST / DROP_NEWEST),
+     * or if the logging thread waits until another thread flushes the buffer (BLOCK).
+     * Dropped messages are counted, see {@link #getDroppedMessages()}.
+     * For details about buffering messages, see {@link #bufferMessages(boolean)}.
+     * WARNING: With the BLOCK policy, the thread that flushes the buffer must never be the one logging into a full buffer, or it will wait forever.
+     * @param capacity - Maximum number of buffered messages (0 for unbounded).
+     * @param overflowPolicy - What to do with new messages when the buffer is full.
+     * @throws IllegalArgumentException if the capacity is negative or the policy is null.
+     * @see BufferOverflowPolicy
+     */
+    public static void bufferMessages(int capacity, BufferOverflowPolicy overflowPolicy) {
+        INST.logger.bufferMessages(capacity, overflowPolicy);
+    }
+
+    /**
+     * Returns the number of messages dropped because the message buffer was full.
+     * @return Number of dropped messages.
+     * @see #bufferMessages(int, BufferOverflowPolicy)
+     */
+    public static long getDroppedMessages() {
+        return INST.logger.getDroppedMessages();
+    }
+
+    /**
+     * Defines wether messages must be outputted asynchronously by a background thread. This is FALSE by default.
+     * When enabled, logging threads only hand each message to a bounded ring buffer (with default capacity and a BLOCKING wait strategy),
+     * while a single background thread does the formatting and outputting (stream, file, delegated loggers and custom handler).
+     * Pending messages are always drained before the application ends, or before buffered/discarded messages are flushed.
+     * WARNING: Message parameters are formatted later, on the background thread, so they should not be mutated after being logged.
+     * @param mustLogAsync - Boolean indicating if messages should be outputted asynchronously.
+     * @see #logAsync(int, WaitStrategy)
+     */
+    public static void logAsync(boolean mustLogAsync) {
+        if (mustLogAsync)
+            logAsync(AsyncDispatcher.DEFAULT_CAPACITY, WaitStrategy.BLOCKING);
+        else
+            INST.setAsyncDispatcher(null);
+    }
+
+    /**
+     * Enables asynchronous logging with the given ring buffer capacity and wait strategy.
+     * For details about asynchronous logging, see {@link #logAsync(boolean)}.
+     * @param capacity - Maximum number of pending messages (rounded up to a power of 2). When the ring is full, logging threads wait for free slots.
+     * @param waitStrategy - How logging and background threads wait on a full/empty ring.
+     * @see WaitStrategy
+     */
+    public static void logAsync(int capacity, WaitStrategy waitStrategy) {
+        INST.setAsyncDispatcher(new AsyncDispatcher(capacity, waitStrategy));
+    }
+
+    /**
+     * Returns wether messages are being outputted asynchronously by a background thread.
+     * @return Boolean indicating if asynchronous logging is enabled.
+     * @see #logAsync(boolean)
+     */
+    public static boolean logAsync() {
+        return INST.logger.asyncDispatcher != null;
+    }
+
+    /**
+     * Makes a delegated output (system logger, util logger or custom output handler) be delivered by its own bounded queue and worker thread.
+     * By default, sinks are called synchronously by the logging thread, so a slow one (e.g. a handler shipping messages over the network) delays every logging thread.
+     * With a queue, logging threads only enqueue the formatted message, and a slow sink degrades alone: when its queue is full,
+     * the overflow policy defines if messages to that sink are dropped (DROP_OLDEST/DROP_NEWEST) or if logging threads wait for it (BLOCK).
+     * Pending messages are delivered before the application ends. Each queue has its own metrics (see {@link #getSinkQueue(LogSink)}).
+     * WARNING: Sinks with a queue are called from its worker thread, so they must not rely on the logging thread (e.g. on ThreadLocals).
+     * @param sink - The sink to be decoupled.
+     * @param capacity - Maximum number of pending messages for the sink (0 makes the sink synchronous again).
+     * @param overflowPolicy - What happens when a message arrives while the queue is full (FLUSH is not supported).
+     * @see LogSink
+     */
+    public static void setSinkQueue(LogSink sink, int capacity, BufferOverflowPolicy overflowPolicy) {
+        INST.logger.setSinkQueue(sink, capacity, overflowPolicy);
+    }
+
+    /**
+     * Returns the queue of the sink, with its metrics (pending, delivered, dropped and failed messages, and delivery lag).
+     * @param sink - The sink.
+     * @return The sink's queue, or null if the sink is called synchronously.
+     * @see #setSinkQueue(LogSink, int, BufferOverflowPolicy)
+     */
+    public static SinkQueue getSinkQueue(LogSink sink) {
+        return INST.logger.sinkQueues.get(sink.ordinal());
+    }
+
+    /**
+     * Returns the metrics about the cost of logging: messages per level, dropped and discarded messages, bytes written, flushes,
+     * buffered and pending messages, and latency histograms for logging calls and file writes.
+     * Metrics are shared by all the loggers (OLog and every TLog thread), and are also available through JMX (see {@link LogMetricsMXBean}).
+     * @return The logging metrics.
+     */
+    public static LogMetrics getMetrics() {
+        return LogMetrics.INSTANCE;
+    }
+
+    /**
+     * Defines wether repeated messages must be coalesced. This is FALSE by default.
+     * When enabled, a message equal to the previous one (same level, same message and equal parameters, and for errors, the same exception
+     * class, message and stacktrace) is not outputted, only counted.
+     * The count is outputted in a single line ("Last message repeated N times") when a different message arrives, or after 1 second.
+     * This reduces I/O during floods (e.g. retry storms) without losing any information.
+     * @param mustCoalesce - Boolean indicating if repeated messages should be coalesced.
+     * @see #coalesceRepeatedMessages(Duration)
+     */
+    public static void coalesceRepeatedMessages(boolean mustCoalesce) {
+        INST.logger.coalesceRepeatedMessages(mustCoalesce ? BasicLogger.DEFAULT_COALESCING_DELAY_MILLIS : 0);
+    }
+
+    /**
+     * Enables coalescing of repeated messages, with the maximum time they're held back before their count is outputted.
+     * For details about coalescing, see {@link #coalesceRepeatedMessages(boolean)}.
+     * @param maxDelay - Maximum time a count of repetitions waits to be outputted (null or zero disables coalescing).
+     */
+    public static void coalesceRepeatedMessages(Duration maxDelay) {
+        INST.logger.coalesceRepeatedMessages(maxDelay == null ? 0 : maxDelay.toMillis());
+    }
+
+    /**
+     * Returns wether repeated messages are being coalesced.
+     * @return Boolean indicating if repeated messages are being coalesced.
+     * @see #coalesceRepeatedMessages(boolean)
+     */
+    public static boolean coalesceRepeatedMessages() {
+        return INST.logger.coalesceRepeatedMessages() > 0;
+    }
+
+    /**
+     * Defines wether identical stacktraces must be printed in full only once. This is FALSE by default.
+     * When enabled, the first stacktrace of a kind (same exception classes and frames, including causes) is printed tagged with a short ID
+     * ("STACKTRACE #id:"), and the following identical ones only print the summary of the exception and "STACKTRACE: same as #id".
+     * This saves CPU and I/O during error storms. The last 4096 different stacktraces are remembered.
+     * WARNING: If the log file is rolled, the full stacktrace may end up in an archived file.
+     * @param mustDeduplicate - Boolean indicating if identical stacktraces should be printed only once.
+     */
+    public static void deduplicateStackTraces(boolean mustDeduplicate) {
+        INST.logger.deduplicateStackTraces(mustDeduplicate);
+    }
+
+    /**
+     * Returns wether identical stacktraces are being printed only once.
+     * @return Boolean indicating if identical stacktraces are being deduplicated.
+     * @see #deduplicateStackTraces(boolean)
+     */
+    public static boolean deduplicateStackTraces() {
+        return INST.logger.deduplicateStackTraces();
+    }
+
+    private synchronized void setAsyncDispatcher(AsyncDispatcher asyncDispatcher) {
+        AsyncDispatcher previous = logger.asyncDispatcher;
+        logger.asyncDispatcher = asyncDispatcher;
+        if (previous != null)
+            previous.shutdown();
+    }
+
     /**
      * Returns wether discarded (lower than minimum level) messages are being preserved in memory.
      * @return Boolean indicating if discarded messages are being preserved.
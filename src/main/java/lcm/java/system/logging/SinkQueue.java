@@ -0,0 +1,267 @@
+package lcm.java.system.logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue with its own worker thread, which delivers messages to a single sink (see {@link LogSink}).
+ * Logging threads only enqueue the formatted message, so a slow sink (e.g. a handler shipping messages over the network)
+ * degrades alone, instead of delaying the logging threads and the other outputs.
+ * When the queue is full, the overflow policy defines if the message is dropped (DROP_OLDEST/DROP_NEWEST) or if the logging thread waits (BLOCK).
+ * Messages are offered while holding the logger's lock, so BLOCK never waits there: a message that finds the queue full is deferred,
+ * and the logging thread waits for room in {@link #awaitDeferred()}, after releasing the lock. This way, a slow sink blocks the threads
+ * logging to it, but never the logger's lock (which would also block the file, the other outputs and the asynchronous logging thread).
+ *
+ * Each queue keeps its own metrics: pending, delivered, dropped and failed messages, and the lag between enqueuing and delivering.
+ */
+public final class SinkQueue {
+
+    private static class Entry {
+        final Object target;
+        final LogLevel level;
+        final String text;
+        final long enqueuedNanos;
+
+        Entry(Object target, LogLevel level, String text) {
+            this.target = target;
+            this.level = level;
+            this.text = text;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+
+    private final LogSink sink;
+    private final BufferOverflowPolicy overflowPolicy;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final Thread worker;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong(); // Delivered, failed or dropped after being accepted.
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private volatile boolean running = true;
+    private final AtomicInteger offering = new AtomicInteger(); // Threads inside offer, which shutdown waits for.
+    // Messages deferred by the BLOCK policy while the queue was full. They're only moved into the queue (or delivered) while holding moveLock.
+    private final ConcurrentLinkedQueue<Entry> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final ReentrantLock moveLock = new ReentrantLock();
+    private volatile long movedCount;
+    private boolean stopped; // Guarded by moveLock. Set when the worker has stopped, and what was left was delivered.
+
+    SinkQueue(LogSink sink, int capacity, BufferOverflowPolicy overflowPolicy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity for a sink queue must be positive: " + capacity);
+        if (overflowPolicy == null || overflowPolicy == BufferOverflowPolicy.FLUSH)
+            throw new IllegalArgumentException("Invalid overflow policy for a sink queue: " + overflowPolicy);
+        this.sink = sink;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = LogScheduler.daemon(this::work, "lcm-log-sink-" + sink.name().toLowerCase());
+        this.worker.start();
+    }
+
+    public LogSink getSink() {
+        return sink;
+    }
+
+    public BufferOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     * Returns the number of messages waiting to be delivered.
+     */
+    public long getPendingMessages() {
+        return queue.size();
+    }
+
+    public long getDeliveredMessages() {
+        return delivered.sum();
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full (DROP_OLDEST/DROP_NEWEST policies).
+     */
+    public long getDroppedMessages() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of messages whose delivery threw an exception (which is ignored, so the worker keeps delivering the next ones).
+     */
+    public long getFailedMessages() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the median time messages waited in the queue before being delivered, in nanoseconds (power of 2 upper bound).
+     */
+    public long getLagP50Nanos() {
+        return lag.percentile(0.5);
+    }
+
+    /**
+     * Returns the 99th percentile of the time messages waited in the queue before being delivered, in nanoseconds (power of 2 upper bound).
+     */
+    public long getLagP99Nanos() {
+        return lag.percentile(0.99);
+    }
+
+    /**
+     * Enqueues the message to be delivered to the target by the worker thread, applying the overflow policy if the queue is full.
+     * It never waits, since the caller holds the logger's lock: with the BLOCK policy, the message is deferred, and the caller
+     * must call {@link #awaitDeferred()} after releasing the lock.
+     * @return False if the queue was already shut down, so the caller must deliver the message itself.
+     */
+    boolean offer(Object target, LogLevel level, String text) {
+        offering.incrementAndGet(); // Before checking running, so shutdown waits for this message to be enqueued.
+        try {
+            if (!running)
+                return false;
+            Entry entry = new Entry(target, level, text);
+            accepted.incrementAndGet();
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    if (!queue.offer(entry))
+                        drop();
+                    break;
+                case DROP_OLDEST:
+                    while (!queue.offer(entry))
+                        if (queue.poll() != null)
+                            drop();
+                    break;
+                default: // BLOCK
+                    if (!deferred.isEmpty() || !queue.offer(entry)) { // Behind the ones already deferred, to keep the order.
+                        deferred.add(entry);
+                        deferredCount.incrementAndGet();
+                    }
+            }
+            return true;
+        } finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until the messages deferred so far (BLOCK policy) are moved into the queue, as room is made by the worker.
+     * Must be called without holding a logger's lock. Returns right away if nothing is deferred.
+     */
+    void awaitDeferred() {
+        long target = deferredCount.get();
+        if (movedCount >= target)
+            return;
+        moveLock.lock();
+        try {
+            Entry entry;
+            while (movedCount < target && !stopped && (entry = deferred.peek()) != null) {
+                queue.put(entry);
+                deferred.poll();
+                movedCount++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // The messages stay deferred, and are moved by the worker.
+        } finally {
+            moveLock.unlock();
+        }
+    }
+
+    /**
+     * Moves deferred messages into the queue while it has room, unless a logging thread is already moving them.
+     */
+    private void moveDeferred() {
+        if (deferred.isEmpty() || !moveLock.tryLock())
+            return;
+        try {
+            Entry entry;
+            while (!stopped && (entry = deferred.peek()) != null && queue.offer(entry)) {
+                deferred.poll();
+                movedCount++;
+            }
+        } finally {
+            moveLock.unlock();
+        }
+    }
+
+    private void drop() {
+        dropped.increment();
+        completed.incrementAndGet();
+    }
+
+    /**
+     * Blocks the caller until every message accepted before this call has been delivered (or dropped).
+     */
+    void drain() {
+        if (Thread.currentThread() == worker)
+            return;
+        long target = accepted.get();
+        while (completed.get() < target && worker.isAlive())
+            LockSupport.parkNanos(100_000);
+    }
+
+    /**
+     * Delivers the pending messages and stops the worker thread. Later offers are refused, so their callers deliver the messages themselves.
+     * Offers already in progress complete first, and anything the worker left behind is delivered by the calling thread, so nothing is stranded.
+     */
+    void shutdown() {
+        running = false;
+        while (offering.get() > 0)
+            Thread.onSpinWait();
+        drain();
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        moveLock.lock();
+        try {
+            stopped = true;
+            Entry entry;
+            while ((entry = queue.poll()) != null)
+                deliver(entry);
+            while ((entry = deferred.poll()) != null) {
+                movedCount++;
+                deliver(entry);
+            }
+        } finally {
+            moveLock.unlock();
+        }
+    }
+
+    private void work() {
+        while (running || !queue.isEmpty() || !deferred.isEmpty()) {
+            moveDeferred();
+            Entry entry;
+            try {
+                // While messages are deferred, the worker wakes up now and then to move them, in case no logging thread is waiting for them.
+                entry = deferred.isEmpty() ? queue.take() : queue.poll(1, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (entry != null)
+                deliver(entry);
+        }
+    }
+
+    private void deliver(Entry entry) {
+        lag.record(System.nanoTime() - entry.enqueuedNanos);
+        try {
+            sink.deliver(entry.target, entry.level, entry.text);
+            delivered.increment();
+        } catch (Throwable t) {
+            failed.increment(); // The worker must survive any failure from the sink.
+        }
+        completed.incrementAndGet();
+    }
+}
@@ -1,9 +1,16 @@
 package lcm.java.system.logging;
 
 import java.io.PrintStream;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * Thread based logger for handling log messages.
@@ -13,6 +20,8 @@ import java.util.function.BiConsumer;
  * Messages in the same Thread can share properties and logging options, and may even be grouped to be displayed together.
  * Since each Thread is mapped to a single instance of TLog, the instance doesn't need to be directly referenced outside.
  * Instead, its methods can be accessed statically, and the current thread will define which TLog instance will be used.
+ * A thread only gets an instance of its own when it changes any setting: until then, it logs through an instance shared with the Global defaults.
+ * Threads working for a same request may also share an explicit {@link LogContext} (see {@link #newContext()}), instead of having an instance each.
  * 
  * WARNING: While using TLog, it's always advisable to call {@link #clean()} in a finally block at the end of each thread.
  * This can be easily done in servers, with a single line at the most abstract class which is executed for every request.
@@ -27,36 +36,276 @@ public class TLog {
     private static DateTimeFormatter globalDefaultDateTimeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static int globalDefaultMaxMessageLength = 0;
     private static int globalDefaultMaxLineLength = 0;
+    private static LogFormat globalDefaultLogFormat = LogFormat.TEXT;
     private static PrintStream globalDefaultPrintStream = null;
     private static String globalDefaultFilePath = null;
+    private static FileOptions globalDefaultFileOptions = FileOptions.DEFAULT;
     private static java.lang.System.Logger globalDefaultSystemLogger = null;
     private static java.util.logging.Logger globalDefaultUtilLogger = null;
     private static BiConsumer<LogLevel, String> globalDefaultCustomOutputHandler = null;
+    private static BatchOutputHandler globalDefaultBatchOutputHandler = null;
+    private static LogTail globalDefaultLogTail = null;
+    private static boolean globalDefaultLogAsync = false;
+    private static int globalDefaultPreservedDiscardedMessages = 0;
+    private static boolean globalDefaultFlushDiscardedMessagesOnError = false;
+    private static long globalDefaultCoalescingDelayMillis = 0;
+    private static boolean globalDefaultDeduplicateStackTraces = false;
+    private static final ThrowableRenderer DEDUPLICATING_RENDERER = new ThrowableRenderer(true);
+    private static int asyncCapacity = AsyncDispatcher.DEFAULT_CAPACITY;
+    private static WaitStrategy asyncWaitStrategy = WaitStrategy.BLOCKING;
+    private static AsyncDispatcher asyncDispatcher = null;
+    private static final AtomicReferenceArray<SinkQueue> sinkQueues = new AtomicReferenceArray<>(LogSink.values().length);
     private static final String UNFLUSHED_MESSAGES_WARNING = "THERE WERE BUFFERED MESSAGES IN TLOG THAT WEREN'T FLUSHED BEFORE THREAD END. FLUSHING NOW...";
 
-    private static ThreadLocal<BasicLogger> threadLocal = new ThreadLocal<>() {
-        @Override
-        protected BasicLogger initialValue() {
-            return createLogger();
-        }
-        @Override
-        public void remove() {
-            super.get().finishInstance();
-            super.remove();
-        }
-    };
+    // A thread only gets its own logger (or a bound LogContext's) when it changes settings. Until then, it logs through the shared loggers,
+    // and the ThreadLocal isn't even read while no thread has a logger of its own, so plain logging threads allocate nothing.
+    // The shared loggers are striped by thread id (a thread always uses the same one, keeping its messages in order),
+    // so logging threads don't all wait on a single logger's lock, and their file writes can be group-committed by the file appender.
+    private static final ThreadLocal<BasicLogger> threadLocal = new ThreadLocal<>();
+    private static final AtomicInteger threadsWithLogger = new AtomicInteger();
+    private static final int SHARED_LOGGER_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    private static volatile BasicLogger[] sharedLoggers = null; // Null while the shared loggers can't be used.
+    private static BasicLogger[] latestSharedLoggers = null; // Guarded by the class lock.
+
+    static {
+        LogScheduler.onShutdown(LogScheduler.ShutdownPhase.LOGGERS, () -> {
+            AsyncDispatcher dispatcher = asyncDispatcher;
+            if (dispatcher != null)
+                dispatcher.drain();
+        });
+        LogScheduler.onShutdown(LogScheduler.ShutdownPhase.SINK_QUEUES, () -> {
+            for (int i = 0; i < sinkQueues.length(); i++) {
+                SinkQueue queue = sinkQueues.get(i);
+                if (queue != null)
+                    queue.drain();
+            }
+        });
+    }
 
     /**
      * Cleans TLog's data for the current thread, while also checking for possible unbuffered messages.
      * This is advised to be called inside a finally block, at the end of the thread's processing.
-     * Besides freeing memory, any forgotten unbuffered message will be flushed with a warning.
+     * Besides freeing memory, any forgotten unbuffered message will be flushed with a warning, and the diagnostic context is cleared.
      */
     public static void clean() {
-        threadLocal.remove();
+        DiagnosticContext.setCurrent(null);
+        BasicLogger logger = getThreadLogger();
+        if (logger == null)
+            return;
+        setThreadLogger(null);
+        logger.finishInstance();
+        if (!logger.ownedByContext)
+            logger.closeFile();
+    }
+
+    /**
+     * Creates a new logging context, configured with the Global defaults, which can be carried explicitly (e.g. by a request) instead of belonging to a thread.
+     * While a task runs in the context (see {@link #runInContext(LogContext, Runnable)}), every TLog method applies to the context:
+     * settings, buffered and discarded messages are kept by the context, and are seen by any thread running in it later.
+     * This avoids creating a logger per thread when there are many short-lived threads (e.g. virtual threads) working for a same request.
+     * WARNING: The context should be closed when it's not needed anymore, to flush its remaining messages and release its file.
+     * @return A new LogContext.
+     * @see LogContext
+     */
+    public static LogContext newContext() {
+        BasicLogger logger = createLogger();
+        logger.ownedByContext = true;
+        return new LogContext(logger);
+    }
+
+    /**
+     * Runs the task on the current thread, with every TLog method applying to the given context instead of the thread's own settings.
+     * The thread's previous settings (if any) are restored when the task ends. Contexts may be nested.
+     * Calling {@link #clean()} inside the task flushes the context's messages and leaves it, but doesn't close it.
+     * @param context - The context in which the task must run.
+     * @param task - The task to be run.
+     * @see #newContext()
+     */
+    public static void runInContext(LogContext context, Runnable task) {
+        BasicLogger previous = getThreadLogger();
+        setThreadLogger(context.logger);
+        try {
+            task.run();
+        } finally {
+            setThreadLogger(previous);
+        }
+    }
+
+    /**
+     * Calls the task on the current thread, with every TLog method applying to the given context instead of the thread's own settings.
+     * For details, see {@link #runInContext(LogContext, Runnable)}.
+     * @param context - The context in which the task must run.
+     * @param task - The task to be called.
+     * @return The value returned by the task.
+     * @throws Exception - Any exception thrown by the task.
+     */
+    public static <T> T callInContext(LogContext context, Callable<T> task) throws Exception {
+        BasicLogger previous = getThreadLogger();
+        setThreadLogger(context.logger);
+        try {
+            return task.call();
+        } finally {
+            setThreadLogger(previous);
+        }
+    }
+
+    /**
+     * Puts a key-value on the diagnostic context (MDC) of the current thread, which is appended to every message logged by the thread
+     * (as "key=value" in the TEXT format, or as a field in the JSON format), such as a request or user id.
+     * The context is carried to other threads by {@link #wrap(Executor)} and the other wrap methods, and is cleared by {@link #clean()}.
+     * Changes are copy-on-write, so capturing the context (see {@link #getDiagnosticContext()}) costs only a reference copy.
+     * @param key - Name of the value.
+     * @param value - The value (may be null).
+     */
+    public static void putDiagnostic(String key, Object value) {
+        DiagnosticContext.setCurrent(DiagnosticContext.current().with(key, value));
+    }
+
+    /**
+     * Removes a key-value from the diagnostic context (MDC) of the current thread.
+     * @param key - Name of the value to be removed.
+     * @see #putDiagnostic(String, Object)
+     */
+    public static void removeDiagnostic(String key) {
+        DiagnosticContext.setCurrent(DiagnosticContext.current().without(key));
+    }
+
+    /**
+     * Returns a snapshot of the diagnostic context (MDC) of the current thread, which isn't affected by later changes.
+     * @return The current diagnostic context (never null).
+     * @see #putDiagnostic(String, Object)
+     */
+    public static DiagnosticContext getDiagnosticContext() {
+        return DiagnosticContext.current();
+    }
+
+    /**
+     * Replaces the diagnostic context (MDC) of the current thread, e.g. with a snapshot taken by another thread.
+     * @param diagnosticContext - The new diagnostic context (null clears it).
+     * @see #getDiagnosticContext()
+     */
+    public static void setDiagnosticContext(DiagnosticContext diagnosticContext) {
+        DiagnosticContext.setCurrent(diagnosticContext);
+    }
+
+    /**
+     * Wraps the task, so it runs with the current thread's diagnostic context (captured now), whichever thread runs it.
+     * The running thread's own diagnostic context is restored when the task ends.
+     * @param task - The task to be wrapped.
+     * @return The wrapped task.
+     * @see #putDiagnostic(String, Object)
+     */
+    public static Runnable wrap(Runnable task) {
+        return DiagnosticContext.wrap(DiagnosticContext.current(), task);
+    }
+
+    /**
+     * Wraps the task, so it runs with the current thread's diagnostic context (captured now), whichever thread runs it.
+     * The running thread's own diagnostic context is restored when the task ends.
+     * @param task - The task to be wrapped.
+     * @return The wrapped task.
+     * @see #putDiagnostic(String, Object)
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        return DiagnosticContext.wrap(DiagnosticContext.current(), task);
     }
 
+    /**
+     * Wraps the executor, so each task runs with the diagnostic context of the thread that submitted it.
+     * @param executor - The executor to be wrapped.
+     * @return The wrapped executor.
+     * @see #putDiagnostic(String, Object)
+     */
+    public static Executor wrap(Executor executor) {
+        return new DiagnosticContext.ContextExecutor(executor);
+    }
+
+    /**
+     * Wraps the executor service, so each task (from execute, submit, invokeAll or invokeAny) runs with the diagnostic context
+     * of the thread that submitted it. Shutting down the wrapper shuts down the wrapped executor service.
+     * @param executorService - The executor service to be wrapped.
+     * @return The wrapped executor service.
+     * @see #putDiagnostic(String, Object)
+     */
+    public static ExecutorService wrap(ExecutorService executorService) {
+        return new DiagnosticContext.ContextExecutorService(executorService);
+    }
+
+    /**
+     * Returns the logger the current thread must change settings on, creating it if the thread still logs through the shared logger.
+     */
     private static BasicLogger getInstance() {
-        return threadLocal.get();
+        BasicLogger logger = getThreadLogger();
+        if (logger == null) {
+            logger = createLogger();
+            setThreadLogger(logger);
+        }
+        return logger;
+    }
+
+    /**
+     * Returns the logger the current thread must log on: its own (or its context's) if it has one, otherwise its stripe of the shared loggers.
+     */
+    private static BasicLogger currentLogger() {
+        BasicLogger logger = getThreadLogger();
+        if (logger != null)
+            return logger;
+        BasicLogger[] loggers = sharedLoggers;
+        if (loggers == null)
+            return getSharedLogger();
+        return loggers[(int) Thread.currentThread().getId() & (loggers.length - 1)];
+    }
+
+    private static BasicLogger getThreadLogger() {
+        return threadsWithLogger.get() == 0 ? null : threadLocal.get();
+    }
+
+    private static void setThreadLogger(BasicLogger logger) {
+        BasicLogger previous = getThreadLogger();
+        if (logger != null) {
+            threadLocal.set(logger);
+            if (previous == null)
+                threadsWithLogger.incrementAndGet();
+        } else if (previous != null) {
+            threadLocal.remove();
+            threadsWithLogger.decrementAndGet();
+        }
+    }
+
+    private static synchronized BasicLogger getSharedLogger() {
+        // Discarded messages and repetitions are state of a single thread, so they can't be kept by a shared logger.
+        if (!canShareLoggers())
+            return getInstance();
+        if (latestSharedLoggers == null)
+            latestSharedLoggers = createSharedLoggers();
+        sharedLoggers = latestSharedLoggers;
+        return currentLogger();
+    }
+
+    private static boolean canShareLoggers() {
+        return globalDefaultPreservedDiscardedMessages <= 0 && globalDefaultCoalescingDelayMillis <= 0;
+    }
+
+    private static BasicLogger[] createSharedLoggers() {
+        BasicLogger[] loggers = new BasicLogger[SHARED_LOGGER_STRIPES];
+        for (int i = 0; i < loggers.length; i++)
+            loggers[i] = createLogger();
+        return loggers;
+    }
+
+    /**
+     * Replaces the shared loggers after a Global default changes, so they log with the new defaults.
+     * The new loggers are published at once, and each previous one is retired into its successor, since threads may still be logging on it.
+     */
+    private static synchronized void resetSharedLogger() {
+        BasicLogger[] previous = latestSharedLoggers;
+        if (previous == null)
+            return;
+        BasicLogger[] next = createSharedLoggers();
+        latestSharedLoggers = next;
+        sharedLoggers = canShareLoggers() ? next : null; // Otherwise, they're only kept as successors, until sharing is possible again.
+        for (int i = 0; i < previous.length; i++)
+            previous[i].retire(next[i]);
     }
 
     /**
@@ -68,6 +317,7 @@ public class TLog {
      */
     public static void setGlobalDefaultMinimumLevel(LogLevel globalDefaultMinimumLevel) {
         TLog.globalDefaultMinimumLevel = globalDefaultMinimumLevel;
+        resetSharedLogger();
     }
 
     /**
@@ -78,6 +328,7 @@ public class TLog {
      */
     public static void setGlobalDefaultCustomHeader(String globalDefaultCustomHeader) {
         TLog.globalDefaultCustomHeader = globalDefaultCustomHeader;
+        resetSharedLogger();
     }
 
     /**
@@ -89,6 +340,7 @@ public class TLog {
      */
     public static void setGlobalDefaultDateTimeFormat(DateTimeFormatter globalDefaultDateTimeFormat) {
         TLog.globalDefaultDateTimeFormat = globalDefaultDateTimeFormat;
+        resetSharedLogger();
     }
 
     /**
@@ -99,6 +351,7 @@ public class TLog {
      */
     public static void setGlobalDefaultMaxMessageLength(int globalDefaultMaxMessageLength) {
         TLog.globalDefaultMaxMessageLength = globalDefaultMaxMessageLength;
+        resetSharedLogger();
     }
 
     /**
@@ -109,6 +362,18 @@ public class TLog {
      */
     public static void setGlobalDefaultMaxLineLength(int globalDefaultMaxLineLength) {
         TLog.globalDefaultMaxLineLength = globalDefaultMaxLineLength;
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for the format of the log lines.
+     * For details about it and how to change it per thread, see {@link #setLogFormat(LogFormat)}.
+     * @param globalDefaultLogFormat - Global default format of the log lines.
+     * @see #setLogFormat(LogFormat)
+     */
+    public static void setGlobalDefaultLogFormat(LogFormat globalDefaultLogFormat) {
+        TLog.globalDefaultLogFormat = globalDefaultLogFormat == null ? LogFormat.TEXT : globalDefaultLogFormat;
+        resetSharedLogger();
     }
 
     /**
@@ -119,6 +384,7 @@ public class TLog {
      */
     public static void setGlobalDefaultPrintStream(PrintStream globalDefaultPrintStream) {
         TLog.globalDefaultPrintStream = globalDefaultPrintStream;
+        resetSharedLogger();
     }
 
     /**
@@ -129,6 +395,56 @@ public class TLog {
      */
     public static void setGlobalDefaultFilePath(String globalDefaultFilePath) {
         TLog.globalDefaultFilePath = globalDefaultFilePath;
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for buffering writes to the log file.
+     * For details about it and how to change it per thread, see {@link #setFileBuffering(int, long)}.
+     * @param globalDefaultFileBufferSize - Global default number of bytes to be accumulated before writing to the file (0 disables buffering).
+     * @param globalDefaultFileFlushInterval - Global default maximum time (in milliseconds) for a message to stay in the buffer (0 disables time-based writes).
+     * @see #setFileBuffering(int, long)
+     */
+    public static void setGlobalDefaultFileBuffering(int globalDefaultFileBufferSize, long globalDefaultFileFlushInterval) {
+        TLog.globalDefaultFileOptions = globalDefaultFileOptions.withBuffering(globalDefaultFileBufferSize, globalDefaultFileFlushInterval);
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for rolling the log file to archives.
+     * For details about it and how to change it per thread, see {@link #setFileRolling(long, Duration, int)}.
+     * @param globalDefaultMaxFileSize - Global default size (in bytes) that makes the file roll (0 disables size-based rolling).
+     * @param globalDefaultRollingPeriod - Global default time after which the file rolls (null disables time-based rolling).
+     * @param globalDefaultMaxArchives - Global default number of archives to be kept (0 keeps all of them).
+     * @see #setFileRolling(long, Duration, int)
+     */
+    public static void setGlobalDefaultFileRolling(long globalDefaultMaxFileSize, Duration globalDefaultRollingPeriod, int globalDefaultMaxArchives) {
+        TLog.globalDefaultFileOptions = globalDefaultFileOptions.withRolling(globalDefaultMaxFileSize,
+            globalDefaultRollingPeriod != null ? globalDefaultRollingPeriod.toMillis() : 0, globalDefaultMaxArchives);
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for compressing the log file.
+     * For details about it and how to change it per thread, see {@link #setFileCompression(int, long)}.
+     * @param globalDefaultCompressionLevel - Global default deflate level, from 1 (fastest) to 9 (smallest), or 0 to write files uncompressed.
+     * @param globalDefaultSyncFlushInterval - Global default maximum time (in milliseconds) for written content to become readable.
+     * @see #setFileCompression(int, long)
+     */
+    public static void setGlobalDefaultFileCompression(int globalDefaultCompressionLevel, long globalDefaultSyncFlushInterval) {
+        TLog.globalDefaultFileOptions = globalDefaultFileOptions.withCompression(globalDefaultCompressionLevel, globalDefaultSyncFlushInterval);
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for indexing the log file.
+     * For details about it and how to change it per thread, see {@link #setFileIndex(Duration)}.
+     * @param globalDefaultBucket - Global default time covered by each index entry (null to disable the index).
+     * @see #setFileIndex(Duration)
+     */
+    public static void setGlobalDefaultFileIndex(Duration globalDefaultBucket) {
+        TLog.globalDefaultFileOptions = globalDefaultFileOptions.withIndex(globalDefaultBucket != null ? globalDefaultBucket.toMillis() : 0);
+        resetSharedLogger();
     }
 
     /**
@@ -140,6 +456,7 @@ public class TLog {
      */
     public static void setGlobalDefaultSystemLogger(java.lang.System.Logger globalDefaultSystemLogger) {
         TLog.globalDefaultSystemLogger = globalDefaultSystemLogger;
+        resetSharedLogger();
     }
 
     /**
@@ -151,6 +468,7 @@ public class TLog {
      */
     public static void setGlobalDefaultUtilLogger(java.util.logging.Logger globalDefaultUtilLogger) {
         TLog.globalDefaultUtilLogger = globalDefaultUtilLogger;
+        resetSharedLogger();
     }
 
     /**
@@ -162,6 +480,140 @@ public class TLog {
      */
     public static void setGlobalDefaultCustomOutputHandler(BiConsumer<LogLevel, String> globalDefaultCustomOutputHandler) {
         TLog.globalDefaultCustomOutputHandler = globalDefaultCustomOutputHandler;
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default batch output handler to be used when outputting messages.
+     * For details about it and how to change it per thread, see {@link #setBatchOutputHandler(BatchOutputHandler)}.
+     * @param globalDefaultBatchOutputHandler - A handler that will receive the levels and texts of the messages being outputted.
+     * @see #setBatchOutputHandler(BatchOutputHandler)
+     */
+    public static void setGlobalDefaultBatchOutputHandler(BatchOutputHandler globalDefaultBatchOutputHandler) {
+        TLog.globalDefaultBatchOutputHandler = globalDefaultBatchOutputHandler;
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default in-memory tail to keep the most recent messages.
+     * For details about it and how to change it per thread, see {@link #setLogTail(LogTail)}.
+     * @param globalDefaultLogTail - The tail to keep the messages of every thread (null disables it).
+     * @see #setLogTail(LogTail)
+     */
+    public static void setGlobalDefaultLogTail(LogTail globalDefaultLogTail) {
+        TLog.globalDefaultLogTail = globalDefaultLogTail;
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for asynchronous logging.
+     * For details about it and how to change it per thread, see {@link #logAsync(boolean)}.
+     * @param globalDefaultLogAsync - Global default indicating if messages should be outputted asynchronously.
+     * @see #logAsync(boolean)
+     */
+    public static void setGlobalDefaultLogAsync(boolean globalDefaultLogAsync) {
+        TLog.globalDefaultLogAsync = globalDefaultLogAsync;
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for preserving the last discarded messages of each thread (flight recorder mode).
+     * For details about it and how to change it per thread, see {@link #preserveDiscardedMessages(int)}.
+     * @param globalDefaultLastMessages - Global default number of discarded messages to be preserved by each thread (0 preserves none).
+     * @see #preserveDiscardedMessages(int)
+     */
+    public static void setGlobalDefaultPreserveDiscardedMessages(int globalDefaultLastMessages) {
+        TLog.globalDefaultPreservedDiscardedMessages = Math.max(globalDefaultLastMessages, 0);
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for flushing the preserved discarded messages when an error is logged.
+     * For details about it and how to change it per thread, see {@link #flushDiscardedMessagesOnError(boolean)}.
+     * @param globalDefaultFlushOnError - Global default indicating if discarded messages should be flushed before error messages.
+     * @see #flushDiscardedMessagesOnError(boolean)
+     */
+    public static void setGlobalDefaultFlushDiscardedMessagesOnError(boolean globalDefaultFlushOnError) {
+        TLog.globalDefaultFlushDiscardedMessagesOnError = globalDefaultFlushOnError;
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for coalescing repeated messages.
+     * For details about it and how to change it per thread, see {@link #coalesceRepeatedMessages(Duration)}.
+     * @param globalDefaultMaxDelay - Global default maximum time a count of repetitions waits to be outputted (null or zero disables coalescing).
+     * @see #coalesceRepeatedMessages(Duration)
+     */
+    public static void setGlobalDefaultCoalesceRepeatedMessages(Duration globalDefaultMaxDelay) {
+        TLog.globalDefaultCoalescingDelayMillis = globalDefaultMaxDelay == null ? 0 : Math.max(globalDefaultMaxDelay.toMillis(), 0);
+        resetSharedLogger();
+    }
+
+    /**
+     * Global default configuration for printing identical stacktraces only once.
+     * For details about it and how to change it per thread, see {@link #deduplicateStackTraces(boolean)}.
+     * @param globalDefaultDeduplicate - Global default indicating if identical stacktraces should be printed only once.
+     * @see #deduplicateStackTraces(boolean)
+     */
+    public static void setGlobalDefaultDeduplicateStackTraces(boolean globalDefaultDeduplicate) {
+        TLog.globalDefaultDeduplicateStackTraces = globalDefaultDeduplicate;
+        resetSharedLogger();
+    }
+
+    /**
+     * Defines the capacity and wait strategy of the ring buffer shared by all threads logging asynchronously.
+     * By default, the capacity is 8192 and the wait strategy is BLOCKING.
+     * The previous ring buffer is stopped in the background, after emitting every message already handed to it.
+     * Threads using the Global default settings switch to the new ring buffer. Threads with their own settings, that were already logging asynchronously,
+     * log synchronously after the previous ring buffer stops, until they call {@link #logAsync(boolean)} again.
+     * @param capacity - Maximum number of pending messages (rounded up to a power of 2). When the ring is full, logging threads wait for free slots.
+     * @param waitStrategy - How logging and background threads wait on a full/empty ring.
+     * @see WaitStrategy
+     * @see #logAsync(boolean)
+     */
+    public static synchronized void setAsyncSettings(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity for asynchronous logging must be positive: " + capacity);
+        TLog.asyncCapacity = capacity;
+        TLog.asyncWaitStrategy = waitStrategy;
+        AsyncDispatcher previous = asyncDispatcher;
+        asyncDispatcher = null;
+        if (previous != null)
+            LogScheduler.daemon(previous::shutdown, "lcm-async-logger-shutdown").start(); // Draining may take long, so it's not done by the caller.
+        resetSharedLogger();
+    }
+
+    /**
+     * Makes a delegated output (system logger, util logger or custom output handler) be delivered by its own bounded queue and worker thread, shared by all threads.
+     * By default, sinks are called synchronously by the logging thread, so a slow one (e.g. a handler shipping messages over the network) delays every logging thread.
+     * With a queue, logging threads only enqueue the formatted message, and a slow sink degrades alone: when its queue is full,
+     * the overflow policy defines if messages to that sink are dropped (DROP_OLDEST/DROP_NEWEST) or if logging threads wait for it (BLOCK).
+     * Each thread's messages still go to the sink defined for that thread. Pending messages are delivered before the application ends.
+     * WARNING: Sinks with a queue are called from its worker thread, so they must not rely on the logging thread (e.g. on ThreadLocals).
+     * @param sink - The sink to be decoupled.
+     * @param capacity - Maximum number of pending messages for the sink (0 makes the sink synchronous again).
+     * @param overflowPolicy - What happens when a message arrives while the queue is full (FLUSH is not supported).
+     * @see LogSink
+     * @see #getSinkQueue(LogSink)
+     */
+    public static void setSinkQueue(LogSink sink, int capacity, BufferOverflowPolicy overflowPolicy) {
+        BasicLogger.setSinkQueue(sinkQueues, sink, capacity, overflowPolicy);
+    }
+
+    /**
+     * Returns the queue of the sink, with its metrics (pending, delivered, dropped and failed messages, and delivery lag).
+     * @param sink - The sink.
+     * @return The sink's queue, or null if the sink is called synchronously.
+     * @see #setSinkQueue(LogSink, int, BufferOverflowPolicy)
+     */
+    public static SinkQueue getSinkQueue(LogSink sink) {
+        return sinkQueues.get(sink.ordinal());
+    }
+
+    private static synchronized AsyncDispatcher getAsyncDispatcher() {
+        if (asyncDispatcher == null)
+            asyncDispatcher = new AsyncDispatcher(asyncCapacity, asyncWaitStrategy);
+        return asyncDispatcher;
     }
 
     /**
@@ -198,6 +650,8 @@ public class TLog {
      * Defines a maximum length to be logged for each message on the current thread.
      * By default, no limit is set if no Global was defined with {@link #setGlobalDefaultMaxMessageLength(int)}.
      * When a message surpasses this limit, it will be cut in the middle (text replaced by "(...)") to fit the limit. 
+     * The message is built keeping only about this many characters in memory, including its String, CharSequence and Formattable parameters,
+     * but any other parameter is still rendered in full by its toString() before being cut.
      * @param maxMessageLength - The maximum number of characters to be logged in each message on the current thread.
      */
     public static void setMaxMessageLength(int maxMessageLength) {
@@ -213,6 +667,18 @@ public class TLog {
         getInstance().maxLineLength = maxLineLength;
     }
 
+    /**
+     * Defines the format of the log lines on the current thread. This is TEXT by default, if no Global was defined with {@link #setGlobalDefaultLogFormat(LogFormat)}.
+     * With JSON, every message is written as a JSON object in a single line (JSON Lines), which can be parsed without regular expressions.
+     * Key-values given among the message parameters (see {@link KeyValue#kv(String, Object)}) become fields of the object.
+     * With BINARY, the file gets compact records that aren't formatted until they're read back with {@link BinaryLogDecoder}.
+     * @param logFormat - Format of the log lines for every message on the current thread.
+     * @see LogFormat
+     */
+    public static void setLogFormat(LogFormat logFormat) {
+        getInstance().logFormat = logFormat == null ? LogFormat.TEXT : logFormat;
+    }
+
     /**
      * Defines a PrintStream to be used when printing log messages on the current thread.
      * By default, no one is used if no Global was defined with {@link #setGlobalDefaultPrintStream(PrintStream)}.
@@ -231,6 +697,70 @@ public class TLog {
         getInstance().setFilePath(filePath);
     }
 
+    /**
+     * Defines how writes to the log file are buffered on the current thread.
+     * By default, there's no buffering and each message is written immediately, if no Global was defined with {@link #setGlobalDefaultFileBuffering(int, long)}.
+     * The file is always kept open, and messages are accumulated in memory until the buffer size is reached or the flush interval has passed.
+     * Messages with level WARN or higher, and flushed messages ({@link #flushBufferedMessages()}, {@link #flushDiscardedMessages()}), are always written immediately.
+     * Any content still in the buffer is written when {@link #clean()} is called or when the application ends.
+     * @param bufferSize - Number of bytes to be accumulated before writing to the file (0 disables buffering).
+     * @param flushIntervalMillis - Maximum time (in milliseconds) for a message to stay in the buffer before being written (0 disables time-based writes).
+     * @see #setFilePath(String)
+     */
+    public static void setFileBuffering(int bufferSize, long flushIntervalMillis) {
+        BasicLogger logger = getInstance();
+        logger.setFileOptions(logger.fileOptions.withBuffering(bufferSize, flushIntervalMillis));
+    }
+
+    /**
+     * Defines when the log file of the current thread must roll to an archive.
+     * By default, messages are appended to the same file forever, if no Global was defined with {@link #setGlobalDefaultFileRolling(long, Duration, int)}.
+     * When the file reaches the maximum size, or when the rolling period has passed since it was opened, it's renamed
+     * with a UTC timestamp suffix (like "app.log.20240131-235959-999") and a new file is started.
+     * Archives are compressed with GZIP in a background thread, so rolling never blocks logging threads, and only the newest ones are kept.
+     * All threads writing to the same file share a single writer, so rolling never loses nor reorders their lines.
+     * WARNING: Rolling options belong to the file, so they also apply to other threads writing to the same file.
+     * @param maxFileSize - Size (in bytes) that makes the file roll (0 disables size-based rolling). For compressed files, it is the compressed size.
+     * @param rollingPeriod - Time after which the file rolls (null disables time-based rolling).
+     * @param maxArchives - Number of archives to be kept (0 keeps all of them).
+     * @see #setFilePath(String)
+     */
+    public static void setFileRolling(long maxFileSize, Duration rollingPeriod, int maxArchives) {
+        BasicLogger logger = getInstance();
+        logger.setFileOptions(logger.fileOptions.withRolling(maxFileSize, rollingPeriod != null ? rollingPeriod.toMillis() : 0, maxArchives));
+    }
+
+    /**
+     * Defines wether the log file of the current thread is written compressed, as a GZIP stream.
+     * By default, files are written uncompressed, if no Global was defined with {@link #setGlobalDefaultFileCompression(int, long)}.
+     * Content is deflated as it's written, and a sync flush makes everything written so far readable at most once per sync interval,
+     * so the file can be followed while it's written (e.g. with "zcat" or {@link LogFiles#newCompressedReader(java.nio.file.Path)}).
+     * Turning compression on or off for a file with content rolls it first, so a file never mixes plain and compressed content.
+     * WARNING: Compression options belong to the file, so they also apply to other threads writing to the same file.
+     * @param compressionLevel - Deflate level, from 1 (fastest) to 9 (smallest), or 0 to write the file uncompressed.
+     * @param syncFlushIntervalMillis - Maximum time (in milliseconds) for written content to become readable (0 syncs on every write).
+     * @see #setFilePath(String)
+     */
+    public static void setFileCompression(int compressionLevel, long syncFlushIntervalMillis) {
+        BasicLogger logger = getInstance();
+        logger.setFileOptions(logger.fileOptions.withCompression(compressionLevel, syncFlushIntervalMillis));
+    }
+
+    /**
+     * Defines wether the log file of the current thread keeps a sidecar time index (a file with the same name plus ".idx").
+     * By default, files aren't indexed, if no Global was defined with {@link #setGlobalDefaultFileIndex(Duration)}.
+     * The index maps time buckets to byte ranges of the file (with the count of messages per level), so a time range can be read
+     * by seeking straight to it with {@link LogFiles#readTimeRange(java.nio.file.Path, java.time.Instant, java.time.Instant)}.
+     * Compressed files and the BINARY format aren't indexed.
+     * WARNING: Index options belong to the file, so they also apply to other threads writing to the same file.
+     * @param bucket - Time covered by each index entry (null to disable the index).
+     * @see #setFilePath(String)
+     */
+    public static void setFileIndex(Duration bucket) {
+        BasicLogger logger = getInstance();
+        logger.setFileOptions(logger.fileOptions.withIndex(bucket != null ? bucket.toMillis() : 0));
+    }
+
     /**
      * Defines a java.lang.System.Logger instance to be used together with TLog on the current thread.
      * By default, no one is used if no Global was defined with {@link #setGlobalDefaultSystemLogger(java.lang.System.Logger)}.
@@ -267,13 +797,339 @@ public class TLog {
         getInstance().customOutputHandler = customOutputHandler;
     }
 
+    /**
+     * Defines a custom output handler that receives the messages of the current thread in batches, instead of one call per message.
+     * To define one globally, use {@link #setGlobalDefaultBatchOutputHandler(BatchOutputHandler)}.
+     * A batch holds a whole flush of buffered or discarded messages, or a run of messages outputted asynchronously (see {@link #logAsync(boolean)}) without pause.
+     * Messages logged synchronously without buffering are handed in batches of one. It may be used together with {@link #setCustomOutputHandler(BiConsumer)}.
+     * @param batchOutputHandler - A handler that will receive the levels and texts of the messages being outputted on the current thread (null disables it).
+     * @see BatchOutputHandler
+     */
+    public static void setBatchOutputHandler(BatchOutputHandler batchOutputHandler) {
+        getInstance().batchOutputHandler = batchOutputHandler;
+    }
+
+    /**
+     * Defines an in-memory tail to keep the most recent messages of the current thread, which can then be queried without reading files.
+     * By default, no one is used if no Global was defined with {@link #setGlobalDefaultLogTail(LogTail)}.
+     * A same tail may be shared by several threads (and by OLog), and writing to it never waits for other threads, nor for the ones querying it.
+     * @param logTail - The tail to keep the messages of the current thread (null disables it).
+     * @see LogTail
+     */
+    public static void setLogTail(LogTail logTail) {
+        getInstance().logTail = logTail;
+    }
+
+    /**
+     * Returns wether messages with the given level are currently being outputted on the current thread.
+     * This check is lock-free and doesn't allocate memory, so it can be used to guard expensive logging code.
+     * @param level - The log level to be checked.
+     * @return Boolean indicating if messages with the given level are outputted.
+     * @see #setMinimumLevel(LogLevel)
+     */
+    public static boolean isEnabled(LogLevel level) {
+        return currentLogger().isEnabled(level);
+    }
+
+    /**
+     * Returns wether DEBUG messages are currently being outputted on the current thread. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if DEBUG messages are outputted.
+     */
+    public static boolean isDebugEnabled() {
+        return currentLogger().isEnabled(LogLevel.DEBUG);
+    }
+
+    /**
+     * Returns wether INFO messages are currently being outputted on the current thread. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if INFO messages are outputted.
+     */
+    public static boolean isInfoEnabled() {
+        return currentLogger().isEnabled(LogLevel.INFO);
+    }
+
+    /**
+     * Returns wether WARN messages are currently being outputted on the current thread. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if WARN messages are outputted.
+     */
+    public static boolean isWarnEnabled() {
+        return currentLogger().isEnabled(LogLevel.WARN);
+    }
+
+    /**
+     * Returns wether ERROR messages are currently being outputted on the current thread. See {@link #isEnabled(LogLevel)}.
+     * @return Boolean indicating if ERROR messages are outputted.
+     */
+    public static boolean isErrorEnabled() {
+        return currentLogger().isEnabled(LogLevel.ERROR);
+    }
+
+    /**
+     * Logs a DEBUG message without parameters. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void debug(String message) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.DEBUG))
+            logger.debug(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs a DEBUG message with 1 parameter for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.DEBUG))
+            logger.debug(message, param1);
+    }
+
+    /**
+     * Logs a DEBUG message with 2 parameters for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1, Object param2) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.DEBUG))
+            logger.debug(message, param1, param2);
+    }
+
+    /**
+     * Logs a DEBUG message with 3 parameters for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1, Object param2, Object param3) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.DEBUG))
+            logger.debug(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs a DEBUG message with 4 parameters for String formatting. See {@link #debug(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void debug(String message, Object param1, Object param2, Object param3, Object param4) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.DEBUG))
+            logger.debug(message, param1, param2, param3, param4);
+    }
+
+    /**
+     * Logs an INFO message without parameters. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void info(String message) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.INFO))
+            logger.info(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs an INFO message with 1 parameter for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.INFO))
+            logger.info(message, param1);
+    }
+
+    /**
+     * Logs an INFO message with 2 parameters for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1, Object param2) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.INFO))
+            logger.info(message, param1, param2);
+    }
+
+    /**
+     * Logs an INFO message with 3 parameters for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1, Object param2, Object param3) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.INFO))
+            logger.info(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs an INFO message with 4 parameters for String formatting. See {@link #info(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void info(String message, Object param1, Object param2, Object param3, Object param4) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.INFO))
+            logger.info(message, param1, param2, param3, param4);
+    }
+
+    /**
+     * Logs a WARN message without parameters. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void warn(String message) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.WARN))
+            logger.warn(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs a WARN message with 1 parameter for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.WARN))
+            logger.warn(message, param1);
+    }
+
+    /**
+     * Logs a WARN message with 2 parameters for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1, Object param2) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.WARN))
+            logger.warn(message, param1, param2);
+    }
+
+    /**
+     * Logs a WARN message with 3 parameters for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1, Object param2, Object param3) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.WARN))
+            logger.warn(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs a WARN message with 4 parameters for String formatting. See {@link #warn(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void warn(String message, Object param1, Object param2, Object param3, Object param4) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.WARN))
+            logger.warn(message, param1, param2, param3, param4);
+    }
+
+    /**
+     * Logs an ERROR message without parameters. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     */
+    public static void error(String message) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.ERROR))
+            logger.error(message, BasicLogger.NO_PARAMS);
+    }
+
+    /**
+     * Logs an ERROR message with 1 parameter for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.ERROR))
+            logger.error(message, param1);
+    }
+
+    /**
+     * Logs an ERROR message with 2 parameters for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1, Object param2) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.ERROR))
+            logger.error(message, param1, param2);
+    }
+
+    /**
+     * Logs an ERROR message with 3 parameters for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1, Object param2, Object param3) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.ERROR))
+            logger.error(message, param1, param2, param3);
+    }
+
+    /**
+     * Logs an ERROR message with 4 parameters for String formatting. See {@link #error(String, Object...)}.
+     * Disabled messages cost a single level check, without locking nor allocating memory.
+     * @param message - String with the text to be logged.
+     * @param param1 - Parameter to be used for formatting the message with String.format.
+     * @param param2 - Parameter to be used for formatting the message with String.format.
+     * @param param3 - Parameter to be used for formatting the message with String.format.
+     * @param param4 - Parameter to be used for formatting the message with String.format.
+     */
+    public static void error(String message, Object param1, Object param2, Object param3, Object param4) {
+        BasicLogger logger = currentLogger();
+        if (logger.isLoggable(LogLevel.ERROR))
+            logger.error(message, param1, param2, param3, param4);
+    }
+
     /**
      * Logs a DEBUG message. It may use optional parameters for String formatting.
      * @param message - String with the text to be logged.
      * @param params - Parameters to be used for formatting the message with String.format (Optional).
      */
     public static void debug(String message, Object... params) {
-        getInstance().debug(message, params);
+        currentLogger().debug(message, params);
     }
 
     /**
@@ -282,7 +1138,7 @@ public class TLog {
      * @param params - Parameters to be used for formatting the message with String.format (Optional).
      */
     public static void info(String message, Object... params) {
-        getInstance().info(message, params);
+        currentLogger().info(message, params);
     }
 
     /**
@@ -291,7 +1147,7 @@ public class TLog {
      * @param params - Parameters to be used for formatting the message with String.format (Optional).
      */
     public static void warn(String message, Object... params) {
-        getInstance().warn(message, params);
+        currentLogger().warn(message, params);
     }
 
     /**
@@ -300,7 +1156,91 @@ public class TLog {
      * @param params - Parameters to be used for formatting the message with String.format (Optional).
      */
     public static void error(String message, Object... params) {
-        getInstance().error(message, params);
+        currentLogger().error(message, params);
+    }
+
+    /**
+     * Logs a DEBUG message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void debug(Supplier<String> messageSupplier) {
+        currentLogger().debug(messageSupplier);
+    }
+
+    /**
+     * Logs an INFO message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void info(Supplier<String> messageSupplier) {
+        currentLogger().info(messageSupplier);
+    }
+
+    /**
+     * Logs a WARN message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void warn(Supplier<String> messageSupplier) {
+        currentLogger().warn(messageSupplier);
+    }
+
+    /**
+     * Logs an ERROR message provided by the given supplier.
+     * The supplier is only called if the message is going to be outputted or preserved, so expensive messages cost nothing when their level is disabled.
+     * @param messageSupplier - Supplier of the text to be logged. The text is not used for String formatting.
+     */
+    public static void error(Supplier<String> messageSupplier) {
+        currentLogger().error(messageSupplier);
+    }
+
+    /**
+     * Logs a DEBUG message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void debug(LogLimiter limiter, String message, Object... params) {
+        currentLogger().logMessage(limiter, LogLevel.DEBUG, message, params);
+    }
+
+    /**
+     * Logs an INFO message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void info(LogLimiter limiter, String message, Object... params) {
+        currentLogger().logMessage(limiter, LogLevel.INFO, message, params);
+    }
+
+    /**
+     * Logs a WARN message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void warn(LogLimiter limiter, String message, Object... params) {
+        currentLogger().logMessage(limiter, LogLevel.WARN, message, params);
+    }
+
+    /**
+     * Logs an ERROR message, unless the limiter skips it. It may use optional parameters for String formatting.
+     * Skipped messages are counted and reported periodically in a summary line.
+     * @param limiter - Limiter for the message (by rate or sampling), usually kept in a static field.
+     * @param message - String with the text to be logged. It's also the key for the limit, so it should be the same for every call of a log statement.
+     * @param params - Parameters to be used for formatting the message with String.format (Optional).
+     * @see LogLimiter
+     */
+    public static void error(LogLimiter limiter, String message, Object... params) {
+        currentLogger().logMessage(limiter, LogLevel.ERROR, message, params);
     }
 
     /**
@@ -311,7 +1251,7 @@ public class TLog {
      * @param params - Parameters to be used for formatting the message with String.format (Optional).
      */
     public static void error(Throwable throwable, String message, Object... params) {
-        getInstance().error(throwable, message, params);
+        currentLogger().error(throwable, message, params);
     }
 
     /**
@@ -326,13 +1266,14 @@ public class TLog {
      * @param params - Parameters to be used for formatting the message with String.format (Optional).
      */
     public static void error(Throwable throwable, int stackTraceLimit, String message, Object... params) {
-        getInstance().error(throwable, stackTraceLimit, message, params);
+        currentLogger().error(throwable, stackTraceLimit, message, params);
     }
 
     /**
      * Defines wether lower level messages on the current thread should be preserved. By default this is FALSE.
      * When preserving discarded messages, messages with LogLevel lower than the minimum set will be stored in memory and can be retrieved later.
      * This may be useful for unexpected errors handling, when lower level messages can be outputted on demand by calling {@link #flushDiscardedMessages()}.
+     * Preserved messages are only formatted if they are flushed, so their parameters should not be mutated after being logged.
      * @param mustPreserveDiscardedMessages - Boolean indicating if lower than minimum level messages should be preserved in memory for the current thread.
      * @see #flushDiscardedMessages()
      */
@@ -340,11 +1281,45 @@ public class TLog {
         getInstance().preserveDiscardedMessages(mustPreserveDiscardedMessages);
     }
 
+    /**
+     * Preserves only the last discarded messages of the current thread (flight recorder mode).
+     * This is disabled by default, if no Global was defined with {@link #setGlobalDefaultPreserveDiscardedMessages(int)}.
+     * Unlike {@link #preserveDiscardedMessages(boolean)}, memory is bounded: messages are kept in a ring allocated once, and each new message overwrites the oldest one.
+     * Messages are only formatted if they are flushed, so this is cheap enough to be kept on in production, providing lower level context when something fails.
+     * See {@link #flushDiscardedMessagesOnError(boolean)} to have them outputted automatically before errors.
+     * @param lastMessages - Maximum number of discarded messages to be preserved (must be positive).
+     * @throws IllegalArgumentException if the number of messages is not positive.
+     * @see #flushDiscardedMessages()
+     */
+    public static void preserveDiscardedMessages(int lastMessages) {
+        getInstance().preserveDiscardedMessages(lastMessages);
+    }
+
+    /**
+     * Defines wether the preserved discarded messages of the current thread must be flushed when an ERROR message is logged, right before it.
+     * This is FALSE by default, if no Global was defined with {@link #setGlobalDefaultFlushDiscardedMessagesOnError(boolean)}.
+     * It only has effect while discarded messages are being preserved (see {@link #preserveDiscardedMessages(int)}).
+     * @param mustFlushOnError - Boolean indicating if discarded messages should be flushed before error messages.
+     */
+    public static void flushDiscardedMessagesOnError(boolean mustFlushOnError) {
+        getInstance().flushDiscardedMessagesOnError = mustFlushOnError;
+    }
+
+    /**
+     * Returns wether the preserved discarded messages of the current thread are flushed when an ERROR message is logged.
+     * @return Boolean indicating if discarded messages are flushed before error messages.
+     * @see #flushDiscardedMessagesOnError(boolean)
+     */
+    public static boolean flushDiscardedMessagesOnError() {
+        return currentLogger().flushDiscardedMessagesOnError;
+    }
+
     /**
      * Defines wether logged messages on the current thread must be buffered instead of outputted immediately. This is FALSE by default.
      * Buffering messages can be useful for grouping them to be displayed together. It may also increase performance by reducing I/O operations.
      * When this method is called with value TRUE, logged messages will only be outputted when {@link #flushBufferedMessages()} is called.
      * WARNING: Buffered messages are expected to be manually flushed eventually. If that never happens, TLog tries to forcefully flush them all when the thread is being finished. 
+     * Buffered messages are only formatted when flushed, so their parameters should not be mutated after being logged.
      * @param mustBuffer - Boolean indicating if messages should be buffered instead of outputted immediately on the current thread.
      * @see #flushBufferedMessages()
      */
@@ -352,6 +1327,118 @@ public class TLog {
         getInstance().bufferMessages(mustBuffer);
     }
 
+    /**
+     * Starts buffering messages on the current thread, keeping at most the given number of them in memory.
+     * When the buffer is full, the overflow policy defines if it's flushed early (FLUSH), or if the oldest or the newest message is dropped (DROP_OLDEST / DROP_NEWEST).
+     * Dropped messages are counted, see {@link #getDroppedMessages()}.
+     * For details about buffering messages, see {@link #bufferMessages(boolean)}.
+     * WARNING: The BLOCK policy is not supported, since the buffer of a thread can only be flushed by the thread itself, which would wait forever.
+     * @param capacity - Maximum number of buffered messages (0 for unbounded).
+     * @param overflowPolicy - What to do with new messages when the buffer is full.
+     * @throws IllegalArgumentException if the capacity is negative, or the policy is null or BLOCK.
+     * @see BufferOverflowPolicy
+     */
+    public static void bufferMessages(int capacity, BufferOverflowPolicy overflowPolicy) {
+        if (overflowPolicy == BufferOverflowPolicy.BLOCK)
+            throw new IllegalArgumentException("TLog buffers can't use the BLOCK policy, since they can only be flushed by their own thread");
+        getInstance().bufferMessages(capacity, overflowPolicy);
+    }
+
+    /**
+     * Returns the number of messages dropped on the current thread because its message buffer was full.
+     * @return Number of dropped messages.
+     * @see #bufferMessages(int, BufferOverflowPolicy)
+     */
+    public static long getDroppedMessages() {
+        return currentLogger().getDroppedMessages();
+    }
+
+    /**
+     * Defines wether messages on the current thread must be outputted asynchronously by a background thread.
+     * This is FALSE by default, if no Global was defined with {@link #setGlobalDefaultLogAsync(boolean)}.
+     * When enabled, the current thread only hands each message to a bounded ring buffer shared by all threads (see {@link #setAsyncSettings(int, WaitStrategy)}),
+     * while a single background thread does the formatting and outputting (stream, file, delegated loggers and custom handler).
+     * Pending messages are always drained when {@link #clean()} is called, before buffered/discarded messages are flushed, and before the application ends.
+     * WARNING: Message parameters are formatted later, on the background thread, so they should not be mutated after being logged.
+     * @param mustLogAsync - Boolean indicating if messages on the current thread should be outputted asynchronously.
+     */
+    public static void logAsync(boolean mustLogAsync) {
+        getInstance().asyncDispatcher = mustLogAsync ? getAsyncDispatcher() : null;
+    }
+
+    /**
+     * Returns wether messages on the current thread are being outputted asynchronously by a background thread.
+     * @return Boolean indicating if asynchronous logging is enabled on the current thread.
+     * @see #logAsync(boolean)
+     */
+    public static boolean logAsync() {
+        return currentLogger().asyncDispatcher != null;
+    }
+
+    /**
+     * Returns the metrics about the cost of logging: messages per level, dropped and discarded messages, bytes written, flushes,
+     * buffered and pending messages, and latency histograms for logging calls and file writes.
+     * Metrics are shared by all the loggers (OLog and every TLog thread), and are also available through JMX (see {@link LogMetricsMXBean}).
+     * @return The logging metrics.
+     */
+    public static LogMetrics getMetrics() {
+        return LogMetrics.INSTANCE;
+    }
+
+    /**
+     * Defines wether repeated messages on the current thread must be coalesced.
+     * This is FALSE by default, if no Global was defined with {@link #setGlobalDefaultCoalesceRepeatedMessages(Duration)}.
+     * When enabled, a message equal to the previous one (same level, same message and equal parameters, and for errors, the same exception
+     * class, message and stacktrace) is not outputted, only counted.
+     * The count is outputted in a single line ("Last message repeated N times") when a different message arrives, or after 1 second.
+     * This reduces I/O during floods (e.g. retry storms) without losing any information.
+     * @param mustCoalesce - Boolean indicating if repeated messages on the current thread should be coalesced.
+     * @see #coalesceRepeatedMessages(Duration)
+     */
+    public static void coalesceRepeatedMessages(boolean mustCoalesce) {
+        getInstance().coalesceRepeatedMessages(mustCoalesce ? BasicLogger.DEFAULT_COALESCING_DELAY_MILLIS : 0);
+    }
+
+    /**
+     * Enables coalescing of repeated messages on the current thread, with the maximum time they're held back before their count is outputted.
+     * For details about coalescing, see {@link #coalesceRepeatedMessages(boolean)}.
+     * @param maxDelay - Maximum time a count of repetitions waits to be outputted (null or zero disables coalescing).
+     */
+    public static void coalesceRepeatedMessages(Duration maxDelay) {
+        getInstance().coalesceRepeatedMessages(maxDelay == null ? 0 : maxDelay.toMillis());
+    }
+
+    /**
+     * Returns wether repeated messages on the current thread are being coalesced.
+     * @return Boolean indicating if repeated messages are being coalesced on the current thread.
+     * @see #coalesceRepeatedMessages(boolean)
+     */
+    public static boolean coalesceRepeatedMessages() {
+        return currentLogger().coalesceRepeatedMessages() > 0;
+    }
+
+    /**
+     * Defines wether identical stacktraces on the current thread must be printed in full only once.
+     * This is FALSE by default, if no Global was defined with {@link #setGlobalDefaultDeduplicateStackTraces(boolean)}.
+     * When enabled, the first stacktrace of a kind (same exception classes and frames, including causes) is printed tagged with a short ID
+     * ("STACKTRACE #id:"), and the following identical ones only print the summary of the exception and "STACKTRACE: same as #id".
+     * The printed stacktraces are remembered by all the threads with deduplication enabled, so a stacktrace printed by a thread is only referenced by the others.
+     * WARNING: If the threads log to different outputs, a reference may point to a stacktrace printed on another output.
+     * @param mustDeduplicate - Boolean indicating if identical stacktraces on the current thread should be printed only once.
+     */
+    public static void deduplicateStackTraces(boolean mustDeduplicate) {
+        getInstance().throwableRenderer = mustDeduplicate ? DEDUPLICATING_RENDERER : new ThrowableRenderer(false);
+    }
+
+    /**
+     * Returns wether identical stacktraces on the current thread are being printed only once.
+     * @return Boolean indicating if identical stacktraces are being deduplicated on the current thread.
+     * @see #deduplicateStackTraces(boolean)
+     */
+    public static boolean deduplicateStackTraces() {
+        return currentLogger().deduplicateStackTraces();
+    }
+
     /**
      * Returns wether discarded (lower than minimum level) messages on the current thread are being preserved in memory.
      * @return Boolean indicating if discarded messages are being preserved on the current thread.
@@ -359,7 +1446,7 @@ public class TLog {
      * @see #flushDiscardedMessages()
      */
     public static boolean preserveDiscardedMessages() {
-        return getInstance().preserveDiscardedMessages();
+        return currentLogger().preserveDiscardedMessages();
     }
 
     /**
@@ -369,7 +1456,7 @@ public class TLog {
      * @see #flushBufferedMessages()
      */
     public static boolean bufferMessages() {
-        return getInstance().bufferMessages();
+        return currentLogger().bufferMessages();
     }
 
     /**
@@ -382,7 +1469,7 @@ public class TLog {
      * @see #preserveDiscardedMessages(boolean)
      */
     public static List<String> flushDiscardedMessages() {
-        return getInstance().flushDiscardedMessages();
+        return currentLogger().flushDiscardedMessages();
     }
 
     /**
@@ -393,7 +1480,7 @@ public class TLog {
      * @see #bufferMessages(boolean)
      */
     public static List<String> flushBufferedMessages() {
-        return getInstance().flushBufferedMessages();
+        return currentLogger().flushBufferedMessages();
     }
 
     private static BasicLogger createLogger() {
@@ -403,12 +1490,25 @@ public class TLog {
         logger.dateTimeFormat = globalDefaultDateTimeFormat;
         logger.maxMessageLength = globalDefaultMaxMessageLength;
         logger.maxLineLength = globalDefaultMaxLineLength;
+        logger.logFormat = globalDefaultLogFormat;
         logger.printStream = globalDefaultPrintStream;
+        logger.fileOptions = globalDefaultFileOptions;
         logger.setFilePath(globalDefaultFilePath);
         logger.systemLogger = globalDefaultSystemLogger;
         logger.utilLogger = globalDefaultUtilLogger;
         logger.customOutputHandler = globalDefaultCustomOutputHandler;
+        logger.batchOutputHandler = globalDefaultBatchOutputHandler;
+        logger.logTail = globalDefaultLogTail;
         logger.unflushedMessagesWarning = UNFLUSHED_MESSAGES_WARNING;
+        logger.includeDiagnostics = true;
+        logger.sinkQueues = sinkQueues;
+        logger.asyncDispatcher = globalDefaultLogAsync ? getAsyncDispatcher() : null;
+        if (globalDefaultPreservedDiscardedMessages > 0)
+            logger.preserveDiscardedMessages(globalDefaultPreservedDiscardedMessages);
+        logger.flushDiscardedMessagesOnError = globalDefaultFlushDiscardedMessagesOnError;
+        logger.coalesceRepeatedMessages(globalDefaultCoalescingDelayMillis);
+        if (globalDefaultDeduplicateStackTraces)
+            logger.throwableRenderer = DEDUPLICATING_RENDERER;
         return logger;
     }
 
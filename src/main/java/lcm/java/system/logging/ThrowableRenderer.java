@@ -0,0 +1,219 @@
+package lcm.java.system.logging;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders Throwables (summary and stacktraces) into a single StringBuilder.
+ * Each stacktrace is taken only once per rendering, for both the fingerprint and the frames (getStackTrace clones the whole array
+ * on every call), and the frames a cause or
+ * suppressed exception shares with its enclosing trace are elided as "... N more", like Throwable.printStackTrace does.
+ *
+ * Optionally, it keeps the fingerprints (exception classes and frames of the whole cause chain) of rendered stacktraces,
+ * so an identical stacktrace is printed in full only the first time, tagged with a short ID, and then only referenced by it.
+ */
+final class ThrowableRenderer {
+
+    static final int MAX_FINGERPRINTS = 4096;
+    private static final String NL = System.lineSeparator();
+
+    private final Set<Long> fingerprints;
+
+    /**
+     * A Throwable to be rendered at the end of a message's text, only when the text is actually needed.
+     * It's carried as the last parameter of the message, so it goes through buffering, discarding and asynchronous dispatch unchanged.
+     * It's rendered only once, and every output of the message (text, JSON, binary, tail, delegates) shares that text: rendering it again
+     * with deduplication would only reference the stacktrace recorded by the first rendering, which may not be the one written to the file.
+     */
+    static final class Deferred {
+        final Throwable throwable;
+        final int stackTraceLimit;
+        final ThrowableRenderer renderer;
+        private final Map<Throwable, StackTraceElement[]> traces = new IdentityHashMap<>(); // Taken once, for comparing and rendering.
+        private Long fingerprint;
+        private String text;
+
+        Deferred(Throwable throwable, int stackTraceLimit, ThrowableRenderer renderer) {
+            this.throwable = throwable;
+            this.stackTraceLimit = stackTraceLimit;
+            this.renderer = renderer;
+        }
+
+        /**
+         * Returns the rendered Throwable, rendering it on the first call.
+         */
+        synchronized String getText() {
+            if (text == null) {
+                StringBuilder sb = new StringBuilder();
+                renderer.render(sb, throwable, stackTraceLimit, traces);
+                text = sb.toString();
+            }
+            return text;
+        }
+
+        /**
+         * Returns the fingerprint of the Throwable's stacktraces, computing it on the first call.
+         */
+        synchronized long fingerprint() {
+            if (fingerprint == null)
+                fingerprint = ThrowableRenderer.fingerprint(throwable, traces);
+            return fingerprint;
+        }
+
+        /**
+         * Two deferred Throwables are equal if they have the same class, message, limit and stacktraces (compared by their fingerprint),
+         * so a same error repeated with new exception instances is still recognized as a repetition (without rendering any stacktrace),
+         * but the same error thrown from somewhere else isn't.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Deferred))
+                return false;
+            Deferred other = (Deferred) o;
+            return throwable.getClass() == other.throwable.getClass() && Objects.equals(throwable.getMessage(), other.throwable.getMessage())
+                && stackTraceLimit == other.stackTraceLimit && fingerprint() == other.fingerprint();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(throwable.getClass(), throwable.getMessage(), stackTraceLimit, fingerprint());
+        }
+    }
+
+    /**
+     * @param deduplicate - Defines wether identical stacktraces must be printed only once, and then referenced by their ID.
+     */
+    ThrowableRenderer(boolean deduplicate) {
+        this.fingerprints = deduplicate ? ConcurrentHashMap.newKeySet() : null;
+    }
+
+    boolean isDeduplicating() {
+        return fingerprints != null;
+    }
+
+    /**
+     * Appends the summary of the Throwable and its causes, followed by the stacktraces.
+     * @param sb - Builder to append to.
+     * @param t - The Throwable to be rendered.
+     * @param stackTraceLimit - Maximum number of lines to be printed for a single stacktrace (zero or less for no limit).
+     * @param traces - Stacktraces already taken, to which the ones taken here are added.
+     */
+    void render(StringBuilder sb, Throwable t, int stackTraceLimit, Map<Throwable, StackTraceElement[]> traces) {
+        appendSummary(sb.append(NL), t);
+        String label = "STACKTRACE:";
+        if (fingerprints != null) {
+            long fingerprint = fingerprint(t, traces);
+            String id = Long.toHexString(fingerprint);
+            if (fingerprints.contains(fingerprint)) {
+                sb.append(NL).append("STACKTRACE: same as #").append(id);
+                return;
+            }
+            if (fingerprints.size() >= MAX_FINGERPRINTS)
+                fingerprints.clear();
+            fingerprints.add(fingerprint);
+            label = "STACKTRACE #" + id + ":";
+        }
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(t);
+        appendStackTrace(sb, label, t, new StackTraceElement[0], stackTraceLimit, seen, traces);
+    }
+
+    /**
+     * Returns the stacktrace of the Throwable, taking it only on the first call for the same map.
+     */
+    private static StackTraceElement[] stackTrace(Throwable t, Map<Throwable, StackTraceElement[]> traces) {
+        StackTraceElement[] trace = traces.get(t);
+        if (trace == null)
+            traces.put(t, trace = t.getStackTrace());
+        return trace;
+    }
+
+    /**
+     * Appends "EXCEPTION: class: message", followed by a "CAUSE: class: message" line for each cause.
+     */
+    static void appendSummary(StringBuilder sb, Throwable t) {
+        sb.append("\tEXCEPTION: ");
+        appendDescription(sb, t);
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(t);
+        for (Throwable cause = t.getCause(); cause != null && seen.add(cause); cause = cause.getCause())
+            appendDescription(sb.append(NL).append("\tCAUSE: "), cause);
+    }
+
+    private static void appendDescription(StringBuilder sb, Throwable t) {
+        sb.append(t.getClass().getName());
+        if (t.getMessage() != null)
+            sb.append(": ").append(t.getMessage());
+    }
+
+    private void appendStackTrace(StringBuilder sb, String label, Throwable t, StackTraceElement[] enclosingTrace, int stackTraceLimit,
+            Set<Throwable> seen, Map<Throwable, StackTraceElement[]> traces) {
+        StackTraceElement[] trace = stackTrace(t, traces);
+        sb.append(NL).append(label);
+        appendFrames(sb, trace, enclosingTrace, stackTraceLimit);
+        for (Throwable suppressed : t.getSuppressed()) {
+            if (seen.add(suppressed)) {
+                appendDescription(sb.append(NL).append("SUPPRESSED: "), suppressed);
+                appendStackTrace(sb, "STACKTRACE:", suppressed, trace, stackTraceLimit, seen, traces);
+            } else {
+                appendDescription(sb.append(NL).append("SUPPRESSED (circular reference): "), suppressed);
+            }
+        }
+        Throwable cause = t.getCause();
+        if (cause == null)
+            return;
+        if (seen.add(cause)) {
+            appendDescription(sb.append(NL).append("CAUSED BY: "), cause);
+            appendStackTrace(sb, "STACKTRACE:", cause, trace, stackTraceLimit, seen, traces);
+        } else {
+            appendDescription(sb.append(NL).append("CAUSED BY (circular reference): "), cause);
+        }
+    }
+
+    private static void appendFrames(StringBuilder sb, StackTraceElement[] trace, StackTraceElement[] enclosingTrace, int stackTraceLimit) {
+        int m = trace.length - 1;
+        int n = enclosingTrace.length - 1;
+        while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+            m--;
+            n--;
+        }
+        int uniqueFrames = m + 1;
+        if (stackTraceLimit > 0 && uniqueFrames > stackTraceLimit) {
+            int linesToCut = uniqueFrames - stackTraceLimit;
+            int cutStartIndex = uniqueFrames / 2 - linesToCut / 2;
+            int cutEndIndex = uniqueFrames / 2 + linesToCut / 2;
+            appendFrames(sb, trace, 0, cutStartIndex);
+            sb.append(NL).append("(...)");
+            appendFrames(sb, trace, cutEndIndex, uniqueFrames);
+        } else {
+            appendFrames(sb, trace, 0, uniqueFrames);
+        }
+        if (uniqueFrames < trace.length)
+            sb.append(NL).append("... ").append(trace.length - uniqueFrames).append(" more");
+    }
+
+    private static void appendFrames(StringBuilder sb, StackTraceElement[] trace, int startingIndex, int endingIndex) {
+        for (int i = startingIndex; i < endingIndex; i++)
+            sb.append(NL).append(trace[i]);
+    }
+
+    /**
+     * Hashes the classes and frames of the Throwable and its causes. Messages are left out, since they often carry
+     * variable data (ids, values) for a same failure, and they're still printed by the summary anyway.
+     * @param traces - Stacktraces already taken, to which the ones taken here are added.
+     */
+    static long fingerprint(Throwable t, Map<Throwable, StackTraceElement[]> traces) {
+        long hash = 1;
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Throwable cause = t; cause != null && seen.add(cause); cause = cause.getCause()) {
+            hash = hash * 0x9E3779B97F4A7C15L + cause.getClass().getName().hashCode();
+            for (StackTraceElement frame : stackTrace(cause, traces))
+                hash = hash * 0x9E3779B97F4A7C15L + frame.hashCode();
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,158 @@
+package lcm.java.system.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse sidecar index of a log file ("app.log.idx" for "app.log"), maintained by its {@link FileAppender}.
+ * Lines are grouped in segments: a segment starts with the first line whose timestamp falls in a later time bucket than the
+ * current one, so lines with slightly older timestamps (e.g. from another thread) stay in the current segment instead of splitting it.
+ * When a segment ends, a fixed-size entry is added: its byte range in the file, the exact minimum and maximum timestamps of its lines,
+ * and the count of lines per level. A time range can then be read by seeking straight to the segments that overlap it.
+ *
+ * Indexing a line only costs a division and a few field updates, and entries are written in batches, along with the file's flushes.
+ * Instances are not thread-safe, and are only used while holding the appender's lock.
+ */
+final class TimeIndex {
+
+    static final String SUFFIX = ".idx";
+    static final int ENTRY_SIZE = 4 * Long.BYTES + 4 * Integer.BYTES;
+    private static final int LEVELS = LogLevel.values().length;
+
+    /**
+     * A segment of the log file, as read from the index.
+     */
+    static final class Entry {
+        final long startOffset;
+        final long endOffset;
+        final long minTimestamp;
+        final long maxTimestamp;
+        final int[] counts = new int[LEVELS];
+
+        Entry(ByteBuffer bytes) {
+            startOffset = bytes.getLong();
+            endOffset = bytes.getLong();
+            minTimestamp = bytes.getLong();
+            maxTimestamp = bytes.getLong();
+            for (int i = 0; i < LEVELS; i++)
+                counts[i] = bytes.getInt();
+        }
+
+        boolean overlaps(long fromMillis, long toMillis) {
+            return maxTimestamp >= fromMillis && minTimestamp < toMillis;
+        }
+    }
+
+    private final long bucketMillis;
+    private final FileChannel channel;
+    private final ByteBuffer pendingEntries = ByteBuffer.allocate(64 * ENTRY_SIZE);
+    private boolean segmentOpen;
+    private long segmentBucket;
+    private long segmentStart;
+    private long minTimestamp;
+    private long maxTimestamp;
+    private final int[] counts = new int[LEVELS];
+
+    /**
+     * Opens the index of the log file, appending to it.
+     * @param filePath - Path of the log file (not of the index).
+     * @param bucketMillis - Size (in milliseconds) of the time buckets that start new segments.
+     * @param newFile - If the log file was just created, in which case any previous index is discarded.
+     * @throws IOException if the index can't be opened.
+     */
+    TimeIndex(Path filePath, long bucketMillis, boolean newFile) throws IOException {
+        this.bucketMillis = bucketMillis;
+        Path indexPath = indexPath(filePath);
+        if (newFile)
+            Files.deleteIfExists(indexPath);
+        this.channel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    static Path indexPath(Path filePath) {
+        return filePath.resolveSibling(filePath.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Indexes a line about to be appended to the log file.
+     * @param offset - Position of the line in the file.
+     * @param timestamp - Instant of the line's message, in milliseconds since epoch.
+     * @param level - Level of the line's message.
+     */
+    void addLine(long offset, long timestamp, LogLevel level) throws IOException {
+        long bucket = Math.floorDiv(timestamp, bucketMillis);
+        if (!segmentOpen || bucket > segmentBucket) {
+            endSegment(offset);
+            segmentOpen = true;
+            segmentBucket = bucket;
+            segmentStart = offset;
+            minTimestamp = timestamp;
+            maxTimestamp = timestamp;
+        } else {
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+        counts[level.ordinal()]++;
+    }
+
+    /**
+     * Ends the current segment (if any) at the given position, adding its entry.
+     */
+    void endSegment(long endOffset) throws IOException {
+        if (!segmentOpen)
+            return;
+        pendingEntries.putLong(segmentStart).putLong(endOffset).putLong(minTimestamp).putLong(maxTimestamp);
+        for (int i = 0; i < LEVELS; i++)
+            pendingEntries.putInt(counts[i]);
+        Arrays.fill(counts, 0);
+        segmentOpen = false;
+        if (!pendingEntries.hasRemaining())
+            flush();
+    }
+
+    /**
+     * Writes the pending entries to the index.
+     */
+    void flush() throws IOException {
+        pendingEntries.flip();
+        try {
+            while (pendingEntries.hasRemaining())
+                channel.write(pendingEntries);
+        } finally {
+            pendingEntries.clear();
+        }
+    }
+
+    /**
+     * Ends the current segment, writes the pending entries and closes the index.
+     */
+    void close(long endOffset) throws IOException {
+        try {
+            endSegment(endOffset);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads all the entries of the log file's index (the last segment, still open, is not among them).
+     * A missing index has no entries, and an incomplete last entry is ignored.
+     */
+    static List<Entry> readEntries(Path filePath) throws IOException {
+        Path indexPath = indexPath(filePath);
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(indexPath))
+            return entries;
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        while (bytes.remaining() >= ENTRY_SIZE)
+            entries.add(new Entry(bytes));
+        return entries;
+    }
+}
@@ -0,0 +1,15 @@
+package lcm.java.system.logging;
+
+/**
+ * Defines how threads wait on the asynchronous logging ring buffer.
+ * The background consumer uses it while the ring is empty, and logging threads use it while the ring is full.
+ * Cheaper waits (less latency) consume more CPU, so BLOCKING is the default and most adequate for most applications.
+ */
+public enum WaitStrategy {
+    /** Parks the waiting thread until it is signaled. Lowest CPU usage, highest latency. */
+    BLOCKING,
+    /** Yields the waiting thread to others, retrying in a loop. Moderate CPU usage and latency. */
+    YIELDING,
+    /** Spins the waiting thread in a loop. Lowest latency, but keeps a CPU core busy. */
+    BUSY_SPIN;
+}
@@ -5,17 +5,24 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -97,6 +104,108 @@ class BasicLoggerTest {
         outMock.verifyAllOutputs("FLUSHING THEM NOW...", "Message one", "Message two");
     }
 
+    @Test
+    void testBoundedBufferFlush() {
+        logger.bufferMessages(2, BufferOverflowPolicy.FLUSH);
+        logger.info("Message one");
+        logger.info("Message two");
+        outMock.verifyNoOutput();
+        logger.info("Message three");
+        outMock.verifyOutput("Message one", "Message two");
+        logger.flushBufferedMessages();
+        outMock.verifyOutput("Message one", "Message two", "Message three");
+        assertEquals(0, logger.getDroppedMessages());
+    }
+
+    @Test
+    void testBoundedBufferDrop() {
+        logger.bufferMessages(2, BufferOverflowPolicy.DROP_OLDEST);
+        for (String message : List.of("Message one", "Message two", "Message three", "Message four"))
+            logger.info(message);
+        logger.flushBufferedMessages();
+        outMock.verifyOutput("Message three", "Message four");
+        assertEquals(2, logger.getDroppedMessages());
+
+        outMock.clear(false);
+        logger.bufferMessages(2, BufferOverflowPolicy.DROP_NEWEST);
+        for (String message : List.of("Message one", "Message two", "Message three", "Message four"))
+            logger.info(message);
+        logger.flushBufferedMessages();
+        outMock.verifyOutput("Message one", "Message two");
+        assertEquals(4, logger.getDroppedMessages());
+    }
+
+    @Test
+    void testBoundedBufferBlock() throws Exception {
+        logger.bufferMessages(1, BufferOverflowPolicy.BLOCK);
+        logger.info("Message one");
+        Thread producer = new Thread(() -> logger.info("Message two"));
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive()); // Waiting for the buffer to be flushed.
+        outMock.verifyNoOutput();
+        logger.flushBufferedMessages();
+        producer.join();
+        logger.flushBufferedMessages();
+        outMock.verifyOutput("Message one", "Message two");
+        assertEquals(0, logger.getDroppedMessages());
+    }
+
+    @Test
+    void testAsyncLogging() {
+        logger.asyncDispatcher = new AsyncDispatcher(2, WaitStrategy.BLOCKING);
+        logger.info("Message one");
+        logger.debug("Message two");
+        logger.warn("Message three");
+        logger.error("Message %s", "four");
+        logger.finishInstance();
+        outMock.verifyAllOutputs("Message one", "Message three", "Message four");
+        logger.asyncDispatcher.shutdown();
+    }
+
+    @Test
+    void testAsyncLoggingBeforeFlush() {
+        logger.asyncDispatcher = new AsyncDispatcher(16, WaitStrategy.BUSY_SPIN);
+        logger.info("Message one");
+        logger.bufferMessages(true);
+        logger.info("Message two");
+        logger.flushBufferedMessages();
+        outMock.verifyOutput("Message one", "Message two");
+        logger.bufferMessages(false);
+        logger.asyncDispatcher.shutdown();
+        logger.info("Message three"); // Dispatcher was shut down, so this one must be logged synchronously.
+        outMock.verifyOutput("Message one", "Message two", "Message three");
+    }
+
+    @Test
+    void testBatchOutputHandler() {
+        var batches = new ArrayList<List<String>>();
+        logger.batchOutputHandler = (levels, texts) -> {
+            assertEquals(levels.length, texts.length);
+            batches.add(List.of(texts));
+        };
+        logger.info("Message one");
+        logger.bufferMessages(true);
+        logger.info("Message two");
+        logger.warn("Message three");
+        logger.flushBufferedMessages();
+        logger.bufferMessages(false);
+        assertEquals(List.of(1, 2), batches.stream().map(List::size).toList());
+        assertTrue(batches.get(1).get(1).endsWith("[WARN] Message three"));
+
+        batches.clear();
+        logger.asyncDispatcher = new AsyncDispatcher(16, WaitStrategy.BLOCKING);
+        synchronized (logger) { // The background thread waits for the lock, so the messages pile up in the ring.
+            for (int i = 0; i < 5; i++)
+                logger.info("Message %d", i);
+        }
+        logger.finishInstance();
+        assertEquals(1, batches.size());
+        assertEquals(5, batches.get(0).size());
+        assertTrue(batches.get(0).get(4).endsWith("Message 4"));
+        logger.asyncDispatcher.shutdown();
+    }
+
     @Test
     void testLogLevel() {
         logger.info("Message one");
@@ -119,6 +228,133 @@ class BasicLoggerTest {
         assertEquals(discardedMessages, outMock.verifyAllOutputs("Message two"));
     }
 
+    @Test
+    void testDiscardedMessagesRing() {
+        logger.preserveDiscardedMessages(2);
+        logger.debug("Message one");
+        logger.debug("Message two");
+        logger.info("Message three");
+        logger.debug("Message four");
+        outMock.verifyOutput("Message three");
+        outMock.clear(false);
+        logger.flushDiscardedMessages();
+        outMock.verifyOutput("Message two", "Message four");
+        outMock.clear(false);
+        logger.debug("Message five");
+        logger.flushDiscardedMessages();
+        outMock.verifyOutput("Message five");
+    }
+
+    @Test
+    void testFlushDiscardedMessagesOnError() {
+        logger.preserveDiscardedMessages(3);
+        logger.flushDiscardedMessagesOnError = true;
+        logger.debug("Message one");
+        logger.warn("Message two");
+        logger.debug("Message three");
+        logger.error("Message four");
+        logger.error("Message five");
+        outMock.verifyOutput("Message two", "Message one", "Message three", "Message four", "Message five");
+    }
+
+    @Test
+    void testCoalescedMessages() {
+        logger.coalesceRepeatedMessages(60_000);
+        logger.info("Message %s", "one");
+        logger.info("Message %s", "one");
+        logger.info("Message %s", "one");
+        logger.warn("Message %s", "one"); // Different level, so it's not a repetition.
+        logger.warn("Message %s", "two");
+        logger.warn("Message %s", "two");
+        logger.info(() -> "Message three");
+        logger.info(() -> "Message three");
+        logger.finishInstance();
+        outMock.verifyAllOutputs("Message one", "Last message repeated 2 times", "Message one", "Message two", "Last message repeated 1 times",
+            "Message three", "Last message repeated 1 times");
+    }
+
+    @Test
+    void testCoalescedErrorsWithDifferentStackTraces() {
+        logger.coalesceRepeatedMessages(60_000);
+        for (int i = 0; i < 2; i++) // Same stacktrace, so the second one is a repetition.
+            logger.error(new IllegalStateException("Failure"), "Error");
+        logger.error(newFailureElsewhere(), "Error"); // Same class and message, but thrown from somewhere else.
+        logger.finishInstance();
+        assertEquals(3, outMock.messages.size());
+        assertEquals("Last message repeated 1 times", outMock.messages.get(1).substring(outMock.messages.get(1).indexOf("Last")));
+        assertTrue(outMock.messages.get(2).contains("newFailureElsewhere"), outMock.messages.get(2));
+    }
+
+    private static IllegalStateException newFailureElsewhere() {
+        return new IllegalStateException("Failure");
+    }
+
+    @Test
+    void testCoalescedMessagesTimer() throws Exception {
+        logger.coalesceRepeatedMessages(50);
+        logger.info("Message one");
+        logger.info("Message one");
+        logger.info("Message one");
+        outMock.verifyOutput("Message one");
+        for (int i = 0; i < 100 && outMock.messages.size() < 2; i++)
+            Thread.sleep(20);
+        outMock.verifyOutput("Message one", "Last message repeated 2 times");
+        logger.info("Message one");
+        logger.info("Message two");
+        outMock.verifyOutput("Message one", "Last message repeated 2 times", "Last message repeated 1 times", "Message two");
+    }
+
+    @Test
+    void testKeyValues() {
+        logger.info("Message %s", "one", KeyValue.kv("user", 42), KeyValue.kv("name", "John Doe"));
+        logger.info("Message two", KeyValue.kv("ms", 1.5));
+        outMock.verifyAllOutputs("Message one user=42 name=\"John Doe\"", "Message two ms=1.5");
+
+        outMock.clear(true);
+        logger.info("Message three", KeyValue.kv("note", "line one\r\nline\u0001two\t\"quoted\" \\"), KeyValue.kv("bell", "\u0007"));
+        outMock.verifyOutput("Message three note=\"line one\\r\\nline\\u0001two\\t\\\"quoted\\\" \\\\\" bell=\"\\u0007\"");
+
+        outMock.clear(true);
+        logger.logFormat = LogFormat.JSON;
+        logger.info("Message %s", "one", KeyValue.kv("user", 42));
+        var line = outMock.verifyOutput("\"msg\":\"Message one\",\"user\":42}").get(0);
+        assertTrue(line.startsWith("{\"time\":\""), line);
+        assertTrue(line.contains("\"level\":\"INFO\""), line);
+    }
+
+    @Test
+    void testLazyFormatting() {
+        var formatCount = new int[1];
+        var param = new Object() {
+            @Override
+            public String toString() {
+                formatCount[0]++;
+                return "two";
+            }
+        };
+        logger.preserveDiscardedMessages(true);
+        logger.debug("Message %s", param);
+        logger.bufferMessages(true);
+        logger.info("Message %s", param);
+        assertEquals(0, formatCount[0]);
+        logger.flushBufferedMessages();
+        assertEquals(1, formatCount[0]);
+        logger.flushDiscardedMessages();
+        assertEquals(2, formatCount[0]);
+    }
+
+    @Test
+    void testSupplierMessages() {
+        logger.debug(() -> { throw new AssertionError("Supplier of a discarded message mustn't be called"); });
+        logger.info(() -> "Message one");
+        logger.preserveDiscardedMessages(true);
+        logger.debug(() -> "Message %s two");
+        outMock.verifyAllOutputs("Message one");
+        outMock.clear(false);
+        logger.flushDiscardedMessages();
+        outMock.verifyAllOutputs("Message %s two");
+    }
+
     @Test
     void testDiscardedMessagesFail() {
         logger.info("Message one");
@@ -133,6 +369,43 @@ class BasicLoggerTest {
         outMock.verifyAllOutputs("12345(...)fghij");
     }
 
+    @Test
+    void testMaxMessageLengthWithHugeParameter() {
+        logger.maxMessageLength = 21;
+        String huge = "x".repeat(1_000_000);
+        logger.info("start %s end", huge, KeyValue.kv("id", 7));
+        String fullText = "start " + huge + " end id=7";
+        outMock.verifyAllOutputs(LineEncoderTest.reference(fullText, 21, 0));
+        assertEquals("start xxxx(...)xx end id=7", LineEncoderTest.reference(fullText, 21, 0));
+    }
+
+    @Test
+    void testMaxMessageLengthWithHugeCharSequence() {
+        logger.maxMessageLength = 21;
+        var huge = new CharSequence() { // A billion characters, which can't be copied whole.
+            public int length() {
+                return 1_000_000_000;
+            }
+            public char charAt(int index) {
+                return (char) ('a' + index % 26);
+            }
+            public CharSequence subSequence(int start, int end) {
+                return new StringBuilder(end - start).append(this, start, end);
+            }
+            @Override
+            public String toString() {
+                throw new AssertionError("The whole sequence mustn't be copied");
+            }
+        };
+        logger.info("start %s end", huge);
+        outMock.verifyAllOutputs("start abcde(...)fghijkl end");
+
+        logger.maxMessageLength = 100;
+        var builder = new StringBuilder("builder");
+        logger.info("[%s] [%-9s] [%9s] [%S] [%.3s]", builder, builder, builder, builder, builder);
+        outMock.verifyAllOutputs("start abcde(...)fghijkl end", String.format("[%s] [%-9s] [%9s] [%S] [%.3s]", builder, builder, builder, builder, builder));
+    }
+
     @Test
     void testMaxLineLength() {
         logger.maxLineLength = 5;
@@ -159,7 +432,12 @@ class BasicLoggerTest {
         assertEquals("\tEXCEPTION: org.opentest4j.TestAbortedException: Second Exception Message", out[1]);
         assertEquals("\tCAUSE: org.opentest4j.TestAbortedException: First Exception Message", out[2]);
         assertTrue(Arrays.asList(out).contains("CAUSED BY: org.opentest4j.TestAbortedException: First Exception Message"));
-        assertTrue(out.length > 100);
+        // Frames shared with the enclosing stacktrace are elided from the cause's stacktrace.
+        int causeIndex = Arrays.asList(out).indexOf("CAUSED BY: org.opentest4j.TestAbortedException: First Exception Message");
+        assertTrue(out[causeIndex + 2].startsWith("lcm.java.system.logging.BasicLoggerTest.testException(BasicLoggerTest.java:"));
+        assertTrue(out[causeIndex + 3].matches("\\.\\.\\. \\d+ more"), out[causeIndex + 3]);
+        assertEquals(causeIndex + 4, out.length);
+        assertTrue(out.length > 30);
     }
 
     @Test
@@ -181,9 +459,179 @@ class BasicLoggerTest {
         assertTrue(out[4].startsWith("lcm.java.system.logging.BasicLoggerTest.testExceptionStackTraceLimit(BasicLoggerTest.java:"));
 
         var lines = List.of(out);
-        assertEquals(2, lines.stream().filter(s -> s.equals("(...)")).count());
+        assertEquals(1, lines.stream().filter(s -> s.equals("(...)")).count());
         assertTrue(lines.contains("CAUSED BY: org.opentest4j.TestAbortedException: First Exception Message"));
-        assertTrue(out.length > 25 && out.length < 35);
+        assertTrue(out.length > 15 && out.length < 25);
+    }
+
+    @Test
+    void testSuppressedException() {
+        var e = new IllegalStateException("Main");
+        e.addSuppressed(new IllegalArgumentException("Suppressed"));
+        logger.error(e, "Failure");
+        var lines = List.of(outMock.messages.get(0).split(System.lineSeparator()));
+        int suppressedIndex = lines.indexOf("SUPPRESSED: java.lang.IllegalArgumentException: Suppressed");
+        assertTrue(suppressedIndex > 0);
+        assertEquals("STACKTRACE:", lines.get(suppressedIndex + 1));
+        assertTrue(lines.get(suppressedIndex + 3).matches("\\.\\.\\. \\d+ more"), lines.get(suppressedIndex + 3));
+    }
+
+    @Test
+    void testSinkQueue() throws Exception {
+        var entered = new java.util.concurrent.CountDownLatch(1);
+        var release = new java.util.concurrent.CountDownLatch(1);
+        var delivered = new java.util.concurrent.CopyOnWriteArrayList<String>();
+        logger.customOutputHandler = (level, text) -> {
+            entered.countDown();
+            try {
+                release.await(); // A stuck sink.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.add(text);
+        };
+        logger.setSinkQueue(LogSink.CUSTOM_OUTPUT_HANDLER, 2, BufferOverflowPolicy.DROP_NEWEST);
+        var queue = logger.sinkQueues.get(LogSink.CUSTOM_OUTPUT_HANDLER.ordinal());
+        logger.info("Message one");
+        entered.await();
+        for (String message : List.of("Message two", "Message three", "Message four", "Message five"))
+            logger.info(message); // The logging thread is not blocked by the stuck sink.
+        assertEquals(2, queue.getPendingMessages());
+        assertEquals(2, queue.getDroppedMessages());
+
+        release.countDown();
+        logger.drainSinkQueues();
+        assertEquals(3, queue.getDeliveredMessages());
+        assertTrue(delivered.get(2).endsWith("Message three"));
+        assertTrue(queue.getLagP99Nanos() > 0);
+
+        logger.setSinkQueue(LogSink.CUSTOM_OUTPUT_HANDLER, 0, null);
+        assertTrue(logger.sinkQueues.get(LogSink.CUSTOM_OUTPUT_HANDLER.ordinal()) == null);
+        logger.info("Message six");
+        assertTrue(delivered.get(3).endsWith("Message six"));
+        assertThrows(IllegalArgumentException.class, () -> logger.setSinkQueue(LogSink.SYSTEM_LOGGER, 10, BufferOverflowPolicy.FLUSH));
+    }
+
+    @Test
+    void testBlockingSinkQueue() throws Exception {
+        var entered = new java.util.concurrent.CountDownLatch(1);
+        var release = new java.util.concurrent.CountDownLatch(1);
+        var delivered = new java.util.concurrent.CopyOnWriteArrayList<String>();
+        logger.customOutputHandler = (level, text) -> {
+            entered.countDown();
+            try {
+                release.await(); // A stuck sink.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.add(text);
+        };
+        logger.setSinkQueue(LogSink.CUSTOM_OUTPUT_HANDLER, 1, BufferOverflowPolicy.BLOCK);
+        logger.info("Message one");
+        entered.await();
+        Thread producer = new Thread(() -> List.of("Message two", "Message three").forEach(m -> logger.info(m)));
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive()); // Waiting for room in the queue.
+        Thread locker = new Thread(() -> {
+            synchronized (logger) { } // The logger's lock is free while the producer waits.
+        });
+        locker.start();
+        locker.join(1000);
+        assertTrue(!locker.isAlive());
+
+        release.countDown();
+        logger.setSinkQueue(LogSink.CUSTOM_OUTPUT_HANDLER, 0, null); // Shuts the queue down while the producer may still be waiting.
+        producer.join();
+        logger.info("Message four");
+        assertEquals(4, delivered.size());
+        for (int i = 0; i < 4; i++)
+            assertTrue(delivered.get(i).endsWith(List.of("one", "two", "three", "four").get(i)), delivered.get(i));
+    }
+
+    @Test
+    void testDeferredStackTrace() {
+        var stackTraceCalls = new java.util.concurrent.atomic.AtomicInteger();
+        var e = new IllegalStateException("100% failed") {
+            @Override
+            public StackTraceElement[] getStackTrace() {
+                stackTraceCalls.incrementAndGet();
+                return super.getStackTrace();
+            }
+        };
+        logger.bufferMessages(1, BufferOverflowPolicy.DROP_NEWEST);
+        logger.info("Message one");
+        logger.error(e, "Dropped error %d", 1);
+        assertEquals(0, stackTraceCalls.get());
+        logger.flushBufferedMessages();
+        outMock.verifyOutput("Message one");
+
+        outMock.clear(false);
+        logger.bufferMessages(true);
+        logger.error(e, "Buffered error %d", 2);
+        assertEquals(0, stackTraceCalls.get());
+        logger.flushBufferedMessages();
+        assertEquals(1, stackTraceCalls.get());
+        var lines = outMock.messages.get(0).split(System.lineSeparator());
+        assertTrue(lines[0].endsWith("[ERROR] Buffered error 2"));
+        assertTrue(lines[1].startsWith("\tEXCEPTION: ") && lines[1].endsWith(": 100% failed"), lines[1]);
+
+        logger.bufferMessages(false);
+        logger.deduplicateStackTraces(true);
+        logger.error(e, "Deduplicated error %d", 3); // The same stacktrace is used for the fingerprint and the frames.
+        assertEquals(2, stackTraceCalls.get());
+        assertTrue(outMock.messages.get(outMock.messages.size() - 1).contains("STACKTRACE #"));
+    }
+
+    @Test
+    void testDeduplicatedStackTraces() {
+        logger.deduplicateStackTraces(true);
+        for (int i = 0; i < 3; i++) {
+            try {
+                throw new IllegalStateException("Failure " + i);
+            } catch (IllegalStateException e) {
+                logger.error(e, "Error");
+            }
+        }
+        logger.error(new IllegalStateException("Other"), "Error");
+        assertEquals(4, outMock.messages.size());
+        var first = outMock.messages.get(0).split(System.lineSeparator());
+        assertTrue(first[2].matches("STACKTRACE #[0-9a-f]+:"), first[2]);
+        String id = first[2].substring("STACKTRACE ".length(), first[2].length() - 1);
+        for (int i = 1; i < 3; i++) {
+            var repeated = outMock.messages.get(i).split(System.lineSeparator());
+            assertEquals("\tEXCEPTION: java.lang.IllegalStateException: Failure " + i, repeated[1]);
+            assertEquals("STACKTRACE: same as " + id, repeated[2]);
+            assertEquals(3, repeated.length);
+        }
+        var other = outMock.messages.get(3).split(System.lineSeparator());
+        assertTrue(other[2].startsWith("STACKTRACE #") && !other[2].contains(id), other[2]);
+    }
+
+    @Test
+    void testDeduplicatedStackTracesWithOtherOutputs(@TempDir Path tempDir) throws Exception {
+        logger.deduplicateStackTraces(true);
+        var jsonFile = tempDir.resolve("deduplicated.json");
+        logger.setFilePath(jsonFile.toString());
+        logger.logFormat = LogFormat.JSON;
+        logger.logTail = new LogTail(8, 100_000); // Gets the message's text before the file does.
+        logger.error(new IllegalStateException("JSON failure"), "Error");
+        logger.closeFile();
+        var jsonLine = Files.readAllLines(jsonFile).get(0);
+        assertTrue(jsonLine.contains("STACKTRACE #") && !jsonLine.contains("same as"), jsonLine);
+        assertTrue(logger.logTail.last(1).get(0).getText().contains("STACKTRACE #"));
+
+        var binaryFile = tempDir.resolve("deduplicated.bin");
+        logger.setFilePath(binaryFile.toString());
+        logger.logFormat = LogFormat.BINARY;
+        logger.logTail = null;
+        logger.error(new IllegalStateException("Binary failure"), "Error"); // The other outputs get the text before the file.
+        logger.closeFile();
+        try (var decoder = new BinaryLogDecoder(binaryFile).withDateTimeFormat(DateTimeFormatter.ISO_LOCAL_DATE_TIME)) {
+            var decoded = decoder.readLine();
+            assertTrue(decoded.contains("STACKTRACE #") && !decoded.contains("same as"), decoded);
+            assertEquals(outMock.messages.get(outMock.messages.size() - 1), decoded);
+        }
     }
 
     @Test
@@ -211,14 +659,358 @@ class BasicLoggerTest {
 
     @Test
     void testAppendFail() {
-        var testFile = Filer.get(OutputHandlerMock.TEST_FILE);
-        testFile.getFile().setWritable(true);
         logger.info("Message one");
-        testFile.getFile().setReadOnly();
+        logger.fileAppender.close(); // Simulates an I/O failure, since the file is kept open by the logger.
         logger.info("Message two"); // can't throw exception
         outMock.verifyFileOutput("Message one");
         assertTrue(OutputHandlerMock.PS_MOCK.printedLines.size() > 2);
-        testFile.getFile().setWritable(true);
+    }
+
+    @Test
+    void testFileBuffering() {
+        logger.setFileOptions(FileOptions.DEFAULT.withBuffering(1024, 0));
+        logger.info("Message one");
+        logger.info("Message two");
+        assertTrue(Filer.get(OutputHandlerMock.TEST_FILE).read().isEmpty());
+        logger.warn("Message three"); // Messages with level WARN or higher are written immediately.
+        outMock.verifyFileOutput("Message one", "Message two", "Message three");
+        logger.info("Message four");
+        logger.finishInstance();
+        outMock.verifyFileOutput("Message one", "Message two", "Message three", "Message four");
+    }
+
+    @Test
+    void testFileRolling(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("rolling.log");
+        logger.setFilePath(file.toString());
+        logger.setFileOptions(FileOptions.DEFAULT.withRolling(200, 0, 0));
+        for (int i = 0; i < 50; i++)
+            logger.info("Message %02d", i);
+        logger.closeFile();
+
+        var lines = readArchivesAndFile(file, 0);
+        assertEquals(50, lines.size());
+        for (int i = 0; i < 50; i++)
+            assertTrue(lines.get(i).endsWith("Message " + String.format("%02d", i)));
+
+        // Archives are named in UTC, so they keep sorting by time when the local clock goes back.
+        var utcFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(java.time.ZoneOffset.UTC);
+        try (var files = Files.list(tempDir)) {
+            for (var archive : files.filter(f -> f.toString().endsWith(".gz")).toList()) {
+                String date = archive.getFileName().toString().substring("rolling.log.".length(), "rolling.log.".length() + 19);
+                var age = Duration.between(Instant.from(utcFormat.parse(date)), Instant.now());
+                assertTrue(!age.isNegative() && age.compareTo(Duration.ofMinutes(1)) < 0, archive.toString());
+            }
+        }
+    }
+
+    @Test
+    void testFileRollingMaxArchives(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("rolling.log");
+        logger.setFilePath(file.toString());
+        logger.setFileOptions(FileOptions.DEFAULT.withRolling(200, 0, 2));
+        for (int i = 0; i < 50; i++)
+            logger.info("Message %02d", i);
+        logger.closeFile();
+
+        var lines = readArchivesAndFile(file, 2);
+        assertTrue(lines.size() < 50);
+        assertTrue(lines.get(lines.size() - 1).endsWith("Message 49"));
+    }
+
+    @Test
+    void testFileRollingWhenArchiveCannotBeWritten(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("a".repeat(240) + ".log"); // The archive's name would be longer than file systems allow.
+        logger.setFilePath(file.toString());
+        logger.setFileOptions(FileOptions.DEFAULT.withRolling(200, 0, 0));
+        for (int i = 0; i < 20; i++)
+            logger.info("Message %02d", i);
+        logger.closeFile();
+
+        var lines = Files.readAllLines(file);
+        assertEquals(20, lines.size());
+        assertTrue(lines.get(19).endsWith("Message 19"));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testArchiveOrder() {
+        var archives = new ArrayList<Path>();
+        for (String suffix : List.of(".20240101-120000-000-10.gz", ".20240101-120000-000-2", ".20240101-120000-000.gz", ".20231231-235959-999-11.gz"))
+            archives.add(Path.of("app.log" + suffix));
+        archives.sort(FileAppender.ARCHIVE_ORDER);
+        assertEquals(List.of("app.log.20231231-235959-999-11.gz", "app.log.20240101-120000-000.gz", "app.log.20240101-120000-000-2",
+            "app.log.20240101-120000-000-10.gz"), archives.stream().map(Path::toString).toList());
+    }
+
+    @Test
+    void testCompressedFile(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("compressed.log.gz");
+        logger.setFilePath(file.toString());
+        logger.setFileOptions(FileOptions.DEFAULT.withCompression(6, 0));
+        for (int i = 0; i < 100; i++)
+            logger.info("Message %02d", i);
+        try (var reader = LogFiles.newCompressedReader(file)) { // Still being written, readable up to the last sync.
+            List<String> lines = reader.lines().toList();
+            assertEquals(100, lines.size());
+            assertTrue(lines.get(99).endsWith("Message 99"));
+        }
+        logger.closeFile();
+        logger.setFilePath(file.toString()); // Reopening appends a new GZIP member.
+        logger.info("Message after reopening");
+        logger.closeFile();
+        try (var reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file))))) {
+            List<String> lines = reader.lines().toList();
+            assertEquals(101, lines.size());
+            assertTrue(lines.get(100).endsWith("Message after reopening"));
+        }
+        assertTrue(Files.size(file) < 101 * 30);
+
+        // Closed complete, so reopening it doesn't decompress it again, unless someone else changes it (here, starting a member never finished).
+        assertTrue(FileAppender.COMPLETE_FILES.containsKey(file.toRealPath()));
+        var unfinished = new java.io.ByteArrayOutputStream();
+        var member = new GZIPOutputStream(unfinished, true);
+        member.write("Written by someone else\n".getBytes());
+        member.flush();
+        Files.write(file, unfinished.toByteArray(), java.nio.file.StandardOpenOption.APPEND);
+        logger.setFilePath(file.toString());
+        logger.closeFile();
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.filter(f -> f.getFileName().toString().startsWith("compressed.log.gz.")).count());
+        }
+    }
+
+    @Test
+    void testCompressedFileNotClosed(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("crashed.log.gz");
+        var crashed = new GZIPOutputStream(Files.newOutputStream(file), true); // Synced but never finished, as if the process had crashed.
+        crashed.write(("Message before crash" + System.lineSeparator()).getBytes());
+        crashed.flush();
+        logger.fileOptions = FileOptions.DEFAULT.withCompression(6, 0);
+        logger.setFilePath(file.toString());
+        logger.info("Message after crash");
+        logger.closeFile();
+
+        assertEquals(List.of("Message after crash"), readCompressed(file).stream().map(l -> l.substring(l.length() - 19)).toList());
+        try (var files = Files.list(tempDir)) {
+            var archives = files.filter(f -> !f.equals(file)).toList();
+            assertEquals(1, archives.size());
+            assertTrue(archives.get(0).getFileName().toString().matches("crashed\\.log\\.gz\\.\\d{8}-\\d{6}-\\d{3}\\.gz"));
+        }
+    }
+
+    @Test
+    void testCompressionChangeRollsFile(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("toggled.log");
+        var other = new BasicLogger(); // Keeps the appender open, so the options change on it instead of a new one.
+        other.setFilePath(file.toString());
+        logger.setFilePath(file.toString());
+        logger.info("Plain message");
+        logger.setFileOptions(FileOptions.DEFAULT.withCompression(6, 0));
+        logger.info("Compressed message");
+        logger.setFileOptions(FileOptions.DEFAULT);
+        logger.info("Plain message again");
+        logger.closeFile();
+        other.closeFile();
+
+        assertTrue(Files.readAllLines(file).get(0).endsWith("Plain message again"));
+        List<Path> archives = List.of();
+        for (int i = 0; i < 100 && archives.stream().filter(f -> f.toString().endsWith(".gz")).count() < 2; i++) {
+            Thread.sleep(50); // The plain archive is compressed in the background.
+            try (var files = Files.list(tempDir)) {
+                archives = files.filter(f -> !f.equals(file)).sorted(FileAppender.ARCHIVE_ORDER).toList();
+            }
+        }
+        assertEquals(2, archives.size());
+        assertTrue(readCompressed(archives.get(0)).get(0).endsWith("Plain message"));
+        assertTrue(readCompressed(archives.get(1)).get(0).endsWith("Compressed message"));
+    }
+
+    private static List<String> readCompressed(Path file) throws IOException {
+        try (var reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file))))) {
+            return reader.lines().toList();
+        }
+    }
+
+    @Test
+    void testTimeIndex(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("indexed.log");
+        logger.setFilePath(file.toString());
+        logger.setFileOptions(FileOptions.DEFAULT.withIndex(20));
+        for (int i = 0; i < 50; i++)
+            logger.info("Before %02d", i);
+        Thread.sleep(60);
+        Instant from = Instant.now();
+        for (int i = 0; i < 3; i++)
+            logger.info("Inside %02d", i);
+        logger.warn("Inside warning");
+        Thread.sleep(60);
+        Instant to = Instant.now();
+        for (int i = 0; i < 50; i++)
+            logger.info("After %02d", i);
+        logger.closeFile();
+
+        assertTrue(Files.exists(file.resolveSibling("indexed.log.idx")));
+        try (var lines = LogFiles.readTimeRange(file, from, to)) {
+            List<String> selected = lines.toList();
+            assertEquals(4, selected.size());
+            assertTrue(selected.get(0).endsWith("Inside 00"));
+            assertTrue(selected.get(3).endsWith("Inside warning"));
+        }
+        var counts = LogFiles.countMessages(file, from, to);
+        assertEquals(3, (long) counts.get(LogLevel.INFO));
+        assertEquals(1, (long) counts.get(LogLevel.WARN));
+        try (var lines = LogFiles.readTimeRange(file, null, null)) {
+            assertEquals(104, lines.count());
+        }
+
+        // A file replaced behind the logger's back keeps the previous index, which must not be trusted.
+        Files.write(file, List.of("replaced one", "replaced two"));
+        try (var lines = LogFiles.readTimeRange(file, from, to)) {
+            assertEquals(List.of("replaced one", "replaced two"), lines.toList());
+        }
+        assertThrows(IOException.class, () -> LogFiles.countMessages(file, from, to));
+    }
+
+    @Test
+    void testLogTail() throws Exception {
+        logger.logTail = new LogTail(8, 20);
+        for (int i = 0; i < 10; i++)
+            logger.info("Info %d", i);
+        logger.warn("Warning one");
+        logger.info("Info after warning");
+        logger.error("Error with a text too long to be kept whole");
+        logger.warn("Warning two");
+
+        var last = logger.logTail.last(100);
+        assertEquals(8, last.size());
+        assertEquals("Info 6", last.get(0).getText());
+        assertEquals("Warning two", last.get(7).getText());
+        assertEquals("Error with(...) kept whole", last.get(6).getText());
+
+        var warnings = logger.logTail.query(LogLevel.WARN, Duration.ofMinutes(10), 2);
+        assertEquals(List.of(LogLevel.ERROR, LogLevel.WARN), warnings.stream().map(LogTail.Entry::getLevel).toList());
+        assertEquals(3, logger.logTail.query(LogLevel.WARN, (Instant) null, 500).size());
+        assertEquals(0, logger.logTail.query(LogLevel.DEBUG, Instant.now().plusSeconds(60), 500).size());
+
+        var tail = new LogTail(64);
+        var writers = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    tail.add(System.currentTimeMillis(), i % 10 == 0 ? LogLevel.WARN : LogLevel.INFO, null, thread + "-" + i);
+            }));
+        }
+        writers.forEach(Thread::start);
+        while (writers.stream().anyMatch(Thread::isAlive)) {
+            for (var entry : tail.query(LogLevel.WARN, (Instant) null, 10)) {
+                assertEquals(LogLevel.WARN, entry.getLevel());
+                assertTrue(entry.getText().endsWith("0"));
+            }
+        }
+        for (var writer : writers)
+            writer.join();
+        assertEquals(64, tail.last(100).stream().map(LogTail.Entry::getText).distinct().count());
+    }
+
+    @Test
+    void testBinaryFormat(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("binary.log");
+        logger.setFilePath(file.toString());
+        logger.logFormat = LogFormat.BINARY;
+        logger.customHeader = "HEADER ";
+        logger.info("Message %d %d %.2f %s %s %c %x", 1, -2L, 3.5, "four", null, 'c', new java.math.BigInteger("255"));
+        logger.warn("Message without params, 100%%");
+        logger.info(() -> "Supplied %s");
+        logger.logMessage(LogLevel.INFO, true, "db.pool", "Connections %d", 10, KeyValue.kv("idle", 3), KeyValue.kv("name", "main pool"));
+        logger.error(new IllegalStateException("Failure"), "Message %s", "five");
+        logger.customOutputHandler = null;
+        logger.systemLogger = null;
+        logger.printStream = null;
+        logger.utilLogger = null;
+        logger.info("Invalid format %d", "text"); // Only the file gets it, so it's only formatted when decoded.
+        logger.closeFile();
+        List<String> decoded;
+        try (var decoder = new BinaryLogDecoder(file).withDateTimeFormat(DateTimeFormatter.ISO_LOCAL_DATE_TIME)) {
+            decoded = decoder.lines().toList();
+        }
+        var texts = outMock.messages;
+        assertEquals(texts.subList(0, 5), decoded.subList(0, 5));
+        assertTrue(decoded.get(5).endsWith("Invalid format %d [text]"));
+
+        try (var decoder = new BinaryLogDecoder(file).withMinimumLevel(LogLevel.WARN)) {
+            assertEquals(2, decoder.lines().count());
+        }
+        try (var decoder = new BinaryLogDecoder(file).between(java.time.Instant.now().plusSeconds(60), null)) {
+            assertEquals(null, decoder.readLine());
+        }
+    }
+
+    @Test
+    void testBinaryFormatPlainTexts(@TempDir Path tempDir) throws Exception {
+        var writer = new BinaryLogWriter();
+        for (int i = 0; i < BinaryLogWriter.MAX_DICTIONARY_SIZE + 10; i++)
+            writer.encodeEvent(i, LogLevel.INFO, null, null, "Plain text " + i, i % 2 == 0 ? BasicLogger.NO_PARAMS : null, BasicLogger.NO_KEY_VALUES, null);
+        assertEquals(0, writer.dictionarySize()); // Plain texts are written inline, so format strings still fit in the dictionary.
+        writer.encodeEvent(0, LogLevel.INFO, null, null, "Formatted %d", new Object[] {1}, BasicLogger.NO_KEY_VALUES, null);
+        assertEquals(1, writer.dictionarySize());
+
+        var file = tempDir.resolve("plain.log");
+        logger.setFilePath(file.toString());
+        logger.logFormat = LogFormat.BINARY;
+        logger.customOutputHandler = null;
+        logger.systemLogger = null;
+        logger.printStream = null;
+        logger.utilLogger = null;
+        for (int i = 0; i < 1000; i++)
+            logger.info("Plain text " + i);
+        logger.info("Formatted %d", 1);
+        logger.closeFile();
+        try (var decoder = new BinaryLogDecoder(file)) {
+            List<String> decoded = decoder.lines().toList();
+            assertEquals(1001, decoded.size());
+            assertTrue(decoded.get(999).endsWith("Plain text 999"));
+            assertTrue(decoded.get(1000).endsWith("Formatted 1"));
+        }
+    }
+
+    /**
+     * Waits for all archives to be compressed (and the old ones deleted), and returns their lines (from the oldest) followed by the current file's lines.
+     */
+    static List<String> readArchivesAndFile(Path file, int maxArchives) throws Exception {
+        List<Path> archives = List.of();
+        for (int i = 0; i < 100; i++) {
+            try (var files = Files.list(file.getParent())) {
+                archives = files.filter(f -> f.getFileName().toString().startsWith(file.getFileName() + "."))
+                    .sorted(FileAppender.ARCHIVE_ORDER).toList();
+            }
+            if (archives.stream().allMatch(f -> f.toString().endsWith(".gz")) && (maxArchives == 0 || archives.size() <= maxArchives))
+                break;
+            Thread.sleep(50);
+        }
+        if (maxArchives > 0)
+            assertEquals(maxArchives, archives.size());
+        var lines = new ArrayList<String>();
+        for (Path archive : archives) {
+            assertTrue(archive.toString().endsWith(".gz"));
+            try (var in = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(archive))))) {
+                in.lines().forEach(lines::add);
+            }
+        }
+        lines.addAll(Files.readAllLines(file));
+        return lines;
+    }
+
+    @Test
+    void testFileBufferingInterval() throws InterruptedException {
+        logger.setFileOptions(FileOptions.DEFAULT.withBuffering(1024, 50));
+        logger.info("Message one");
+        assertTrue(Filer.get(OutputHandlerMock.TEST_FILE).read().isEmpty());
+        Thread.sleep(300);
+        outMock.verifyFileOutput("Message one");
     }
 
 }
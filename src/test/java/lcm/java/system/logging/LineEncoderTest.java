@@ -0,0 +1,107 @@
+package lcm.java.system.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.format.DateTimeFormatter;
+import java.util.StringJoiner;
+
+import org.junit.jupiter.api.Test;
+
+class LineEncoderTest {
+
+    static final String SEP = System.lineSeparator();
+    static final DateTimeFormatter SECONDS_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final DateTimeFormatter MILLIS_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    LineEncoder encoder = new LineEncoder();
+
+    /**
+     * The previous implementation, based on substring, split and StringJoiner, used as reference.
+     */
+    static String reference(String text, int maxMessageLength, int maxLineLength) {
+        if (maxMessageLength > 0 && text.length() > maxMessageLength) {
+            int charsToCut = text.length() - maxMessageLength;
+            int cutStartIndex = text.length() / 2 - charsToCut / 2;
+            int cutEndIndex = text.length() / 2 + charsToCut / 2;
+            text = text.substring(0, cutStartIndex) + "(...)" + text.substring(cutEndIndex);
+        }
+        if (maxLineLength > 0 && text.length() > maxLineLength) {
+            StringJoiner sj = new StringJoiner(SEP + "\t");
+            for (String line : text.split(SEP)) {
+                while (line.length() > maxLineLength) {
+                    sj.add(line.substring(0, maxLineLength));
+                    line = line.substring(maxLineLength);
+                }
+                sj.add(line);
+            }
+            text = sj.toString();
+        }
+        return text;
+    }
+
+    @Test
+    void testSameOutputAsReference() {
+        String[] texts = {"", "short", "1234567890abcdefghij", "12345" + SEP + "67890abcdefghij" + SEP,
+            SEP + "line" + SEP + SEP + "another line that is long" + SEP + SEP, "exactly10c" + SEP + "exactly10c"};
+        int[] limits = {0, 1, 3, 5, 10, 11, 30};
+        for (String text : texts)
+            for (int maxMessageLength : limits)
+                for (int maxLineLength : limits) {
+                    // Texts reach the encoder already cut, as the logger formats them.
+                    String cut = maxMessageLength > 0 ? new BoundedText(maxMessageLength).append(text).toString() : text;
+                    String line = encoder.encode(0, LogLevel.INFO, cut, SECONDS_FORMAT, "HEADER ", null, maxLineLength).toString();
+                    String expectedText = reference(text, maxMessageLength, maxLineLength);
+                    assertEquals(encoder.formatDate(0, SECONDS_FORMAT) + " [INFO] HEADER " + expectedText, line,
+                        "Text '" + text + "' with limits " + maxMessageLength + "/" + maxLineLength);
+                }
+    }
+
+    @Test
+    void testBoundedTextSameCutAsReference() {
+        StringBuilder sb = new StringBuilder();
+        for (int length = 0; length <= 60; length++) {
+            String text = sb.toString();
+            for (int limit = 1; limit <= 25; limit++) {
+                String expected = reference(text, limit, 0);
+                assertEquals(expected, new BoundedText(limit).append(text).toString());
+                var byChar = new BoundedText(limit);
+                for (char c : text.toCharArray())
+                    byChar.append(c);
+                assertEquals(expected, byChar.toString());
+                var byChunk = new BoundedText(limit);
+                for (int i = 0; i < text.length(); i += 7)
+                    byChunk.append(text, i, Math.min(i + 7, text.length()));
+                assertEquals(expected, byChunk.toString(), "Length " + length + " with limit " + limit);
+            }
+            sb.append((char) ('a' + length % 26));
+        }
+    }
+
+    @Test
+    void testJson() {
+        var keyValues = new KeyValue[] {KeyValue.kv("user", 42), KeyValue.kv("ms", 1.5), KeyValue.kv("ok", true),
+            KeyValue.kv("name", "a \"quoted\"\n\u0001name"), KeyValue.kv("boxed", (Object) 7), KeyValue.kv("none", null), KeyValue.kv("nan", Double.NaN)};
+        String line = encoder.encodeJson(0, LogLevel.WARN, "Message\twith \\ tab", keyValues, SECONDS_FORMAT, "", null).toString();
+        assertEquals("{\"time\":\"" + encoder.formatDate(0, SECONDS_FORMAT) + "\",\"level\":\"WARN\",\"msg\":\"Message\\twith \\\\ tab\","
+            + "\"user\":42,\"ms\":1.5,\"ok\":true,\"name\":\"a \\\"quoted\\\"\\n\\u0001name\",\"boxed\":7,\"none\":null,\"nan\":\"NaN\"}", line);
+
+        line = encoder.encodeJson(0, LogLevel.INFO, "12345(...)fghij", new KeyValue[0], SECONDS_FORMAT, "HEADER", null).toString();
+        assertTrue(line.endsWith("\"level\":\"INFO\",\"header\":\"HEADER\",\"msg\":\"12345(...)fghij\"}"), line);
+    }
+
+    @Test
+    void testCachedDate() {
+        String date = encoder.formatDate(1_000, SECONDS_FORMAT);
+        assertSame(date, encoder.formatDate(1_999, SECONDS_FORMAT));
+        assertNotSame(date, encoder.formatDate(2_000, SECONDS_FORMAT));
+
+        date = encoder.formatDate(1_000, MILLIS_FORMAT);
+        assertSame(date, encoder.formatDate(1_000, MILLIS_FORMAT));
+        assertNotSame(date, encoder.formatDate(1_001, MILLIS_FORMAT));
+        assertEquals(".001", encoder.formatDate(1_001, MILLIS_FORMAT).substring(8));
+    }
+
+}
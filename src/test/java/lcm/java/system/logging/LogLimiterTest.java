@@ -0,0 +1,92 @@
+package lcm.java.system.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LogLimiterTest {
+
+    BasicLogger logger;
+    OutputHandlerMock outMock = new OutputHandlerMock();
+
+    @BeforeEach
+    void init() {
+        logger = new BasicLogger();
+        logger.minimumLevel = LogLevel.INFO;
+        logger.dateTimeFormat = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        logger.customHeader = "";
+        logger.customOutputHandler = outMock;
+    }
+
+    @Test
+    void testRateLimit() {
+        var limiter = LogLimiter.perPeriod(3, Duration.ofHours(1));
+        for (int i = 0; i < 10; i++) {
+            logger.logMessage(limiter, LogLevel.WARN, "Message %d", i);
+            logger.logMessage(limiter, LogLevel.INFO, "Other %d", i);
+        }
+        logger.logMessage(limiter, LogLevel.DEBUG, "Message %d", 10); // Disabled, so it's not counted.
+        outMock.verifyOutput("Message 0", "Other 0", "Message 1", "Other 1", "Message 2", "Other 2");
+        assertEquals(14, limiter.getPendingSkippedMessages());
+
+        outMock.clear(false);
+        limiter.reportSkippedMessages();
+        assertEquals(0, limiter.getPendingSkippedMessages());
+        assertEquals(1, outMock.messages.size());
+        var summary = outMock.messages.get(0);
+        assertTrue(summary.contains("in the last 60s:"), summary);
+        assertTrue(summary.contains("[WARN]"), summary);
+        assertTrue(summary.contains("7 x \"Message %d\""), summary);
+        assertTrue(summary.contains("7 x \"Other %d\""), summary);
+    }
+
+    @Test
+    void testParallelRateLimit() throws Exception {
+        var limiter = LogLimiter.perPeriod(1000, Duration.ofHours(1));
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++)
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                    logger.logMessage(limiter, LogLevel.INFO, "Message");
+            }));
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(1000, outMock.messages.size());
+        assertEquals(7000, limiter.getPendingSkippedMessages());
+    }
+
+    @Test
+    void testSampling() {
+        var limiter = LogLimiter.sampling(3);
+        for (int i = 0; i < 7; i++)
+            logger.logMessage(limiter, LogLevel.INFO, "Message %d", i);
+        outMock.verifyOutput("Message 0", "Message 3", "Message 6");
+        assertEquals(4, limiter.getPendingSkippedMessages());
+    }
+
+    @Test
+    void testPeriodicSummary() throws Exception {
+        var limiter = LogLimiter.perPeriod(1, Duration.ofHours(1)).withSummaryInterval(Duration.ofMillis(50));
+        logger.logMessage(limiter, LogLevel.INFO, "Message");
+        logger.logMessage(limiter, LogLevel.INFO, "Message");
+        for (int i = 0; i < 100 && outMock.messages.size() < 2; i++)
+            Thread.sleep(20);
+        assertEquals(0, limiter.getPendingSkippedMessages());
+        outMock.verifyOutput("Message", "in the last 50ms: 1 x \"Message\"");
+    }
+
+    @Test
+    void testInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> LogLimiter.perSecond(0));
+        assertThrows(IllegalArgumentException.class, () -> LogLimiter.sampling(0));
+        assertThrows(IllegalArgumentException.class, () -> LogLimiter.perPeriod(1, Duration.ZERO));
+    }
+}
@@ -0,0 +1,140 @@
+package lcm.java.system.logging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OLogTest {
+
+    static final Object PARAM_1 = "one";
+    static final Object PARAM_2 = "two";
+    static final Object PARAM_3 = "three";
+    static final Object PARAM_4 = "four";
+    static final int ITERATIONS = 100_000;
+
+    OutputHandlerMock outMock = new OutputHandlerMock();
+
+    @BeforeEach
+    void init() {
+        OLog.setMinimumLevel(LogLevel.INFO);
+        OLog.setCustomOutputHandler(outMock);
+    }
+
+    @AfterEach
+    void reset() {
+        OLog.setCustomOutputHandler(null);
+        outMock.clear(true);
+    }
+
+    @Test
+    void testLevelChecks() {
+        assertFalse(OLog.isDebugEnabled());
+        assertTrue(OLog.isInfoEnabled());
+        assertTrue(OLog.isEnabled(LogLevel.ERROR));
+        OLog.setMinimumLevel(LogLevel.DEBUG);
+        assertTrue(OLog.isDebugEnabled());
+    }
+
+    @Test
+    void testFixedArityOverloads() {
+        OLog.info("Message");
+        OLog.info("Message %s", PARAM_1);
+        OLog.info("Message %s %s", PARAM_1, PARAM_2);
+        OLog.info("Message %s %s %s", PARAM_1, PARAM_2, PARAM_3);
+        OLog.info("Message %s %s %s %s", PARAM_1, PARAM_2, PARAM_3, PARAM_4);
+        OLog.debug("Message %s", PARAM_1);
+        outMock.verifyOutput("Message", "Message one", "Message one two", "Message one two three", "Message one two three four");
+    }
+
+    @Test
+    void testCategories() {
+        LogCategory db = OLog.category("test.db");
+        LogCategory pool = OLog.category("test.db.pool");
+        assertEquals(LogLevel.INFO, pool.getEffectiveLevel());
+        db.setMinimumLevel(LogLevel.DEBUG);
+        assertTrue(pool.isDebugEnabled());
+        assertFalse(OLog.isDebugEnabled());
+        pool.setMinimumLevel(LogLevel.WARN);
+        assertEquals(LogLevel.DEBUG, db.getEffectiveLevel());
+        assertEquals(LogLevel.WARN, pool.getEffectiveLevel());
+        assertEquals(LogLevel.DEBUG, OLog.category("test.db.query").getEffectiveLevel());
+
+        db.debug("Message %s", PARAM_1);
+        pool.info("Message %s", PARAM_2);
+        pool.warn("Message %s", PARAM_3);
+        outMock.verifyOutput("[test.db] Message one", "[test.db.pool] Message three");
+
+        db.setMinimumLevel(null);
+        pool.setMinimumLevel(null);
+        OLog.setMinimumLevel(LogLevel.ERROR);
+        assertEquals(LogLevel.ERROR, pool.getEffectiveLevel());
+        assertEquals(pool, OLog.category("test.db.pool"));
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        var metrics = OLog.getMetrics();
+        long infoMessages = metrics.getInfoMessages();
+        long warnMessages = metrics.getWarnMessages();
+        long debugMessages = metrics.getDebugMessages();
+        OLog.info("Message one");
+        OLog.warn("Message two");
+        OLog.debug("Message three");
+        assertEquals(infoMessages + 1, metrics.getInfoMessages());
+        assertEquals(warnMessages + 1, metrics.getWarnMessages());
+        assertEquals(debugMessages, metrics.getDebugMessages());
+        assertTrue(metrics.getLogLatencyP99Nanos() > 0);
+
+        var mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        var name = new javax.management.ObjectName(LogMetrics.OBJECT_NAME);
+        assertEquals(metrics.getInfoMessages(), (Long) mbeanServer.getAttribute(name, "InfoMessages"));
+    }
+
+    @Test
+    void testLatencyHistogram() {
+        var histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++)
+            histogram.record(100);
+        histogram.record(5000);
+        assertEquals(128, histogram.percentile(0.5));
+        assertEquals(128, histogram.percentile(0.99));
+        assertEquals(8192, histogram.percentile(1));
+        assertEquals(99, histogram.snapshot()[7]); // From 64 to 127 nanoseconds.
+        assertEquals(1, histogram.snapshot()[13]); // From 4096 to 8191 nanoseconds.
+        histogram.reset();
+        assertEquals(0, histogram.percentile(0.5));
+    }
+
+    @Test
+    void testDisabledLevelAllocation() {
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        logDisabledMessages(); // Warm up, so class loading and compilation don't count.
+        long measurementCost = threadBean.getCurrentThreadAllocatedBytes();
+        measurementCost = threadBean.getCurrentThreadAllocatedBytes() - measurementCost;
+
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        logDisabledMessages();
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - before - measurementCost;
+        // A few bytes may come from the JVM itself (e.g. compilation), but any allocation per call would take at least 16 bytes each.
+        long calls = ITERATIONS * 5L;
+        assertEquals(0, allocated / calls, () -> "Disabled log calls allocated " + allocated + " bytes");
+        outMock.verifyOutput();
+    }
+
+    private void logDisabledMessages() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            OLog.debug("Message");
+            OLog.debug("Message %s", PARAM_1);
+            OLog.debug("Message %s %s", PARAM_1, PARAM_2);
+            OLog.debug("Message %s %s %s", PARAM_1, PARAM_2, PARAM_3);
+            OLog.debug("Message %s %s %s %s", PARAM_1, PARAM_2, PARAM_3, PARAM_4);
+        }
+    }
+
+}
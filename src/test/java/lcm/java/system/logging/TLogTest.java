@@ -1,14 +1,21 @@
 package lcm.java.system.logging;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import lcm.java.system.Filer;
 
@@ -91,6 +98,198 @@ class TLogTest {
         outMock.verifyOutput("FLUSHING NOW...", "Message one", "Message two");
     }
 
+    @Test
+    void testBoundedBuffer() {
+        new TestThread(() -> {
+            assertThrows(IllegalArgumentException.class, () -> TLog.bufferMessages(10, BufferOverflowPolicy.BLOCK));
+            TLog.bufferMessages(2, BufferOverflowPolicy.DROP_NEWEST);
+            TLog.info("Message one");
+            TLog.info("Message two");
+            TLog.info("Message three");
+            TLog.flushBufferedMessages();
+            assertEquals(1, TLog.getDroppedMessages());
+        }).startAndJoin();
+        outMock.verifyOutput("Message one", "Message two");
+    }
+
+    @Test
+    void testSharedLoggerAndContext() throws Exception {
+        new TestThread(() -> {
+            TLog.setMinimumLevel(LogLevel.DEBUG);
+            TLog.debug("Message one");
+            TLog.clean();
+        }).startAndJoin();
+        new TestThread(() -> TLog.debug("Not logged")).startAndJoin(); // Uses the shared logger, with the Global defaults.
+        outMock.verifyOutput("Message one");
+
+        outMock.clear(false);
+        try (LogContext context = TLog.newContext()) {
+            context.run(() -> TLog.bufferMessages(true));
+            var first = new TestThread(() -> context.run(() -> TLog.info("Message two")));
+            first.startAndJoin();
+            var second = new TestThread(() -> context.run(() -> TLog.info("Message three")));
+            second.startAndJoin();
+            assertTrue(outMock.messages.isEmpty());
+            TLog.info("Message four"); // Outside the context.
+            assertTrue(context.call(() -> TLog.bufferMessages()));
+            assertFalse(TLog.bufferMessages());
+            context.run(() -> TLog.flushBufferedMessages());
+        }
+        outMock.verifyOutput("Message four", "Message two", "Message three");
+    }
+
+    @Test
+    void testDiagnosticContext() throws Exception {
+        var executor = TLog.wrap(java.util.concurrent.Executors.newSingleThreadExecutor());
+        try {
+            new TestThread(() -> {
+                TLog.putDiagnostic("request", 42);
+                TLog.putDiagnostic("user", "john doe");
+                TLog.info("Message one");
+                var snapshot = TLog.getDiagnosticContext();
+                TLog.removeDiagnostic("user");
+                assertEquals("john doe", snapshot.get("user"));
+                try {
+                    executor.submit(() -> TLog.info("Message two")).get();
+                    TLog.clean();
+                    executor.submit(() -> TLog.info("Message three")).get();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                assertTrue(TLog.getDiagnosticContext().isEmpty());
+            }).startAndJoin();
+            executor.submit(() -> TLog.info("Message four")).get();
+        } finally {
+            executor.shutdown();
+        }
+        outMock.verifyOutput("Message one request=42 user=\"john doe\"", "Message two request=42", "Message three", "Message four");
+    }
+
+    @Test
+    void testAsyncLogging() {
+        TLog.setGlobalDefaultFilePath(OutputHandlerMock.TEST_FILE);
+        TLog.setGlobalDefaultLogAsync(true);
+        var threads = Stream.of("T1", "T2", "T3").map(name -> new TestThread(() -> {
+            for (int i = 0; i < 100; i++)
+                TLog.info("%s message %d", name, i);
+            TLog.clean();
+        })).toList();
+        threads.forEach(TestThread::start);
+        threads.forEach(TestThread::joinAndVerify);
+        TLog.setGlobalDefaultLogAsync(false);
+
+        var lines = Filer.get(OutputHandlerMock.TEST_FILE).readAsList();
+        assertEquals(300, lines.size());
+        for (String name : new String[] {"T1", "T2", "T3"}) {
+            var threadLines = lines.stream().filter(l -> l.contains(name)).toList();
+            for (int i = 0; i < 100; i++)
+                assertTrue(threadLines.get(i).endsWith(name + " message " + i));
+        }
+    }
+
+    @Test
+    void testParallelFileRolling(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("rolling.log");
+        TLog.setGlobalDefaultFilePath(file.toString());
+        TLog.setGlobalDefaultFileRolling(1000, null, 0);
+        var names = List.of("T1", "T2", "T3", "T4");
+        var threads = names.stream().map(name -> new TestThread(() -> {
+            for (int i = 0; i < 100; i++)
+                TLog.info("%s message %d", name, i);
+            TLog.clean();
+        })).toList();
+        threads.forEach(TestThread::start);
+        threads.forEach(TestThread::joinAndVerify);
+        TLog.setGlobalDefaultFileRolling(0, null, 0);
+
+        var lines = BasicLoggerTest.readArchivesAndFile(file, 0);
+        assertEquals(400, lines.size());
+        for (String name : names) {
+            var threadLines = lines.stream().filter(l -> l.contains(name + " ")).toList();
+            for (int i = 0; i < 100; i++)
+                assertTrue(threadLines.get(i).endsWith(name + " message " + i));
+        }
+    }
+
+    @Test
+    void testParallelSharedFile(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("shared.log");
+        Files.createDirectories(tempDir.resolve("sub"));
+        // Different spellings of the same path must end up in the same appender.
+        var paths = List.of(file.toString(), tempDir.resolve("./shared.log").toString(), tempDir.resolve("sub/../shared.log").toString());
+        int threadCount = 30;
+        int messageCount = 300;
+        var threads = new ArrayList<TestThread>();
+        for (int t = 0; t < threadCount; t++) {
+            var name = "T" + t;
+            var path = paths.get(t % paths.size());
+            threads.add(new TestThread(() -> {
+                TLog.setFilePath(path);
+                for (int i = 0; i < messageCount; i++)
+                    TLog.info("%s message %d", name, i);
+                TLog.clean();
+            }));
+        }
+        threads.forEach(TestThread::start);
+        threads.forEach(TestThread::joinAndVerify);
+
+        var lines = Files.readAllLines(file);
+        assertEquals(threadCount * messageCount, lines.size());
+        for (int t = 0; t < threadCount; t++) {
+            var name = "T" + t;
+            var threadLines = lines.stream().filter(l -> l.contains(" " + name + " ")).toList();
+            assertEquals(messageCount, threadLines.size());
+            for (int i = 0; i < messageCount; i++)
+                assertTrue(threadLines.get(i).endsWith(" " + name + " message " + i), threadLines.get(i));
+        }
+    }
+
+    @Test
+    void testSharedLoggersWhileDefaultsChange(@TempDir Path tempDir) throws Exception {
+        var file = tempDir.resolve("defaults.log");
+        TLog.setGlobalDefaultFilePath(file.toString());
+        int threadCount = 8;
+        int messageCount = 500;
+        var threads = new ArrayList<TestThread>();
+        for (int t = 0; t < threadCount; t++) {
+            var name = "T" + t;
+            threads.add(new TestThread(() -> { // Never changes a setting, so it logs through the shared loggers.
+                for (int i = 0; i < messageCount; i++)
+                    TLog.info("%s message %d", name, i);
+            }));
+        }
+        threads.forEach(TestThread::start);
+        for (int i = 0; i < 50; i++) // Each change replaces the shared loggers while the threads are logging on them.
+            TLog.setGlobalDefaultCustomHeader(i % 2 == 0 ? "[A]" : "[B]");
+        threads.forEach(TestThread::joinAndVerify);
+        TLog.setGlobalDefaultFilePath(null);
+
+        var lines = Files.readAllLines(file);
+        assertEquals(threadCount * messageCount, lines.size());
+        for (int t = 0; t < threadCount; t++) {
+            var name = "T" + t;
+            var threadLines = lines.stream().filter(l -> l.contains(name + " message ")).toList();
+            for (int i = 0; i < messageCount; i++)
+                assertTrue(threadLines.get(i).endsWith(name + " message " + i), threadLines.get(i));
+        }
+    }
+
+    @Test
+    void testDisabledLevelAllocation() {
+        var threadBean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        var param = "one";
+        new TestThread(() -> {
+            for (int i = 0; i < 100_000; i++) // Warm up, so class loading and compilation don't count.
+                TLog.debug("Message %s", param);
+            long before = threadBean.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 100_000; i++)
+                TLog.debug("Message %s", param);
+            long allocated = threadBean.getCurrentThreadAllocatedBytes() - before;
+            assertEquals(0, allocated / 100_000, () -> "Disabled log calls allocated " + allocated + " bytes");
+        }).startAndJoin();
+        assertTrue(outMock.messages.isEmpty());
+    }
+
     private class TestThread {
         final Thread thread;
         Throwable error = null;